@@ -0,0 +1,164 @@
+package com.github.lambdv.primitives;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ArrayKernels} on top of {@code jdk.incubator.vector}. Only compiled by the
+ * {@code vector} profile and instantiated reflectively by {@link Simd}.
+ */
+final class VectorKernels implements ArrayKernels {
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    // the GEMM microkernel keeps one NR-wide row of C per register
+    private static final VectorSpecies<Double> G = DoubleVector.SPECIES_256;
+    private static final boolean WIDE_GEMM = S.vectorBitSize() >= 256 && G.length() == Gemm.NR;
+
+    VectorKernels() {}
+
+    @Override
+    public void add(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).add(DoubleVector.fromArray(S, b, bi + i)).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = a[ai + i] + b[bi + i];
+    }
+
+    @Override
+    public void sub(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).sub(DoubleVector.fromArray(S, b, bi + i)).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = a[ai + i] - b[bi + i];
+    }
+
+    @Override
+    public void mul(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).mul(DoubleVector.fromArray(S, b, bi + i)).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = a[ai + i] * b[bi + i];
+    }
+
+    @Override
+    public void div(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).div(DoubleVector.fromArray(S, b, bi + i)).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = a[ai + i] / b[bi + i];
+    }
+
+    @Override
+    public void fma(double[] a, int ai, double[] b, int bi, double[] c, int ci, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i)
+                .fma(DoubleVector.fromArray(S, b, bi + i), DoubleVector.fromArray(S, c, ci + i))
+                .intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = Math.fma(a[ai + i], b[bi + i], c[ci + i]);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xi, double[] y, int yi, int n) {
+        DoubleVector va = DoubleVector.broadcast(S, alpha);
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, x, xi + i).fma(va, DoubleVector.fromArray(S, y, yi + i)).intoArray(y, yi + i);
+        }
+        for (; i < n; i++) y[yi + i] += alpha * x[xi + i];
+    }
+
+    @Override
+    public double dot(double[] a, int ai, double[] b, int bi, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            acc = DoubleVector.fromArray(S, a, ai + i).fma(DoubleVector.fromArray(S, b, bi + i), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) s += a[ai + i] * b[bi + i];
+        return s;
+    }
+
+    @Override
+    public double sum(double[] a, int ai, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            acc = acc.add(DoubleVector.fromArray(S, a, ai + i));
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) s += a[ai + i];
+        return s;
+    }
+
+    @Override
+    public void relu(double[] a, int ai, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).max(0.0).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) {
+            double v = a[ai + i];
+            out[oi + i] = v > 0 ? v : 0.0;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] a, int ai, double[] out, int oi, int n) {
+        DoubleVector one = DoubleVector.broadcast(S, 1.0);
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector e = DoubleVector.fromArray(S, a, ai + i).neg().lanewise(VectorOperators.EXP);
+            one.div(e.add(1.0)).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = 1.0 / (1.0 + Math.exp(-a[ai + i]));
+    }
+
+    @Override
+    public void tanh(double[] a, int ai, double[] out, int oi, int n) {
+        int i = 0;
+        for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+            DoubleVector.fromArray(S, a, ai + i).lanewise(VectorOperators.TANH).intoArray(out, oi + i);
+        }
+        for (; i < n; i++) out[oi + i] = Math.tanh(a[ai + i]);
+    }
+
+    @Override
+    public void gemmKernel(int kc, double[] ap, int ai, double[] bp, int bi,
+                           double[] c, int ci, int cRs, int cCs, int mr, int nr, boolean overwrite) {
+        if (!WIDE_GEMM) {
+            Gemm.kernel(kc, ap, ai, bp, bi, c, ci, cRs, cCs, mr, nr, overwrite);
+            return;
+        }
+        DoubleVector c0 = DoubleVector.zero(G), c1 = c0, c2 = c0, c3 = c0;
+        for (int p = 0; p < kc; p++, ai += Gemm.MR, bi += Gemm.NR) {
+            DoubleVector b = DoubleVector.fromArray(G, bp, bi);
+            c0 = b.fma(DoubleVector.broadcast(G, ap[ai]), c0);
+            c1 = b.fma(DoubleVector.broadcast(G, ap[ai + 1]), c1);
+            c2 = b.fma(DoubleVector.broadcast(G, ap[ai + 2]), c2);
+            c3 = b.fma(DoubleVector.broadcast(G, ap[ai + 3]), c3);
+        }
+        store(c0, c, ci, cCs, nr, overwrite); if (mr == 1) return; ci += cRs;
+        store(c1, c, ci, cCs, nr, overwrite); if (mr == 2) return; ci += cRs;
+        store(c2, c, ci, cCs, nr, overwrite); if (mr == 3) return; ci += cRs;
+        store(c3, c, ci, cCs, nr, overwrite);
+    }
+
+    private static void store(DoubleVector row, double[] c, int ci, int cs, int nr, boolean overwrite) {
+        if (nr == Gemm.NR && cs == 1) {
+            if (!overwrite) row = row.add(DoubleVector.fromArray(G, c, ci));
+            row.intoArray(c, ci);
+            return;
+        }
+        for (int j = 0; j < nr; j++) {
+            double v = row.lane(j);
+            if (overwrite) c[ci + j * cs] = v; else c[ci + j * cs] += v;
+        }
+    }
+}
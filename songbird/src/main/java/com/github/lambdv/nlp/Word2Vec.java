@@ -1,12 +1,16 @@
 package com.github.lambdv.nlp;
 import com.github.lambdv.nn.*;
 import com.github.lambdv.utils.*;
+import com.github.lambdv.primitives.SparseTensor;
+import com.github.lambdv.primitives.Tensor;
 
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import java.util.HashSet;
+import java.util.Objects;
+import java.util.TreeSet;
 
 import java.util.Map;
 import java.math.BigInteger;
@@ -68,14 +72,19 @@ class CBOW implements Word2Vec {
      * @return
      */
     public String forward(List<String> contextWordBag){
+        return forward(contextWordBag, 1).get(0);
+    }
+
+    /**
+     * the k most likely center words for the context words, most likely first
+     */
+    public List<String> forward(List<String> contextWordBag, int k){
         var x = Arrays.stream(encoder.oneHotBag(contextWordBag)).mapToObj(Double::valueOf).toList();
         var y = network.forward(x);
-        var highestProbability = y.stream().max(Double::compareTo).orElse(0.0);
-        var index = y.indexOf(highestProbability);
-        if (index == -1) {
-            throw new RuntimeException("No one-hot vector found for index " + index);
-        }
-        return encoder.decode(index);
+        var scores = Tensor.of(y.stream().mapToDouble(Double::doubleValue).toArray(), y.size());
+        return Arrays.stream(scores.topk(k, 0).indices().toArray())
+            .mapToObj(i -> encoder.decode((int) i))
+            .toList();
     }
 }
 
@@ -158,6 +167,23 @@ class OneHotEncoder {
             .orElseThrow(() -> new RuntimeException("No words provided"));
     }
 
+    /**
+     * Returns the bags of words as the rows of a sparse [bags, vocabSize] matrix,
+     * storing only the words present instead of a dense vector per bag.
+     */
+    public SparseTensor oneHotBags(List<List<String>> bags) {
+        int[] rowPtr = new int[bags.size() + 1];
+        List<Integer> cols = new ArrayList<>();
+        for (int i = 0; i < bags.size(); i++) {
+            new TreeSet<>(bags.get(i).stream().map(this::encode).filter(Objects::nonNull).toList())
+                .forEach(cols::add);
+            rowPtr[i + 1] = cols.size();
+        }
+        double[] ones = new double[cols.size()];
+        Arrays.fill(ones, 1.0);
+        return SparseTensor.csr(bags.size(), vocabSize(), rowPtr, cols.stream().mapToInt(Integer::intValue).toArray(), ones);
+    }
+
     /**
      * Returns vocabulary size.
      */
@@ -1,5 +1,8 @@
 package com.github.lambdv.nn;
 
+import com.github.lambdv.primitives.Tensor;
+
+import java.util.Arrays;
 import java.util.function.Function;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -8,36 +11,189 @@ public interface ActivationFunction extends Function<Double, Double>{
     final static ActivationFunction ReLU = new ReLU();
     final static ActivationFunction Sigmoid = new Sigmoid();
     final static ActivationFunction Identity = new Identity();
+    final static ActivationFunction Tanh = new Tanh();
+    final static ActivationFunction GELU = new GELU();
+    final static ActivationFunction LeakyReLU = new LeakyReLU(0.01);
     final static SoftMax SoftMax = new SoftMax();
 
+    public static ActivationFunction leakyReLU(double slope){
+        return new LeakyReLU(slope);
+    }
+
     // Derivative with respect to pre-activation z
     public default double derivative(double z){
         throw new UnsupportedOperationException("Derivative not implemented for " + this.getClass().getName());
     }
+
+    /** apply without boxing; the built-in activations implement this and apply delegates to it */
+    public default double applyAsDouble(double z){
+        return apply(z);
+    }
+
+    /** out[i] = activation(in[i]); out may be in itself */
+    public default void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = applyAsDouble(in[i]);
+    }
+
+    /** out[i] = grad[i] * derivative(z[i]), dL/dz from dL/da; out may be grad itself */
+    public default void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++) out[i] = grad[i] * derivative(z[i]);
+    }
 }
+
+// The built-ins override the bulk loops too, so each is a tight monomorphic loop the JIT can unroll and vectorize
+
 class ReLU implements ActivationFunction{
     @Override
     public Double apply(Double input) {
-        return Math.max(0, input);
+        return applyAsDouble(input);
+    }
+
+    @Override
+    public double applyAsDouble(double z){
+        return Math.max(0, z);
     }
 
     @Override
     public double derivative(double z){
         return z > 0.0 ? 1.0 : 0.0;
     }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = Math.max(0, in[i]);
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++) out[i] = z[i] > 0.0 ? grad[i] : 0.0;
+    }
+}
+
+class LeakyReLU implements ActivationFunction{
+    final double slope;
+
+    LeakyReLU(double slope){
+        this.slope = slope;
+    }
+
+    @Override
+    public Double apply(Double input) {
+        return applyAsDouble(input);
+    }
+
+    @Override
+    public double applyAsDouble(double z){
+        return z > 0.0 ? z : slope * z;
+    }
+
+    @Override
+    public double derivative(double z){
+        return z > 0.0 ? 1.0 : slope;
+    }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = in[i] > 0.0 ? in[i] : slope * in[i];
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++) out[i] = z[i] > 0.0 ? grad[i] : slope * grad[i];
+    }
 }
 
 class Sigmoid implements ActivationFunction{
     @Override
     public Double apply(Double input) {
-        return 1 / (1 + Math.exp(-input));
+        return applyAsDouble(input);
+    }
+
+    @Override
+    public double applyAsDouble(double z){
+        return 1 / (1 + Math.exp(-z));
     }
 
     @Override
     public double derivative(double z){
-        double s = apply(z);
+        double s = 1 / (1 + Math.exp(-z));
         return s * (1.0 - s);
     }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = 1 / (1 + Math.exp(-in[i]));
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++){
+            double s = 1 / (1 + Math.exp(-z[i]));
+            out[i] = grad[i] * s * (1.0 - s);
+        }
+    }
+}
+
+class Tanh implements ActivationFunction{
+    @Override
+    public Double apply(Double input) {
+        return applyAsDouble(input);
+    }
+
+    @Override
+    public double applyAsDouble(double z){
+        return Math.tanh(z);
+    }
+
+    @Override
+    public double derivative(double z){
+        double t = Math.tanh(z);
+        return 1.0 - t * t;
+    }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = Math.tanh(in[i]);
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++){
+            double t = Math.tanh(z[i]);
+            out[i] = grad[i] * (1.0 - t * t);
+        }
+    }
+}
+
+// tanh approximation 0.5 z (1 + tanh(sqrt(2 / pi) (z + 0.044715 z^3))), as in BERT and GPT-2
+class GELU implements ActivationFunction{
+    private static final double C = Math.sqrt(2 / Math.PI), K = 0.044715;
+
+    @Override
+    public Double apply(Double input) {
+        return applyAsDouble(input);
+    }
+
+    @Override
+    public double applyAsDouble(double z){
+        return 0.5 * z * (1 + Math.tanh(C * (z + K * z * z * z)));
+    }
+
+    @Override
+    public double derivative(double z){
+        double t = Math.tanh(C * (z + K * z * z * z));
+        return 0.5 * (1 + t) + 0.5 * z * (1 - t * t) * C * (1 + 3 * K * z * z);
+    }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        for(int i = 0; i < in.length; i++) out[i] = applyAsDouble(in[i]);
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        for(int i = 0; i < z.length; i++) out[i] = grad[i] * derivative(z[i]);
+    }
 }
 
 class Identity implements ActivationFunction{
@@ -46,21 +202,34 @@ class Identity implements ActivationFunction{
         return input;
     }
 
+    @Override
+    public double applyAsDouble(double z){
+        return z;
+    }
+
     @Override
     public double derivative(double z){
         return 1.0;
     }
+
+    @Override
+    public void forward(double[] in, double[] out){
+        if(in != out) System.arraycopy(in, 0, out, 0, in.length);
+    }
+
+    @Override
+    public void backward(double[] z, double[] grad, double[] out){
+        if(grad != out) System.arraycopy(grad, 0, out, 0, grad.length);
+    }
 }
 
 class SoftMax implements Function<List<Double>, List<Double>>{
     
     public List<Double> apply(List<Double> z) {
-        double max = z.stream().max(Double::compareTo).orElse(0.0); // for numerical stability
-        double sum = z.stream().map(x -> Math.exp(x - max)).reduce(0.0, Double::sum);
-        return z.stream().map(x -> Math.exp(x - max) / sum).toList();
+        return toList(Tensor.of(toArray(z), z.size()).softmax(0));
     }
 
-    // derivative returns the Jacobian
+    // derivative returns the Jacobian; backward gives its product with a gradient in O(n) instead
     public List<List<Double>> derivative(List<Double> z) {
         List<Double> s = apply(z);
         int n = z.size();
@@ -70,4 +239,19 @@ class SoftMax implements Function<List<Double>, List<Double>>{
                 .toList())
             .toList();
     }
-}
\ No newline at end of file
+
+    /** dL/dz given dL/dsoftmax(z), without building the n x n Jacobian. */
+    public List<Double> backward(List<Double> z, List<Double> gradOutput) {
+        Tensor x = Tensor.of(toArray(z), z.size()).requiresGrad(true);
+        x.softmax(0).backward(Tensor.of(toArray(gradOutput), gradOutput.size()));
+        return toList(x.grad());
+    }
+
+    private static double[] toArray(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private static List<Double> toList(Tensor t) {
+        return Arrays.stream(t.toArray()).boxed().toList();
+    }
+}
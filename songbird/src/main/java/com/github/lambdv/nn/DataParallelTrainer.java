@@ -0,0 +1,158 @@
+package com.github.lambdv.nn;
+
+import com.github.lambdv.primitives.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Trains an {@link MLP} of {@link DenseLayer}s on several threads at once.
+ *
+ * Every worker holds a replica of the model that shares its weight tensors but has its own
+ * gradient buffers and forward caches. In {@link Mode#SYNCHRONOUS} mode each mini-batch is cut
+ * into one contiguous shard per worker; the workers compute their shard's gradients, a binary
+ * tree of pairwise sums adds them up in log2(threads) rounds, and a single step applies the
+ * total. Shards and tree are fixed by the thread count alone, so a seeded shuffle gives the same
+ * weights on every run. In {@link Mode#HOGWILD} mode each worker walks its own slice of the epoch
+ * and steps the shared weights after every batch without any locking, trading reproducibility
+ * and the occasional lost update for no synchronization at all. Dense layers step every weight on
+ * every batch, so concurrent HOGWILD steps do overlap and lost updates grow with the thread count.
+ *
+ * The workers run on a fork-join pool of the given size that the trainer owns for its lifetime;
+ * the tensor kernels they call split their own work onto that same pool rather than the common
+ * one. Its threads are daemons that retire when idle, and {@link #close} shuts it down at once.
+ */
+public final class DataParallelTrainer implements AutoCloseable {
+    public enum Mode { SYNCHRONOUS, HOGWILD }
+
+    /** Throughput of one {@link #train} call. */
+    public record Stats(int threads, long samples, double seconds){
+        public double samplesPerSecond(){ return samples / seconds; }
+    }
+
+    /** Throughput at one thread count and its efficiency against the first count measured. */
+    public record Scaling(int threads, double samplesPerSecond, double efficiency){}
+
+    private final MLP model;
+    private final int threads;
+    private final Mode mode;
+    private final ForkJoinPool pool;
+
+    public DataParallelTrainer(MLP model, int threads){
+        this(model, threads, Mode.SYNCHRONOUS);
+    }
+
+    public DataParallelTrainer(MLP model, int threads, Mode mode){
+        if(threads < 1) throw new IllegalArgumentException("threads must be >= 1, got " + threads);
+        model.replica(); // fails early on layers that cannot be replicated
+        this.model = model;
+        this.threads = threads;
+        this.mode = mode;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Same contract as {@link MLP#train(Tensor, Tensor, LossFunction, double, int, int, Random)}, on
+     * this trainer's threads. In synchronous mode the weights match single-threaded training up to
+     * rounding, since only the order in which per-sample gradients are summed differs.
+     */
+    public Stats train(Tensor inputs, Tensor targets, LossFunction lossFunction, double learningRate, int epochs, int batchSize, Random shuffle){
+        int n = MLP.checkRows(inputs, targets, batchSize);
+        List<MLP> workers = IntStream.range(0, threads).mapToObj(w -> model.replica()).toList();
+        double[] order = shuffle == null ? null : IntStream.range(0, n).asDoubleStream().toArray();
+        long started = System.nanoTime();
+        for(int epoch = 0; epoch < epochs; epoch++){
+            if(shuffle != null) MLP.shuffle(order, shuffle);
+            if(mode == Mode.SYNCHRONOUS){
+                for(int start = 0; start < n; start += batchSize){
+                    synchronousStep(workers, inputs, targets, order, start, Math.min(batchSize, n - start), lossFunction, learningRate);
+                }
+            } else {
+                each(threads, w -> {
+                    // worker w's slice of the epoch, in batches that step the shared weights as they go
+                    int from = (int) ((long) n * w / threads), to = (int) ((long) n * (w + 1) / threads);
+                    for(int start = from; start < to; start += batchSize){
+                        int m = Math.min(batchSize, to - start);
+                        workers.get(w).zeroGrad();
+                        localGradients(workers.get(w), inputs, targets, order, start, m, m, lossFunction);
+                        workers.get(w).step(learningRate);
+                    }
+                });
+            }
+        }
+        return new Stats(threads, (long) n * epochs, (System.nanoTime() - started) / 1e9);
+    }
+
+    /** Shuts the trainer's pool down; train must not be called afterwards. */
+    @Override
+    public void close(){
+        pool.shutdown();
+    }
+
+    /**
+     * Trains a fresh model from the supplier for one synchronous epoch at each thread count, after an
+     * untimed warmup epoch that compiles the hot paths and starts the pool's threads. Efficiency is
+     * throughput per thread relative to the first count's, so 1.0 means perfectly linear scaling.
+     */
+    public static List<Scaling> scaling(Supplier<MLP> model, Tensor inputs, Tensor targets, LossFunction lossFunction,
+                                        double learningRate, int batchSize, int... threadCounts){
+        List<Scaling> out = new ArrayList<>();
+        double base = 0;
+        for(int t : threadCounts){
+            double rate;
+            try(DataParallelTrainer trainer = new DataParallelTrainer(model.get(), t)){
+                trainer.train(inputs, targets, lossFunction, learningRate, 1, batchSize, null);
+                rate = trainer.train(inputs, targets, lossFunction, learningRate, 1, batchSize, null).samplesPerSecond();
+            }
+            if(out.isEmpty()) base = rate / t;
+            out.add(new Scaling(t, rate, rate / (base * t)));
+        }
+        return out;
+    }
+
+    private void synchronousStep(List<MLP> workers, Tensor inputs, Tensor targets, double[] order,
+                                 int start, int m, LossFunction lossFunction, double learningRate){
+        each(threads, w -> {
+            int from = (int) ((long) m * w / threads), to = (int) ((long) m * (w + 1) / threads);
+            workers.get(w).zeroGrad();
+            if(to > from) localGradients(workers.get(w), inputs, targets, order, start + from, to - from, m, lossFunction);
+        });
+        // tree all-reduce: in round r worker w takes in worker w + 2^r, until worker 0 holds the sum
+        for(int stride = 1; stride < threads; stride *= 2){
+            int s = stride;
+            each((threads + 2 * s - 1) / (2 * s), p -> {
+                int w = p * 2 * s;
+                if(w + s < threads) accumulate(workers.get(w), workers.get(w + s));
+            });
+        }
+        workers.get(0).step(learningRate);
+    }
+
+    // gradients of the rows [start, start + m) on the worker, scaled by 1 / batch so the shards add up to the batch mean
+    private static void localGradients(MLP worker, Tensor inputs, Tensor targets, double[] order, int start, int m, int batch,
+                                       LossFunction lossFunction){
+        Tensor x = MLP.rows(inputs, order, start, m);
+        Tensor y = MLP.rows(targets, order, start, m);
+        Tensor output = worker.forward(x);
+        worker.backward(MLP.lossGradient(output, y, lossFunction, batch));
+    }
+
+    private static void accumulate(MLP into, MLP from){
+        for(int l = 0; l < into.layers.size(); l++){
+            ((DenseLayer) into.layers.get(l)).accumulate((DenseLayer) from.layers.get(l));
+        }
+    }
+
+    // runs body(0), ..., body(count - 1) as one task each on the pool and waits for all of them
+    private void each(int count, IntConsumer body){
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(IntStream.range(0, count).mapToObj(i -> ForkJoinTask.adapt(() -> body.accept(i))).toList());
+        }));
+    }
+}
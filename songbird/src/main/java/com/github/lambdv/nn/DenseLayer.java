@@ -0,0 +1,188 @@
+package com.github.lambdv.nn;
+
+import com.github.lambdv.primitives.Tensor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Fully connected layer a = activation(x W^T + b) with the weights of all neurons in one
+ * contiguous row-major [outputs, inputs] matrix, row i belonging to neuron i, and the biases in
+ * one [outputs] vector. forward on a [batch, inputs] tensor is a single GEMM (a GEMV for one
+ * sample), and backward two more: delta^T x for the weight gradient and delta W for dL/dx.
+ */
+public class DenseLayer implements Layer {
+    public final Tensor weights; // [outputs, inputs]
+    public final Tensor bias;    // [outputs]
+    public final ActivationFunction activation;
+
+    // accumulated dL/dweights and dL/dbias, cleared by zeroGrad
+    final Tensor weightGrad;
+    final Tensor biasGrad;
+    // this batch's share of them, written by backward before being added in
+    private final Tensor weightScratch;
+    private final Tensor biasScratch;
+
+    private Tensor inputCache;
+    private double[] zCache; // pre-activations of the last forward, row-major [batch, outputs]
+    // forward's pre-activation and output buffers, reused while the batch size stays the same
+    private Tensor zOut, aOut;
+    private double[] aCache;
+
+    public DenseLayer(Tensor weights, Tensor bias, ActivationFunction activation){
+        if(weights.ndim() != 2 || bias.ndim() != 1 || bias.shape()[0] != weights.shape()[0]){
+            throw new IllegalArgumentException("DenseLayer needs weights [outputs, inputs] and bias [outputs], got "
+                + Arrays.toString(weights.shape()) + " and " + Arrays.toString(bias.shape()));
+        }
+        // own copies, so training never writes through to the caller's tensors
+        this.weights = Tensor.zeros(weights.shape()).copyFrom(weights);
+        this.bias = Tensor.zeros(bias.shape()).copyFrom(bias);
+        this.activation = activation;
+        this.weightGrad = Tensor.zeros(weights.shape());
+        this.biasGrad = Tensor.zeros(bias.shape());
+        this.weightScratch = Tensor.zeros(weights.shape());
+        this.biasScratch = Tensor.zeros(bias.shape());
+    }
+
+    // shares the weights and bias of source, with fresh gradients and caches
+    private DenseLayer(DenseLayer source){
+        this.weights = source.weights;
+        this.bias = source.bias;
+        this.activation = source.activation;
+        this.weightGrad = Tensor.zeros(weights.shape());
+        this.biasGrad = Tensor.zeros(bias.shape());
+        this.weightScratch = Tensor.zeros(weights.shape());
+        this.biasScratch = Tensor.zeros(bias.shape());
+    }
+
+    /** Same initialization as {@link NeuronLayer#of}: weights uniform in [-0.5, 0.5) neuron by neuron, biases 0. */
+    public static DenseLayer of(
+        int numWeights, // mouth
+        int numNeurons, // tail
+        ActivationFunction activation
+    ){
+        final Random r = Neuron.INIT_RNG;
+        double[] w = new double[numNeurons * numWeights];
+        for(int i = 0; i < w.length; i++) w[i] = r.nextDouble() - 0.5;
+        return new DenseLayer(Tensor.of(w, numNeurons, numWeights), Tensor.zeros(numNeurons), activation);
+    }
+
+    /** Copies the weights and biases of one Neuron per output into a matrix-backed layer. */
+    public static DenseLayer of(List<Neuron> neurons){
+        if(neurons.isEmpty()) throw new IllegalArgumentException("Neuron layer must have at least one neuron");
+        int numWeights = neurons.get(0).weights.size();
+        double[] w = new double[neurons.size() * numWeights];
+        double[] b = new double[neurons.size()];
+        for(int i = 0; i < neurons.size(); i++){
+            Neuron n = neurons.get(i);
+            if(n.weights.size() != numWeights) throw new IllegalArgumentException("All neurons must have the same number of weights");
+            if(n.activation != neurons.get(0).activation) throw new IllegalArgumentException("All neurons must share one activation");
+            for(int j = 0; j < numWeights; j++) w[i * numWeights + j] = n.weights.get(j);
+            b[i] = n.bias;
+        }
+        return new DenseLayer(Tensor.of(w, neurons.size(), numWeights), Tensor.of(b, neurons.size()), neurons.get(0).activation);
+    }
+
+    public int inputs(){ return weights.shape()[1]; }
+    public int outputs(){ return weights.shape()[0]; }
+
+    // Per-neuron view for code written against NeuronLayer
+
+    /** A copy of the given neuron's weights. */
+    public List<Double> weights(int neuron){
+        return Arrays.stream(weights.select(0, neuron).toArray()).boxed().toList();
+    }
+
+    public double bias(int neuron){
+        return bias.get(neuron);
+    }
+
+    /** Snapshot of the layer as one Neuron per output; changing them does not change the layer. */
+    public List<Neuron> neurons(){
+        return IntStream.range(0, outputs())
+            .mapToObj(i -> new Neuron(weights(i), bias(i), activation))
+            .toList();
+    }
+
+    @Override
+    public List<Double> forward(List<Double> input){
+        if(input.size() != inputs()){
+            throw new IllegalArgumentException("Input size must match weights size");
+        }
+        double[] x = input.stream().mapToDouble(Double::doubleValue).toArray();
+        return toList(forward(Tensor.of(x, 1, x.length)));
+    }
+
+    /**
+     * Activations [batch, outputs] for inputs [batch, inputs]. The result is this layer's output buffer,
+     * which the next forward with the same batch size overwrites; copy it to keep it longer.
+     */
+    @Override
+    public Tensor forward(Tensor input){
+        if(input.ndim() != 2 || input.shape()[1] != inputs()){
+            throw new IllegalArgumentException("Input must be [batch, " + inputs() + "], got " + Arrays.toString(input.shape()));
+        }
+        int[] shape = {input.shape()[0], outputs()};
+        if(zOut == null || !Arrays.equals(zOut.shape(), shape)){
+            zCache = new double[shape[0] * shape[1]];
+            aCache = new double[zCache.length];
+            zOut = Tensor.wrap(zCache, shape);
+            aOut = Tensor.wrap(aCache, shape);
+        }
+        input.matmul(weights.T(), zOut).addInPlace(bias);
+        activation.forward(zCache, aCache);
+        this.inputCache = input;
+        return aOut;
+    }
+
+    @Override
+    public List<Double> backward(List<Double> gradOutput){
+        double[] g = gradOutput.stream().mapToDouble(Double::doubleValue).toArray();
+        return toList(backward(Tensor.of(g, 1, g.length)));
+    }
+
+    /** Accumulates the parameter gradients for dL/da = gradOutput [batch, outputs] of the last forward; returns dL/dx. */
+    @Override
+    public Tensor backward(Tensor gradOutput){
+        if(zCache == null) throw new IllegalStateException("backward called before forward");
+        int[] shape = {inputCache.shape()[0], outputs()};
+        if(!Arrays.equals(gradOutput.shape(), shape)){
+            throw new IllegalArgumentException("gradOutput must be " + Arrays.toString(shape) + ", got " + Arrays.toString(gradOutput.shape()));
+        }
+        double[] d = gradOutput.toArray();
+        activation.backward(zCache, d, d);
+        Tensor delta = Tensor.wrap(d, shape); // dL/dz
+        weightGrad.addInPlace(delta.T().matmul(inputCache, weightScratch));
+        biasGrad.addInPlace(delta.sum(new int[] {0}, false, biasScratch));
+        return delta.matmul(weights);
+    }
+
+    /** A worker's copy for data-parallel training: same weight tensors, its own gradients and caches. */
+    DenseLayer replica(){
+        return new DenseLayer(this);
+    }
+
+    /** Adds other's accumulated gradients into this layer's. */
+    void accumulate(DenseLayer other){
+        weightGrad.addInPlace(other.weightGrad);
+        biasGrad.addInPlace(other.biasGrad);
+    }
+
+    @Override
+    public void zeroGrad(){
+        weightGrad.fill(0.0);
+        biasGrad.fill(0.0);
+    }
+
+    @Override
+    public void step(double learningRate){
+        weights.axpy(-learningRate, weightGrad);
+        bias.axpy(-learningRate, biasGrad);
+    }
+
+    private static List<Double> toList(Tensor t){
+        return Arrays.stream(t.toArray()).boxed().toList();
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.lambdv.nn;
+
+import com.github.lambdv.primitives.Tensor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One fully connected step of an {@link MLP}: forward caches what backward needs, backward
+ * accumulates parameter gradients and returns dL/dinput, step applies them.
+ */
+public interface Layer {
+    public List<Double> forward(List<Double> input);
+
+    /** gradOutput is dL/da for each output of the last forward; returns dL/dx for each input */
+    public List<Double> backward(List<Double> gradOutput);
+
+    /**
+     * Outputs [batch, outputs] for inputs [batch, inputs]. The default runs the rows through
+     * {@link #forward(List)} one at a time, so only the last one is cached for backward.
+     */
+    public default Tensor forward(Tensor input){
+        int rows = input.shape()[0];
+        double[][] out = new double[rows][];
+        for(int r = 0; r < rows; r++){
+            var row = Arrays.stream(input.select(0, r).toArray()).boxed().toList();
+            out[r] = forward(row).stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        int width = rows == 0 ? 0 : out[0].length;
+        return Tensor.of(Arrays.stream(out).flatMapToDouble(Arrays::stream).toArray(), rows, width);
+    }
+
+    /**
+     * dL/dx [batch, inputs] for dL/da [batch, outputs] of the last forward. The default only
+     * handles a batch of one, through {@link #backward(List)}.
+     */
+    public default Tensor backward(Tensor gradOutput){
+        if(gradOutput.shape()[0] != 1){
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " has no batched backward, use DenseLayer");
+        }
+        var g = Arrays.stream(gradOutput.toArray()).boxed().toList();
+        double[] dx = backward(g).stream().mapToDouble(Double::doubleValue).toArray();
+        return Tensor.of(dx, 1, dx.length);
+    }
+
+    public void zeroGrad();
+
+    public void step(double learningRate);
+}
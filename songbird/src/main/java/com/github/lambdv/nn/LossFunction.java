@@ -1,7 +1,15 @@
 package com.github.lambdv.nn;
 
+import com.github.lambdv.primitives.Tensor;
+
+import java.util.Arrays;
 import java.util.function.BiFunction;
 
+/**
+ * Loss between a model's output and its target. The scalar methods score one output element;
+ * {@link #evaluate} scores a whole batch at once and is what {@link MLP#train} uses. A
+ * {@link RowWise} loss scores whole rows and has only the batched form.
+ */
 public interface LossFunction extends BiFunction<Double, Double, Double>{
 
     public Double backward(Double predicted, Double target);
@@ -10,6 +18,56 @@ public interface LossFunction extends BiFunction<Double, Double, Double>{
         return apply(predicted, target);
     }
 
+    /** Mean loss over a batch and its gradient with respect to the predictions. */
+    public record Evaluation(double loss, Tensor gradient){}
+
+    /**
+     * Loss of predicted against target, both row-major [batch, outputs], summed over each row and
+     * averaged over the batch; writes its gradient with respect to predicted into grad (which may be
+     * predicted itself) in the same pass. The default goes through the scalar methods element by element.
+     */
+    public default double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        checkBatch(predicted, target, batch, grad);
+        double loss = 0.0;
+        for(int i = 0; i < predicted.length; i++){
+            double p = predicted[i], t = target[i];
+            loss += apply(p, t);
+            grad[i] = backward(p, t) / batch;
+        }
+        return loss / batch;
+    }
+
+    /**
+     * A loss that couples the outputs of a row, such as cross-entropy on softmax logits, so no single
+     * element has a loss of its own: only the batched evaluate is defined and the scalar methods throw.
+     */
+    public interface RowWise extends LossFunction{
+        @Override
+        public default Double apply(Double predicted, Double target){
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " scores whole rows; use evaluate");
+        }
+
+        @Override
+        public default Double backward(Double predicted, Double target){
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " scores whole rows; use evaluate");
+        }
+
+        @Override
+        public double evaluate(double[] predicted, double[] target, int batch, double[] grad);
+    }
+
+    /** {@link #evaluate(double[], double[], int, double[])} for [batch, outputs] tensors. */
+    public default Evaluation evaluate(Tensor predicted, Tensor target){
+        int[] shape = predicted.shape();
+        if(shape.length != 2 || !Arrays.equals(shape, target.shape())){
+            throw new IllegalArgumentException("predicted and target must both be [batch, outputs], got "
+                + Arrays.toString(shape) + " and " + Arrays.toString(target.shape()));
+        }
+        double[] grad = predicted.toArray();
+        double loss = evaluate(grad, target.toArray(), shape[0], grad);
+        return new Evaluation(loss, Tensor.wrap(grad, shape));
+    }
+
     public static LossFunction MeanSquaredError(){
         return MSELoss;
     }
@@ -19,14 +77,28 @@ public interface LossFunction extends BiFunction<Double, Double, Double>{
     public static LossFunction BinaryCrossEntropy(){
         return BinaryCrossEntropyLoss;
     }
-    public static LossFunction SoftmaxCrossEntropy(){
+    public static LossFunction BinaryCrossEntropyWithLogits(){
+        return BinaryCrossEntropyWithLogitsLoss;
+    }
+    public static RowWise SoftmaxCrossEntropy(){
         return SoftmaxCrossEntropyLoss;
     }
 
     static LossFunction MSELoss = new MeanSquaredError();
     static LossFunction CrossEntropyLoss = new CrossEntropyLoss();
     static LossFunction BinaryCrossEntropyLoss = new BinaryCrossEntropyLoss();
-    static LossFunction SoftmaxCrossEntropyLoss = new SoftmaxCrossEntropyLoss();
+    static LossFunction BinaryCrossEntropyWithLogitsLoss = new BinaryCrossEntropyWithLogitsLoss();
+    static RowWise SoftmaxCrossEntropyLoss = new SoftmaxCrossEntropyLoss();
+
+    static void checkBatch(double[] predicted, double[] target, int batch, double[] grad){
+        if(target.length != predicted.length || grad.length != predicted.length){
+            throw new IllegalArgumentException("predicted, target and grad must have the same length, got "
+                + predicted.length + ", " + target.length + " and " + grad.length);
+        }
+        if(batch < 1 || predicted.length % batch != 0){
+            throw new IllegalArgumentException(predicted.length + " values do not split into " + batch + " rows");
+        }
+    }
 }
 
 //linear regression
@@ -35,41 +107,129 @@ class MeanSquaredError implements LossFunction{
     public Double apply(Double predicted, Double target) {
         return Math.pow(predicted - target, 2);
     }
-    
+
     public Double backward(Double predicted, Double target){
         return 2 * (predicted - target);
     }
+
+    @Override
+    public double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        LossFunction.checkBatch(predicted, target, batch, grad);
+        double loss = 0.0, scale = 2.0 / batch;
+        for(int i = 0; i < predicted.length; i++){
+            double d = predicted[i] - target[i];
+            loss += d * d;
+            grad[i] = scale * d;
+        }
+        return loss / batch;
+    }
 }
 
-//classification/logistic regression
+//classification on probabilities: -sum(t * log(p))
 class CrossEntropyLoss implements LossFunction{
     @Override
     public Double apply(Double predicted, Double target) {
-        return -Math.log(predicted);
+        return target == 0 ? 0.0 : -target * Math.log(predicted);
     }
     public Double backward(Double predicted, Double target){
-        return -1 / predicted;
+        return target == 0 ? 0.0 : -target / predicted;
+    }
+
+    @Override
+    public double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        LossFunction.checkBatch(predicted, target, batch, grad);
+        double loss = 0.0;
+        for(int i = 0; i < predicted.length; i++){
+            double p = predicted[i], t = target[i];
+            // 0 * log(0) counts as 0, so confident zeros on absent classes cost nothing
+            loss += t == 0 ? 0.0 : -t * Math.log(p);
+            grad[i] = t == 0 ? 0.0 : -t / p / batch;
+        }
+        return loss / batch;
     }
 }
 
-//binary classification (sigmoid)
+//binary classification on sigmoid probabilities: -(t log(p) + (1 - t) log(1 - p)), p clamped away from 0 and 1
 class BinaryCrossEntropyLoss implements LossFunction{
+    private static final double EPS = 1e-12;
+
     @Override
     public Double apply(Double predicted, Double target) {
-        return -Math.log(predicted);
+        double p = Math.min(Math.max(predicted, EPS), 1 - EPS);
+        return -(target * Math.log(p) + (1 - target) * Math.log(1 - p));
     }
     public Double backward(Double predicted, Double target){
-        return -1 / predicted;
+        double p = Math.min(Math.max(predicted, EPS), 1 - EPS);
+        return (p - target) / (p * (1 - p));
+    }
+
+    @Override
+    public double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        LossFunction.checkBatch(predicted, target, batch, grad);
+        double loss = 0.0;
+        for(int i = 0; i < predicted.length; i++){
+            double p = Math.min(Math.max(predicted[i], EPS), 1 - EPS), t = target[i];
+            loss -= t * Math.log(p) + (1 - t) * Math.log(1 - p);
+            grad[i] = (p - t) / (p * (1 - p)) / batch;
+        }
+        return loss / batch;
     }
 }
 
-//multi-class classification
-class SoftmaxCrossEntropyLoss implements LossFunction{
+//binary classification on logits z: BCE(sigmoid(z)) as max(z, 0) - z t + log(1 + exp(-|z|)), gradient sigmoid(z) - t
+class BinaryCrossEntropyWithLogitsLoss implements LossFunction{
     @Override
     public Double apply(Double predicted, Double target) {
-        return -Math.log(predicted);
+        double z = predicted;
+        return Math.max(z, 0) - z * target + Math.log1p(Math.exp(-Math.abs(z)));
     }
     public Double backward(Double predicted, Double target){
-        return -1 / predicted;
+        return 1 / (1 + Math.exp(-predicted)) - target;
     }
-}
\ No newline at end of file
+
+    @Override
+    public double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        LossFunction.checkBatch(predicted, target, batch, grad);
+        double loss = 0.0;
+        for(int i = 0; i < predicted.length; i++){
+            double z = predicted[i], t = target[i];
+            double e = Math.exp(-Math.abs(z));
+            loss += Math.max(z, 0) - z * t + Math.log1p(e);
+            // sigmoid(z) from the same exp, without overflow on either side
+            double s = z >= 0 ? 1 / (1 + e) : e / (1 + e);
+            grad[i] = (s - t) / batch;
+        }
+        return loss / batch;
+    }
+}
+
+/**
+ * multi-class classification on logits: cross-entropy of softmax(z) over each row, fused as
+ * sum(t) logsumexp(z) - sum(t z) with gradient softmax(z) sum(t) - t, i.e. softmax - onehot.
+ * Row-wise only; for probabilities that already went through a softmax use CrossEntropy.
+ */
+class SoftmaxCrossEntropyLoss implements LossFunction.RowWise{
+    @Override
+    public double evaluate(double[] predicted, double[] target, int batch, double[] grad){
+        LossFunction.checkBatch(predicted, target, batch, grad);
+        int classes = predicted.length / batch;
+        double loss = 0.0;
+        for(int r = 0, base = 0; r < batch; r++, base += classes){
+            double m = Double.NEGATIVE_INFINITY, mass = 0.0, dot = 0.0;
+            for(int j = base; j < base + classes; j++){
+                m = Math.max(m, predicted[j]);
+                mass += target[j];
+            }
+            double s = 0.0;
+            for(int j = base; j < base + classes; j++) s += Math.exp(predicted[j] - m);
+            double lse = m + Math.log(s);
+            for(int j = base; j < base + classes; j++){
+                double z = predicted[j], t = target[j];
+                if(t != 0) dot += t * z;
+                grad[j] = (Math.exp(z - m) / s * mass - t) / batch;
+            }
+            loss += mass * lse - dot;
+        }
+        return loss / batch;
+    }
+}
@@ -4,18 +4,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.IntStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import com.github.lambdv.primitives.Tensor;
 import com.github.lambdv.primitives.XY;
 
 public class MLP{
-    List<NeuronLayer> layers;
-    public MLP(List<NeuronLayer> layers){
-        this.layers = layers;
+    List<Layer> layers;
+    public MLP(List<? extends Layer> layers){
+        this.layers = List.copyOf(layers);
     }
 
     public static MLP of(int... sizes){
         return new MLP(
             IntStream.range(1, sizes.length)
-                .mapToObj(i -> NeuronLayer.of(sizes[i-1], sizes[i], ActivationFunction.Identity))
+                .mapToObj(i -> DenseLayer.of(sizes[i-1], sizes[i], ActivationFunction.Identity))
                 .toList()
         );
     }
@@ -23,7 +26,7 @@ public class MLP{
     public static MLP of(int[] sizes, ActivationFunction[] activations){
         return new MLP(
             IntStream.range(1, sizes.length)
-                .mapToObj(i -> NeuronLayer.of(sizes[i-1], sizes[i], activations[i]))
+                .mapToObj(i -> DenseLayer.of(sizes[i-1], sizes[i], activations[i]))
                 .toList()
         );
     }
@@ -46,6 +49,13 @@ public class MLP{
 
     
 
+    /** feeds a batch [batch, features] through the network, returning [batch, outputs]; a DenseLayer's result is reused by its next forward */
+    public Tensor forward(Tensor input){
+        Tensor x = input;
+        for(Layer layer : layers) x = layer.forward(x);
+        return x;
+    }
+
     /**
      * propagates gradient through the network backwards
      * @param gradOutput
@@ -56,11 +66,18 @@ public class MLP{
             .reduce(gradient, (previousGradient, layer) -> layer.backward(previousGradient), (a, b) -> b);
     }
 
+    /** propagates dL/doutput [batch, outputs] of the last batched forward back through the network */
+    public Tensor backward(Tensor gradient){
+        Tensor g = gradient;
+        for(Layer layer : layers.reversed()) g = layer.backward(g);
+        return g;
+    }
+
     /**
      * resets the gradients of the network
      */
     public void zeroGrad(){
-        layers.forEach(NeuronLayer::zeroGrad);
+        layers.forEach(Layer::zeroGrad);
     }
 
     /**
@@ -71,52 +88,126 @@ public class MLP{
         layers.forEach(l -> l.step(learningRate));
     }
     
+    /** per-sample SGD, see {@link #train(Tensor, Tensor, LossFunction, double, int, int, Random)} */
     public void train(Map<List<Double>, List<Double>> trainingSet, LossFunction lossFunction, double learningRate, int epochs){
-        var samples = trainingSet.entrySet().stream().toList();
-        if(samples.isEmpty()) return;
+        train(trainingSet, lossFunction, learningRate, epochs, 1);
+    }
 
-        for(int epoch = 0; epoch < epochs; epoch++){
-            for(var sample : samples){
-                var input = sample.getKey();
-                var target = sample.getValue();
+    public void train(Map<List<Double>, List<Double>> trainingSet, LossFunction lossFunction, double learningRate, int epochs, int batchSize){
+        train(trainingSet, lossFunction, learningRate, epochs, batchSize, null);
+    }
 
-                // SGD per-sample style: zero grads, forward, backward, step
-                zeroGrad();
-                var output = forward(input);
+    public void train(Map<List<Double>, List<Double>> trainingSet, LossFunction lossFunction, double learningRate, int epochs, int batchSize, Random shuffle){
+        if(trainingSet.isEmpty()) return;
+        var samples = trainingSet.entrySet().stream().toList();
+        var inputs = matrix(samples.stream().map(e -> e.getKey()).toList());
+        var targets = matrix(samples.stream().map(e -> e.getValue()).toList());
+        train(inputs, targets, lossFunction, learningRate, epochs, batchSize, shuffle);
+    }
 
-                List<Double> gradOut = new ArrayList<>(output.size());
-                for(int i = 0; i < output.size(); i++){
-                    gradOut.add(lossFunction.backward(output.get(i), target.get(i)));
-                }
+    /** per-sample SGD, see {@link #train(Tensor, Tensor, LossFunction, double, int, int, Random)} */
+    public void train(XY trainingSet, LossFunction lossFunction, double learningRate, int epochs){
+        train(trainingSet, lossFunction, learningRate, epochs, 1);
+    }
 
-                backward(gradOut);
-                step(learningRate);
-            }
-        }
+    public void train(XY trainingSet, LossFunction lossFunction, double learningRate, int epochs, int batchSize){
+        train(trainingSet, lossFunction, learningRate, epochs, batchSize, null);
     }
 
-    public void train(XY trainingSet, LossFunction lossFunction, double learningRate, int epochs){
+    public void train(XY trainingSet, LossFunction lossFunction, double learningRate, int epochs, int batchSize, Random shuffle){
         var inputs = trainingSet.inputs();
         var targets = trainingSet.targets();
-        if(inputs.size() != targets.size()) return;
+        if(inputs.isEmpty() || inputs.size() != targets.size()) return;
+        // parse every cell once, not once per epoch
+        train(matrix(parse(inputs)), matrix(parse(targets)), lossFunction, learningRate, epochs, batchSize, shuffle);
+    }
 
+    /**
+     * Mini-batch gradient descent over the rows of inputs [samples, features] and targets [samples, outputs].
+     * Each step runs one batch of up to batchSize rows through the layers as a matrix, averages the loss
+     * gradient over the batch and updates the weights once. With shuffle set the rows are visited in a new
+     * random order every epoch, otherwise in order; batchSize 1 without shuffling is plain per-sample SGD.
+     */
+    public void train(Tensor inputs, Tensor targets, LossFunction lossFunction, double learningRate, int epochs, int batchSize, Random shuffle){
+        int n = checkRows(inputs, targets, batchSize);
+        double[] order = shuffle == null ? null : IntStream.range(0, n).asDoubleStream().toArray();
         for(int epoch = 0; epoch < epochs; epoch++){
-            for(int idx = 0; idx < inputs.size(); idx++){
-                var input = inputs.get(idx).stream().map(Double::parseDouble).toList();
-                var target = targets.get(idx).stream().map(Double::parseDouble).toList();
+            if(shuffle != null) shuffle(order, shuffle);
+            for(int start = 0; start < n; start += batchSize){
+                int m = Math.min(batchSize, n - start);
+                Tensor x = rows(inputs, order, start, m);
+                Tensor y = rows(targets, order, start, m);
 
                 zeroGrad();
-                var output = forward(input);
+                var output = forward(x);
+                backward(lossGradient(output, y, lossFunction, m));
+                step(learningRate);
+            }
+        }
+    }
 
-                List<Double> gradOut = new ArrayList<>(output.size());
-                for(int i = 0; i < output.size(); i++){
-                    gradOut.add(lossFunction.backward(output.get(i), target.get(i)));
-                }
+    // Helpers shared with DataParallelTrainer
 
-                backward(gradOut);
-                step(learningRate);
+    /** the number of samples, after checking that inputs and targets agree on it */
+    static int checkRows(Tensor inputs, Tensor targets, int batchSize){
+        int n = inputs.shape()[0];
+        if(targets.shape()[0] != n){
+            throw new IllegalArgumentException("inputs and targets must have the same number of rows, got " + n + " and " + targets.shape()[0]);
+        }
+        if(batchSize < 1) throw new IllegalArgumentException("batchSize must be >= 1, got " + batchSize);
+        return n;
+    }
+
+    /** Fisher-Yates shuffle of the row order */
+    static void shuffle(double[] order, Random random){
+        for(int i = order.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            double t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    /** m rows from start: a view when order is null, otherwise the rows that order lists there */
+    static Tensor rows(Tensor data, double[] order, int start, int m){
+        if(order == null) return data.narrow(0, start, m);
+        return data.indexSelect(0, Tensor.of(Arrays.copyOfRange(order, start, start + m), m));
+    }
+
+    /** a model sharing this one's weights, with its own gradients and caches; DenseLayers only */
+    MLP replica(){
+        return new MLP(layers.stream().map(layer -> {
+            if(!(layer instanceof DenseLayer dense)){
+                throw new IllegalArgumentException("Data-parallel training needs DenseLayers, got " + layer.getClass().getSimpleName());
             }
+            return dense.replica();
+        }).toList());
+    }
+
+    // dL/doutput for output rows that are part of a batch of the given size, from the loss's batched evaluate
+    static Tensor lossGradient(Tensor output, Tensor target, LossFunction lossFunction, int batch){
+        int rows = output.shape()[0];
+        double[] grad = output.toArray();
+        lossFunction.evaluate(grad, target.toArray(), rows, grad);
+        // evaluate averages over these rows; a shard of a larger batch only carries its share
+        if(rows != batch) for(int i = 0; i < grad.length; i++) grad[i] *= (double) rows / batch;
+        return Tensor.wrap(grad, output.shape());
+    }
+
+    private static List<List<Double>> parse(List<List<String>> rows){
+        return rows.stream().map(r -> r.stream().map(Double::parseDouble).toList()).toList();
+    }
+
+    // rows stacked into a [rows, columns] tensor
+    private static Tensor matrix(List<List<Double>> rows){
+        int width = rows.get(0).size();
+        double[] data = new double[rows.size() * width];
+        for(int r = 0; r < rows.size(); r++){
+            var row = rows.get(r);
+            if(row.size() != width) throw new IllegalArgumentException("Row " + r + " has " + row.size() + " values, expected " + width);
+            for(int c = 0; c < width; c++) data[r * width + c] = row.get(c);
         }
+        return Tensor.of(data, rows.size(), width);
     }
 
 
@@ -6,7 +6,7 @@ import java.util.ArrayList;
 import java.util.Random;
 
 public class Neuron {
-    private static final Random INIT_RNG = new Random(42);
+    static final Random INIT_RNG = new Random(42); // shared with DenseLayer.of
     //params
     public List<Double> weights;
     public double bias;
@@ -61,7 +61,7 @@ public class Neuron {
             .sum() 
             + bias;
         this.zCache = z;
-        var a = activation.apply(z);
+        var a = activation.applyAsDouble(z);
         this.aCache = a;
         return a;
     }
@@ -4,9 +4,13 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.stream.IntStream;
 
+/**
+ * Layer kept as one {@link Neuron} object per output; {@link DenseLayer} is the matrix-backed
+ * equivalent that {@link MLP#of} builds.
+ */
 public record NeuronLayer(
     List<Neuron> neurons
-){
+) implements Layer {
     public NeuronLayer{
         assert neurons.size() > 0 : "Neuron layer must have at least one neuron";
         assert neurons.stream().allMatch(neuron -> neuron.weights.size() == neurons.get(0).weights.size()) : "All neurons must have the same number of weights";
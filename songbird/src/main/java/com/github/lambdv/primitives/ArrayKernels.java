@@ -0,0 +1,31 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Unit-stride loops over primitive arrays that have both a scalar and a SIMD implementation.
+ * {@link TensorKernels} and {@link Gemm} route their contiguous runs through the instance
+ * returned by {@link Simd#kernels()}.
+ */
+interface ArrayKernels {
+    // out[i] = a[i] op b[i]
+    void add(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n);
+    void sub(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n);
+    void mul(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n);
+    void div(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n);
+
+    // out[i] = a[i] * b[i] + c[i]
+    void fma(double[] a, int ai, double[] b, int bi, double[] c, int ci, double[] out, int oi, int n);
+
+    // y[i] += alpha * x[i]
+    void axpy(double alpha, double[] x, int xi, double[] y, int yi, int n);
+
+    double dot(double[] a, int ai, double[] b, int bi, int n);
+    double sum(double[] a, int ai, int n);
+
+    void relu(double[] a, int ai, double[] out, int oi, int n);
+    void sigmoid(double[] a, int ai, double[] out, int oi, int n);
+    void tanh(double[] a, int ai, double[] out, int oi, int n);
+
+    /** {@link Gemm#MR} x {@link Gemm#NR} microkernel over packed panels, see {@link Gemm#kernel}. */
+    void gemmKernel(int kc, double[] ap, int ai, double[] bp, int bi,
+                    double[] c, int ci, int cRs, int cCs, int mr, int nr, boolean overwrite);
+}
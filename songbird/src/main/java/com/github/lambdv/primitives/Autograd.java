@@ -0,0 +1,153 @@
+package com.github.lambdv.primitives;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Reverse-mode differentiation for {@link Tensor}. Ops on tensors that require grad record a
+ * {@link Node} on their result: the inputs plus a closure mapping dL/d(output) to dL/d(each input).
+ * {@link #backward} walks those nodes from the output in reverse topological order, summing the
+ * gradient reaching every tensor before passing it on, and accumulates into the leaves' grad.
+ * Every step is a whole-tensor op, and none of them is recorded.
+ */
+final class Autograd {
+    private Autograd() {}
+
+    @FunctionalInterface
+    interface Backward {
+        /** gradients for each input, in order; null for an input that gets none */
+        Tensor[] apply(Tensor gradOutput);
+    }
+
+    static final class Node {
+        final Tensor[] inputs;
+        final Backward backward;
+
+        Node(Tensor[] inputs, Backward backward) {
+            this.inputs = inputs;
+            this.backward = backward;
+        }
+    }
+
+    private static final ThreadLocal<int[]> PAUSED = ThreadLocal.withInitial(() -> new int[1]);
+
+    static boolean enabled() {
+        return PAUSED.get()[0] == 0;
+    }
+
+    static <T> T noGrad(Supplier<T> body) {
+        int[] depth = PAUSED.get();
+        depth[0]++;
+        try {
+            return body.get();
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    static boolean tracks(Tensor a) {
+        return a.requiresGrad() && enabled();
+    }
+
+    static boolean tracks(Tensor a, Tensor b) {
+        return (a.requiresGrad() || b.requiresGrad()) && enabled();
+    }
+
+    static boolean tracks(Tensor a, Tensor b, Tensor c) {
+        return (a.requiresGrad() || b.requiresGrad() || c.requiresGrad()) && enabled();
+    }
+
+    static void backward(Tensor root, Tensor seed) {
+        if (!root.requiresGrad()) throw new IllegalStateException("Tensor does not require grad");
+        if (!Arrays.equals(root.shape(), seed.shape())) {
+            throw new IllegalArgumentException("Gradient shape " + Arrays.toString(seed.shape()) + " does not match " + Arrays.toString(root.shape()));
+        }
+        List<Tensor> order = topologicalOrder(root);
+        noGrad(() -> {
+            Map<Tensor, Tensor> pending = new IdentityHashMap<>();
+            pending.put(root, seed);
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Tensor t = order.get(i);
+                Tensor g = pending.remove(t);
+                if (g == null) continue;
+                Node node = t.gradFn();
+                if (node == null) {
+                    t.accumulateGrad(g);
+                    continue;
+                }
+                Tensor[] grads = node.backward.apply(g);
+                for (int j = 0; j < node.inputs.length; j++) {
+                    Tensor in = node.inputs[j];
+                    if (grads[j] == null || !in.requiresGrad()) continue;
+                    pending.merge(in, grads[j], Tensor::add);
+                }
+            }
+            return null;
+        });
+    }
+
+    // inputs before the tensors computed from them; iterative so deep graphs cannot overflow the stack
+    private static List<Tensor> topologicalOrder(Tensor root) {
+        Map<Tensor, Boolean> done = new IdentityHashMap<>();
+        List<Tensor> order = new ArrayList<>();
+        ArrayDeque<Tensor> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Tensor t = stack.peek();
+            if (done.containsKey(t)) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            Node node = t.gradFn();
+            if (node != null) {
+                for (Tensor in : node.inputs) {
+                    if (in.requiresGrad() && !done.containsKey(in)) {
+                        stack.push(in);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.put(t, Boolean.TRUE);
+                order.add(t);
+            }
+        }
+        return order;
+    }
+
+    // Gradient helpers
+
+    /** Sums a broadcast gradient back down to the shape of the operand it came from. */
+    static Tensor sumTo(Tensor g, int[] shape) {
+        int[] gs = g.shape();
+        if (Arrays.equals(gs, shape)) return g;
+        Tensor r = g;
+        for (int i = 0; i < gs.length - shape.length; i++) r = r.sum(0);
+        for (int d = 0; d < shape.length; d++) {
+            if (shape[d] == 1 && r.shape()[d] != 1) r = r.sum(d, true);
+        }
+        return r;
+    }
+
+    /** Broadcasts g up to shape as a fresh tensor. */
+    static Tensor expandTo(Tensor g, int[] shape) {
+        return Tensor.empty(g.dtype(), shape, g.isOffHeap()).copyFrom(g);
+    }
+
+    /** Swaps the last two dims. */
+    static Tensor mT(Tensor t) {
+        int r = t.ndim();
+        int[] dims = new int[r];
+        for (int i = 0; i < r; i++) dims[i] = i;
+        dims[r - 2] = r - 1;
+        dims[r - 1] = r - 2;
+        return t.permute(dims);
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.lambdv.primitives;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the in-tree {@link TensorBackend}s and switch for the active one.
+ *
+ * The backend is chosen once at startup: the one named by {@code -Dsongbird.backend=<name>}, which
+ * must exist, otherwise the one with the highest priority. {@link #use} replaces it at runtime for
+ * every thread.
+ */
+public final class Backends {
+    private static final List<TensorBackend> AVAILABLE = load();
+    private static volatile TensorBackend active = initial();
+
+    private Backends() {}
+
+    /** Every backend, highest priority first. */
+    public static List<TensorBackend> available() {
+        return AVAILABLE;
+    }
+
+    public static TensorBackend current() {
+        return active;
+    }
+
+    public static TensorBackend get(String name) {
+        for (TensorBackend b : AVAILABLE) {
+            if (b.name().equals(name)) return b;
+        }
+        List<String> names = AVAILABLE.stream().map(TensorBackend::name).toList();
+        throw new IllegalArgumentException("Unknown tensor backend '" + name + "', available: " + names);
+    }
+
+    /** Makes the named backend the active one and returns it. */
+    public static TensorBackend use(String name) {
+        TensorBackend b = get(name);
+        active = b;
+        return b;
+    }
+
+    private static List<TensorBackend> load() {
+        return Stream.<TensorBackend>of(new ParallelBackend(), new ReferenceBackend())
+            .sorted(Comparator.comparingInt(TensorBackend::priority).reversed())
+            .toList();
+    }
+
+    private static TensorBackend initial() {
+        // a misspelt name fails here, like it does in use, rather than quietly running the default
+        String name = System.getProperty("songbird.backend");
+        return name == null ? AVAILABLE.get(0) : get(name.trim());
+    }
+}
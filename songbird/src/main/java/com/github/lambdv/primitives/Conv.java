@@ -0,0 +1,279 @@
+package com.github.lambdv.primitives;
+
+import java.util.Arrays;
+
+/**
+ * 2D convolution and pooling over [N, C, H, W] tensors; the 1D ops in {@link Tensor} are these
+ * with H = 1.
+ *
+ * A convolution is lowered to {@link Gemm}: im2col unrolls every receptive field of one image
+ * into a column of a [C * KH * KW, OH * OW] matrix, so the output image is the weight matrix
+ * [O, C * KH * KW] times that matrix. The input gradient is the transposed product folded back
+ * with col2im, and the weight gradient sums one product per image against the re-unrolled
+ * columns. Images run in parallel on the common fork-join pool, each with its own column buffer;
+ * a single image lets the GEMM itself parallelize instead. Everything is computed in double.
+ * The forward pass goes through the current {@link TensorBackend}; {@link #forward} is the
+ * built-in one.
+ */
+final class Conv {
+    private Conv() {}
+
+    /** Input, kernel and output extents of one 2D sliding window op. */
+    static final class Geometry {
+        final int n, c, h, w, kh, kw, sh, sw, ph, pw, dh, dw, oh, ow;
+
+        Geometry(int[] input, int kh, int kw, int[] stride, int[] padding, int[] dilation) {
+            this.n = input[0];
+            this.c = input[1];
+            this.h = input[2];
+            this.w = input[3];
+            this.kh = kh;
+            this.kw = kw;
+            this.sh = check(stride, 0, 1, "stride");
+            this.sw = check(stride, 1, 1, "stride");
+            this.ph = check(padding, 0, 0, "padding");
+            this.pw = check(padding, 1, 0, "padding");
+            this.dh = check(dilation, 0, 1, "dilation");
+            this.dw = check(dilation, 1, 1, "dilation");
+            this.oh = (h + 2 * ph - dh * (kh - 1) - 1) / sh + 1;
+            this.ow = (w + 2 * pw - dw * (kw - 1) - 1) / sw + 1;
+            if (h + 2 * ph < dh * (kh - 1) + 1 || w + 2 * pw < dw * (kw - 1) + 1) {
+                throw new IllegalArgumentException("Kernel " + kh + "x" + kw + " with dilation " + dh + "x" + dw
+                    + " does not fit the padded input " + (h + 2 * ph) + "x" + (w + 2 * pw));
+            }
+        }
+
+        private static int check(int[] values, int i, int min, String name) {
+            if (values.length != 2) throw new IllegalArgumentException(name + " must have 2 entries, got " + values.length);
+            if (values[i] < min) throw new IllegalArgumentException(name + " must be >= " + min + ", got " + values[i]);
+            return values[i];
+        }
+
+        int[] outShape(int channels) { return new int[] {n, channels, oh, ow}; }
+        int inPlane() { return h * w; }
+        int outPlane() { return oh * ow; }
+    }
+
+    // Convolution
+
+    static Tensor conv2d(Tensor x, Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation) {
+        if (x.ndim() != 4) throw new IllegalArgumentException("conv2d expects input [N, C, H, W], got " + x.ndim() + "D");
+        if (weight.ndim() != 4) throw new IllegalArgumentException("conv2d expects weight [O, C, KH, KW], got " + weight.ndim() + "D");
+        int[] ws = weight.shape();
+        if (ws[1] != x.shape()[1]) {
+            throw new IllegalArgumentException("Weight expects " + ws[1] + " input channels but input has " + x.shape()[1]);
+        }
+        if (bias != null && (bias.ndim() != 1 || bias.shape()[0] != ws[0])) {
+            throw new IllegalArgumentException("Bias must have shape [" + ws[0] + "], got " + Arrays.toString(bias.shape()));
+        }
+        Geometry g = new Geometry(x.shape(), ws[2], ws[3], stride, padding, dilation);
+        int o = ws[0];
+        Tensor out = Tensor.empty(DType.FLOAT64, g.outShape(o), false);
+        Backends.current().conv2d(x, weight, bias, stride, padding, dilation, out);
+
+        DType dtype = DType.promote(x.dtype(), weight.dtype());
+        boolean tracks = Autograd.enabled() && (x.requiresGrad() || weight.requiresGrad() || bias != null && bias.requiresGrad());
+        if (tracks) {
+            Autograd.Backward backward = gOut -> {
+                double[] gd = elements(gOut), xd = elements(x), wd = elements(weight);
+                return new Tensor[] {
+                    x.requiresGrad() ? inputGrad(gd, wd, g, o).to(x.dtype()) : null,
+                    weight.requiresGrad() ? weightGrad(gd, xd, g, o).to(weight.dtype()) : null,
+                    bias != null && bias.requiresGrad() ? gOut.sum(new int[] {0, 2, 3}, false).to(bias.dtype()) : null
+                };
+            };
+            out = bias == null ? Tensor.record(out, backward, x, weight) : Tensor.record(out, backward, x, weight, bias);
+        }
+        return out.to(dtype);
+    }
+
+    // the built-in forward pass, run by ParallelBackend
+    static void forward(Tensor x, Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation, Tensor out) {
+        int[] ws = weight.shape();
+        Geometry g = new Geometry(x.shape(), ws[2], ws[3], stride, padding, dilation);
+        int o = ws[0], ckk = g.c * g.kh * g.kw, l = g.outPlane();
+        double[] xd = elements(x), wd = elements(weight), bd = bias == null ? null : elements(bias);
+        double[] od = out.storage().doubles();
+        Parallel.forEach(g.n, (long) o * ckk * l, (from, to, split) -> {
+            double[] col = new double[ckk * l];
+            for (int i = (int) from; i < to; i++) {
+                im2col(xd, i * g.c * g.inPlane(), g, col);
+                Gemm.gemm(o, l, ckk, wd, 0, ckk, 1, col, 0, l, 1, od, i * o * l, l, 1, !split);
+                if (bd == null) continue;
+                for (int oc = 0; oc < o; oc++) {
+                    int base = (i * o + oc) * l;
+                    for (int j = 0; j < l; j++) od[base + j] += bd[oc];
+                }
+            }
+        });
+    }
+
+    private static Tensor inputGrad(double[] gd, double[] wd, Geometry g, int o) {
+        int ckk = g.c * g.kh * g.kw, l = g.outPlane();
+        Tensor dx = Tensor.empty(DType.FLOAT64, new int[] {g.n, g.c, g.h, g.w}, false);
+        double[] dxd = dx.storage().doubles();
+        Parallel.forEach(g.n, (long) o * ckk * l, (from, to, split) -> {
+            double[] col = new double[ckk * l];
+            for (int i = (int) from; i < to; i++) {
+                // W^T [ckk, o] x gOut[i] [o, l], read through transposed strides
+                Gemm.gemm(ckk, l, o, wd, 0, 1, ckk, gd, i * o * l, l, 1, col, 0, l, 1, !split);
+                col2im(col, g, dxd, i * g.c * g.inPlane());
+            }
+        });
+        return dx;
+    }
+
+    // summed image by image in order, so the result does not depend on the thread count
+    private static Tensor weightGrad(double[] gd, double[] xd, Geometry g, int o) {
+        int ckk = g.c * g.kh * g.kw, l = g.outPlane();
+        Tensor dw = Tensor.empty(DType.FLOAT64, new int[] {o, g.c, g.kh, g.kw}, false);
+        double[] dwd = dw.storage().doubles();
+        double[] col = new double[ckk * l];
+        double[] part = new double[o * ckk];
+        for (int i = 0; i < g.n; i++) {
+            im2col(xd, i * g.c * g.inPlane(), g, col);
+            // gOut[i] [o, l] x col^T [l, ckk]
+            Gemm.gemm(o, ckk, l, gd, i * o * l, l, 1, col, 0, 1, l, part, 0, ckk, 1, true);
+            for (int j = 0; j < part.length; j++) dwd[j] += part[j];
+        }
+        return dw;
+    }
+
+    // col[(ci * kh + ki) * kw + kj][oy * ow + ox] = x[ci][oy * sh - ph + ki * dh][ox * sw - pw + kj * dw], zero when padded
+    static void im2col(double[] x, int xOff, Geometry g, double[] col) {
+        int l = g.outPlane();
+        for (int ci = 0, row = 0; ci < g.c; ci++) {
+            for (int ki = 0; ki < g.kh; ki++) {
+                for (int kj = 0; kj < g.kw; kj++, row++) {
+                    int base = row * l;
+                    for (int oy = 0; oy < g.oh; oy++) {
+                        int iy = oy * g.sh - g.ph + ki * g.dh;
+                        int at = base + oy * g.ow;
+                        if (iy < 0 || iy >= g.h) {
+                            Arrays.fill(col, at, at + g.ow, 0.0);
+                            continue;
+                        }
+                        int src = xOff + (ci * g.h + iy) * g.w;
+                        for (int ox = 0; ox < g.ow; ox++) {
+                            int ix = ox * g.sw - g.pw + kj * g.dw;
+                            col[at + ox] = ix >= 0 && ix < g.w ? x[src + ix] : 0.0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // adjoint of im2col: adds every column entry back onto the input element it was read from
+    static void col2im(double[] col, Geometry g, double[] x, int xOff) {
+        int l = g.outPlane();
+        for (int ci = 0, row = 0; ci < g.c; ci++) {
+            for (int ki = 0; ki < g.kh; ki++) {
+                for (int kj = 0; kj < g.kw; kj++, row++) {
+                    int base = row * l;
+                    for (int oy = 0; oy < g.oh; oy++) {
+                        int iy = oy * g.sh - g.ph + ki * g.dh;
+                        if (iy < 0 || iy >= g.h) continue;
+                        int dst = xOff + (ci * g.h + iy) * g.w;
+                        for (int ox = 0; ox < g.ow; ox++) {
+                            int ix = ox * g.sw - g.pw + kj * g.dw;
+                            if (ix >= 0 && ix < g.w) x[dst + ix] += col[base + oy * g.ow + ox];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Pooling
+
+    /**
+     * Max or average over each kh x kw window. Padding never wins a max; an average divides by
+     * the full window size, padding included.
+     */
+    static Tensor pool2d(Tensor x, boolean max, int[] kernel, int[] stride, int[] padding, int[] dilation) {
+        if (x.ndim() != 4) throw new IllegalArgumentException("pool2d expects input [N, C, H, W], got " + x.ndim() + "D");
+        if (kernel.length != 2 || kernel[0] < 1 || kernel[1] < 1) {
+            throw new IllegalArgumentException("Pooling kernel must be 2 positive sizes, got " + Arrays.toString(kernel));
+        }
+        Geometry g = new Geometry(x.shape(), kernel[0], kernel[1], stride, padding, dilation);
+        if (2 * g.ph > g.kh || 2 * g.pw > g.kw) {
+            throw new IllegalArgumentException("Padding must be at most half the pooling kernel, got " + Arrays.toString(padding));
+        }
+        double[] xd = elements(x);
+        int planes = g.n * g.c, in = g.inPlane(), l = g.outPlane();
+        Tensor out = Tensor.empty(DType.FLOAT64, g.outShape(g.c), false);
+        double[] od = out.storage().doubles();
+        // flat input position of each max, for the backward pass
+        int[] argmax = max ? new int[planes * l] : null;
+        double scale = 1.0 / (g.kh * g.kw);
+        Parallel.forEach(planes, (long) l * g.kh * g.kw, (from, to, split) -> {
+            for (int p = (int) from; p < to; p++) {
+                for (int oy = 0; oy < g.oh; oy++) {
+                    for (int ox = 0; ox < g.ow; ox++) {
+                        double acc = max ? Double.NEGATIVE_INFINITY : 0.0;
+                        int at = -1;
+                        for (int ki = 0; ki < g.kh; ki++) {
+                            int iy = oy * g.sh - g.ph + ki * g.dh;
+                            if (iy < 0 || iy >= g.h) continue;
+                            for (int kj = 0; kj < g.kw; kj++) {
+                                int ix = ox * g.sw - g.pw + kj * g.dw;
+                                if (ix < 0 || ix >= g.w) continue;
+                                int src = p * in + iy * g.w + ix;
+                                double v = xd[src];
+                                if (!max) {
+                                    acc += v;
+                                } else if (at < 0 || v > acc || v != v && acc == acc) {
+                                    acc = v;
+                                    at = src;
+                                }
+                            }
+                        }
+                        int dst = p * l + oy * g.ow + ox;
+                        od[dst] = max ? acc : acc * scale;
+                        if (max) argmax[dst] = at;
+                    }
+                }
+            }
+        });
+        if (Autograd.tracks(x)) {
+            out = Tensor.record(out, gOut -> {
+                double[] gd = elements(gOut);
+                Tensor dx = Tensor.empty(DType.FLOAT64, x.shape(), false);
+                double[] dxd = dx.storage().doubles();
+                if (max) {
+                    // a window lying wholly in the padding has no max to route to
+                    for (int i = 0; i < gd.length; i++) if (argmax[i] >= 0) dxd[argmax[i]] += gd[i];
+                } else {
+                    Parallel.forEach(planes, (long) l * g.kh * g.kw, (from, to, split) -> {
+                        for (int p = (int) from; p < to; p++) {
+                            for (int oy = 0; oy < g.oh; oy++) {
+                                for (int ox = 0; ox < g.ow; ox++) {
+                                    double share = gd[p * l + oy * g.ow + ox] * scale;
+                                    for (int ki = 0; ki < g.kh; ki++) {
+                                        int iy = oy * g.sh - g.ph + ki * g.dh;
+                                        if (iy < 0 || iy >= g.h) continue;
+                                        for (int kj = 0; kj < g.kw; kj++) {
+                                            int ix = ox * g.sw - g.pw + kj * g.dw;
+                                            if (ix >= 0 && ix < g.w) dxd[p * in + iy * g.w + ix] += share;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    });
+                }
+                return new Tensor[] {dx.to(x.dtype())};
+            }, x);
+        }
+        return out.to(x.dtype());
+    }
+
+    // Utilities
+
+    // row-major FLOAT64 elements of t, without copying when t already is exactly that
+    private static double[] elements(Tensor t) {
+        double[] d = t.storage().doubles();
+        return d != null && t.offset() == 0 && d.length == t.numel() && t.isContiguous() ? d : t.toArray();
+    }
+}
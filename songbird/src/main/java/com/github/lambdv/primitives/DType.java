@@ -0,0 +1,24 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Element type of a {@link Tensor}'s storage.
+ */
+public enum DType {
+    FLOAT64(8),
+    FLOAT32(4);
+
+    private final int byteSize;
+
+    DType(int byteSize) {
+        this.byteSize = byteSize;
+    }
+
+    public int byteSize() {
+        return byteSize;
+    }
+
+    /** Result type of an op mixing a and b: the wider of the two. */
+    public static DType promote(DType a, DType b) {
+        return a == FLOAT64 || b == FLOAT64 ? FLOAT64 : FLOAT32;
+    }
+}
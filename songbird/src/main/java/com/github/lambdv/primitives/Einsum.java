@@ -0,0 +1,303 @@
+package com.github.lambdv.primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Einstein summation over any number of {@link Tensor}s, see {@link Tensors#einsum}.
+ *
+ * Letters repeated within one operand become a diagonal view and letters only one operand uses
+ * are summed away up front. The remaining operands are contracted two at a time in the order that
+ * needs the fewest multiply-adds, found by dynamic programming over subsets of operands for up to
+ * {@link #OPTIMAL_LIMIT} of them and greedily beyond that, with the largest intermediate as tie
+ * break. Each pairwise contraction is one batched matmul: the shared kept letters are the batch
+ * dims, the contracted letters form k and each side's own letters form m and n. The operands are
+ * only permuted and reshaped into that layout, which stays a view whenever their strides allow.
+ */
+final class Einsum {
+    private Einsum() {}
+
+    // above this many operands the order search is greedy instead of exhaustive
+    static final int OPTIMAL_LIMIT = 10;
+
+    static Tensor contract(String equation, Tensor... operands) {
+        if (operands.length == 0) throw new IllegalArgumentException("einsum needs at least one operand");
+        String eq = equation.replace(" ", "");
+        int arrow = eq.indexOf("->");
+        String[] terms = (arrow < 0 ? eq : eq.substring(0, arrow)).split(",", -1);
+        if (terms.length != operands.length) {
+            throw new IllegalArgumentException("einsum '" + equation + "' has " + terms.length + " operand terms but got "
+                + operands.length + " tensors");
+        }
+        long[] sizes = new long[52];
+        Arrays.fill(sizes, -1);
+        int[] uses = new int[52];
+        for (int i = 0; i < terms.length; i++) {
+            String term = terms[i];
+            int[] shape = operands[i].shape();
+            if (term.length() != shape.length) {
+                throw new IllegalArgumentException("einsum term '" + term + "' has " + term.length()
+                    + " letters but operand " + i + " has rank " + shape.length);
+            }
+            for (int d = 0; d < term.length(); d++) {
+                int l = letter(term.charAt(d), equation);
+                if (term.indexOf(term.charAt(d)) == d) uses[l]++;
+                if (sizes[l] >= 0 && sizes[l] != shape[d]) {
+                    throw new IllegalArgumentException("einsum letter '" + term.charAt(d) + "' has size " + sizes[l]
+                        + " and " + shape[d]);
+                }
+                sizes[l] = shape[d];
+            }
+        }
+        String output;
+        if (arrow < 0) {
+            // implicit output: the letters used by exactly one term, alphabetically
+            StringBuilder sb = new StringBuilder();
+            for (int l = 0; l < 52; l++) if (countIn(terms, label(l)) == 1) sb.append(label(l));
+            output = sb.toString();
+        } else {
+            output = eq.substring(arrow + 2);
+            for (int d = 0; d < output.length(); d++) {
+                char c = output.charAt(d);
+                int l = letter(c, equation);
+                if (output.indexOf(c) != d) throw new IllegalArgumentException("einsum output repeats '" + c + "'");
+                if (uses[l] == 0) throw new IllegalArgumentException("einsum output letter '" + c + "' is in no operand");
+            }
+        }
+        long outMask = mask(output);
+
+        // diagonals and letters nobody else needs go first, shrinking every operand before any product
+        int n = operands.length;
+        Tensor[] ts = new Tensor[n];
+        String[] labels = new String[n];
+        for (int i = 0; i < n; i++) {
+            Tensor t = operands[i];
+            String term = terms[i];
+            for (int b = 1; b < term.length(); b++) {
+                int a = term.indexOf(term.charAt(b));
+                if (a < b) {
+                    t = t.diagonal(a, b);
+                    term = term.substring(0, b) + term.substring(b + 1);
+                    b--;
+                }
+            }
+            long others = outMask;
+            for (int j = 0; j < n; j++) if (j != i) others |= mask(terms[j]);
+            ts[i] = sumOut(t, term, others);
+            labels[i] = keep(term, others);
+        }
+
+        List<int[]> order = n <= OPTIMAL_LIMIT ? optimalOrder(labels, sizes, outMask) : greedyOrder(labels, sizes, outMask);
+        for (int[] step : order) {
+            int i = step[0], j = step[1];
+            long needed = outMask;
+            for (int k = 0; k < n; k++) if (k != i && k != j && labels[k] != null) needed |= mask(labels[k]);
+            StringBuilder out = new StringBuilder();
+            ts[i] = pair(ts[i], labels[i], ts[j], labels[j], needed, sizes, out);
+            labels[i] = out.toString();
+            ts[j] = null;
+            labels[j] = null;
+        }
+        Tensor result = ts[0];
+        String have = labels[0];
+        if (have.equals(output)) return result;
+        int[] perm = new int[output.length()];
+        for (int d = 0; d < perm.length; d++) perm[d] = have.indexOf(output.charAt(d));
+        return result.permute(perm);
+    }
+
+    /**
+     * A x B over their labels, keeping the letters in needed. Writes the result's labels to out:
+     * the batch letters, then A's own, then B's own.
+     */
+    private static Tensor pair(Tensor a, String la, Tensor b, String lb, long needed, long[] sizes, StringBuilder out) {
+        a = sumOut(a, la, needed | mask(lb));
+        la = keep(la, needed | mask(lb));
+        b = sumOut(b, lb, needed | mask(la));
+        lb = keep(lb, needed | mask(la));
+        long ma = mask(la), mb = mask(lb);
+        // group letters by role, each group in the order of A's (or B's) memory layout so the reshapes stay views
+        String aOrder = byStride(a, la), bOrder = byStride(b, lb);
+        String batch = select(aOrder, mb & needed), contracted = select(aOrder, mb & ~needed);
+        String aFree = select(aOrder, ~mb), bFree = select(bOrder, ~ma);
+        int[] batchShape = shape(batch, sizes);
+        long m = volume(aFree, sizes), k = volume(contracted, sizes), n = volume(bFree, sizes);
+        Tensor am = arrange(a, la, batch + aFree + contracted).reshape(withMatrix(batchShape, m, k));
+        Tensor bm = arrange(b, lb, batch + contracted + bFree).reshape(withMatrix(batchShape, k, n));
+        out.append(batch).append(aFree).append(bFree);
+        // a result without letters is a scalar, kept as shape [1] like every full reduction
+        return am.matmul(bm).reshape(out.isEmpty() ? new int[] {1} : shape(out.toString(), sizes));
+    }
+
+    // t's dims in the given letter order; a tensor without letters is already a [1] scalar
+    private static Tensor arrange(Tensor t, String labels, String order) {
+        return labels.isEmpty() ? t : t.permute(positions(labels, order));
+    }
+
+    // The pairwise steps {i, j} (result kept in slot i) with the fewest multiply-adds overall
+    private static List<int[]> optimalOrder(String[] labels, long[] sizes, long outMask) {
+        int n = labels.length, full = (1 << n) - 1;
+        long[] masks = new long[n];
+        for (int i = 0; i < n; i++) masks[i] = mask(labels[i]);
+        // letters each subset's contraction still carries: its own ones that the output or the rest need
+        long[] carried = new long[full + 1];
+        for (int s = 1; s <= full; s++) {
+            long own = 0, rest = outMask;
+            for (int i = 0; i < n; i++) {
+                if ((s >> i & 1) != 0) own |= masks[i];
+                else rest |= masks[i];
+            }
+            carried[s] = own & rest;
+        }
+        double[] flops = new double[full + 1], peak = new double[full + 1];
+        int[] split = new int[full + 1];
+        for (int s = 1; s <= full; s++) {
+            if (Integer.bitCount(s) == 1) continue;
+            flops[s] = Double.POSITIVE_INFINITY;
+            // each unordered split once: the half holding the lowest operand is the left one
+            int low = s & -s;
+            for (int l = (s - 1) & s; l > 0; l = (l - 1) & s) {
+                if ((l & low) == 0) continue;
+                int r = s ^ l;
+                double f = flops[l] + flops[r] + volume(carried[l] | carried[r], sizes);
+                double p = Math.max(Math.max(peak[l], peak[r]), volume(carried[s], sizes));
+                if (f < flops[s] || f == flops[s] && p < peak[s]) {
+                    flops[s] = f;
+                    peak[s] = p;
+                    split[s] = l;
+                }
+            }
+        }
+        List<int[]> steps = new ArrayList<>();
+        emit(full, split, steps);
+        return steps;
+    }
+
+    // post-order walk of the split tree; a subset's result lives in the slot of its lowest operand
+    private static int emit(int s, int[] split, List<int[]> steps) {
+        if (Integer.bitCount(s) == 1) return Integer.numberOfTrailingZeros(s);
+        int i = emit(split[s], split, steps), j = emit(s ^ split[s], split, steps);
+        steps.add(new int[] {i, j});
+        return i;
+    }
+
+    // Repeatedly contracts the pair with the smallest result, then the fewest multiply-adds
+    private static List<int[]> greedyOrder(String[] labels, long[] sizes, long outMask) {
+        int n = labels.length;
+        long[] masks = new long[n];
+        boolean[] live = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            masks[i] = mask(labels[i]);
+            live[i] = true;
+        }
+        List<int[]> steps = new ArrayList<>();
+        for (int left = n; left > 1; left--) {
+            int bi = -1, bj = -1;
+            double bestSize = 0, bestFlops = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n && live[i]; j++) {
+                    if (!live[j]) continue;
+                    long rest = outMask;
+                    for (int k = 0; k < n; k++) if (live[k] && k != i && k != j) rest |= masks[k];
+                    double size = volume((masks[i] | masks[j]) & rest, sizes), f = volume(masks[i] | masks[j], sizes);
+                    if (bi < 0 || size < bestSize || size == bestSize && f < bestFlops) {
+                        bi = i;
+                        bj = j;
+                        bestSize = size;
+                        bestFlops = f;
+                    }
+                }
+            }
+            long rest = outMask;
+            for (int k = 0; k < n; k++) if (live[k] && k != bi && k != bj) rest |= masks[k];
+            masks[bi] = (masks[bi] | masks[bj]) & rest;
+            live[bj] = false;
+            steps.add(new int[] {bi, bj});
+        }
+        return steps;
+    }
+
+    // t summed over the letters of its labels that are not in keep
+    private static Tensor sumOut(Tensor t, String labels, long keep) {
+        int count = 0;
+        for (int d = 0; d < labels.length(); d++) if ((keep & bit(labels.charAt(d))) == 0) count++;
+        if (count == 0) return t;
+        int[] dims = new int[count];
+        for (int d = 0, j = 0; d < labels.length(); d++) if ((keep & bit(labels.charAt(d))) == 0) dims[j++] = d;
+        return t.sum(dims, false);
+    }
+
+    private static String keep(String labels, long keep) {
+        return select(labels, keep);
+    }
+
+    private static String select(String labels, long mask) {
+        StringBuilder sb = new StringBuilder();
+        for (int d = 0; d < labels.length(); d++) if ((mask & bit(labels.charAt(d))) != 0) sb.append(labels.charAt(d));
+        return sb.toString();
+    }
+
+    // labels reordered from the largest stride to the smallest; ties keep their order
+    private static String byStride(Tensor t, String labels) {
+        int[] strides = t.strides();
+        Integer[] dims = new Integer[labels.length()];
+        for (int d = 0; d < dims.length; d++) dims[d] = d;
+        Arrays.sort(dims, (x, y) -> Integer.compare(strides[y], strides[x]));
+        StringBuilder sb = new StringBuilder();
+        for (int d : dims) sb.append(labels.charAt(d));
+        return sb.toString();
+    }
+
+    private static int[] positions(String labels, String order) {
+        int[] perm = new int[order.length()];
+        for (int d = 0; d < perm.length; d++) perm[d] = labels.indexOf(order.charAt(d));
+        return perm;
+    }
+
+    private static int[] withMatrix(int[] batch, long rows, long cols) {
+        int[] s = Arrays.copyOf(batch, batch.length + 2);
+        s[batch.length] = Math.toIntExact(rows);
+        s[batch.length + 1] = Math.toIntExact(cols);
+        return s;
+    }
+
+    private static int[] shape(String labels, long[] sizes) {
+        int[] s = new int[labels.length()];
+        for (int d = 0; d < s.length; d++) s[d] = (int) sizes[index(labels.charAt(d))];
+        return s;
+    }
+
+    private static long volume(String labels, long[] sizes) {
+        long v = 1;
+        for (int d = 0; d < labels.length(); d++) v *= sizes[index(labels.charAt(d))];
+        return v;
+    }
+
+    private static double volume(long mask, long[] sizes) {
+        double v = 1;
+        for (int l = 0; l < 52; l++) if ((mask >> l & 1) != 0) v *= sizes[l];
+        return v;
+    }
+
+    private static long mask(String labels) {
+        long m = 0;
+        for (int d = 0; d < labels.length(); d++) m |= bit(labels.charAt(d));
+        return m;
+    }
+
+    private static int countIn(String[] terms, char c) {
+        int count = 0;
+        for (String term : terms) for (int d = 0; d < term.length(); d++) if (term.charAt(d) == c) count++;
+        return count;
+    }
+
+    private static long bit(char c) { return 1L << index(c); }
+    private static int index(char c) { return c >= 'a' ? c - 'a' + 26 : c - 'A'; }
+    private static char label(int l) { return (char) (l < 26 ? 'A' + l : 'a' + l - 26); }
+
+    private static int letter(char c, String equation) {
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') return index(c);
+        throw new IllegalArgumentException("einsum '" + equation + "' may only use the letters a-z and A-Z, found '" + c + "'");
+    }
+}
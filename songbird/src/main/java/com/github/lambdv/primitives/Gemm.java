@@ -0,0 +1,299 @@
+package com.github.lambdv.primitives;
+
+/**
+ * General matrix multiply C = A * B on strided operands.
+ *
+ * Each operand is (array, offset, rowStride, colStride), so transposed or permuted views are
+ * consumed directly: the strides only affect how panels are packed, never the inner loop.
+ * The loop nest follows the usual Goto/BLIS scheme: B is packed into KC x NC panels of NR
+ * columns, A into MC x KC panels of MR rows, and a register-tiled MR x NR microkernel runs
+ * over the packed panels. Large products are split into output tiles that run on the
+ * common fork-join pool (see {@link Parallel}); small ones stay on the calling thread, and tiny ones skip packing.
+ * A and B may be double[] or float[]; float panels are widened while packing, so C is
+ * always accumulated in double.
+ */
+final class Gemm {
+    private Gemm() {}
+
+    static final int MR = 4;
+    static final int NR = 4;
+    static final int KC = 256;
+    static final int MC = 64;
+    static final int NC = 256;
+
+    // below this many multiply-adds packing costs more than it saves
+    static final long PACK_THRESHOLD = 16L * 16 * 16;
+
+    private static final ThreadLocal<double[][]> SCRATCH =
+        ThreadLocal.withInitial(() -> new double[][]{new double[MC * KC], new double[KC * NC]});
+
+    static void gemm(int m, int n, int k,
+                     double[] a, int aOff, int aRs, int aCs,
+                     double[] b, int bOff, int bRs, int bCs,
+                     double[] c, int cOff, int cRs, int cCs) {
+        run(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, true);
+    }
+
+    /**
+     * Overwrites C with A * B. When {@code parallel} is false the product always runs on the
+     * calling thread, which is what batched callers want when they already parallelize.
+     */
+    static void gemm(int m, int n, int k,
+                     double[] a, int aOff, int aRs, int aCs,
+                     double[] b, int bOff, int bRs, int bCs,
+                     double[] c, int cOff, int cRs, int cCs, boolean parallel) {
+        run(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, parallel);
+    }
+
+    static void gemm(int m, int n, int k,
+                     float[] a, int aOff, int aRs, int aCs,
+                     float[] b, int bOff, int bRs, int bCs,
+                     double[] c, int cOff, int cRs, int cCs) {
+        run(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, true);
+    }
+
+    // a and b are double[] or float[]
+    private static void run(int m, int n, int k,
+                            Object a, int aOff, int aRs, int aCs,
+                            Object b, int bOff, int bRs, int bCs,
+                            double[] c, int cOff, int cRs, int cCs, boolean parallel) {
+        if (m == 0 || n == 0) return;
+        if (k == 0) {
+            for (int i = 0; i < m; i++) for (int j = 0; j < n; j++) c[cOff + i * cRs + j * cCs] = 0.0;
+            return;
+        }
+        long work = (long) m * n * k;
+        if (work < PACK_THRESHOLD) {
+            small(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs);
+            return;
+        }
+        int tilesM = (m + MC - 1) / MC;
+        int tilesN = (n + NC - 1) / NC;
+        Tiles tiles = new Tiles(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, tilesN);
+        // a tile is at most MC x NC x k multiply-adds
+        long tileWork = (long) Math.min(m, MC) * Math.min(n, NC) * k;
+        if (parallel) {
+            Parallel.forEach(tilesM * tilesN, tileWork, (from, to, split) -> tiles.run((int) from, (int) to));
+        } else {
+            tiles.run(0, tilesM * tilesN);
+        }
+    }
+
+    // The (MC x NC) output tiles of one product, numbered row-major
+    private static final class Tiles {
+        final int m, n, k;
+        final Object a, b;
+        final double[] c;
+        final int aOff, aRs, aCs, bOff, bRs, bCs, cOff, cRs, cCs;
+        final int tilesN;
+
+        Tiles(int m, int n, int k, Object a, int aOff, int aRs, int aCs, Object b, int bOff, int bRs, int bCs,
+              double[] c, int cOff, int cRs, int cCs, int tilesN) {
+            this.m = m; this.n = n; this.k = k;
+            this.a = a; this.aOff = aOff; this.aRs = aRs; this.aCs = aCs;
+            this.b = b; this.bOff = bOff; this.bRs = bRs; this.bCs = bCs;
+            this.c = c; this.cOff = cOff; this.cRs = cRs; this.cCs = cCs;
+            this.tilesN = tilesN;
+        }
+
+        // computes tiles [from, to)
+        void run(int from, int to) {
+            double[][] scratch = SCRATCH.get();
+            ArrayKernels kx = Simd.kernels();
+            for (int t = from; t < to; t++) {
+                int ic = (t / tilesN) * MC;
+                int jc = (t % tilesN) * NC;
+                tile(kx, ic, Math.min(MC, m - ic), jc, Math.min(NC, n - jc), scratch[0], scratch[1]);
+            }
+        }
+
+        private void tile(ArrayKernels kx, int ic, int mc, int jc, int nc, double[] ap, double[] bp) {
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                int bo = bOff + pc * bRs + jc * bCs;
+                int ao = aOff + ic * aRs + pc * aCs;
+                if (b instanceof double[] bd) packB(kc, nc, bd, bo, bRs, bCs, bp); else packB(kc, nc, (float[]) b, bo, bRs, bCs, bp);
+                if (a instanceof double[] ad) packA(mc, kc, ad, ao, aRs, aCs, ap); else packA(mc, kc, (float[]) a, ao, aRs, aCs, ap);
+                boolean first = pc == 0;
+                for (int jr = 0; jr < nc; jr += NR) {
+                    int nr = Math.min(NR, nc - jr);
+                    for (int ir = 0; ir < mc; ir += MR) {
+                        int mr = Math.min(MR, mc - ir);
+                        int ci = cOff + (ic + ir) * cRs + (jc + jr) * cCs;
+                        kx.gemmKernel(kc, ap, ir * kc, bp, jr * kc, c, ci, cRs, cCs, mr, nr, first);
+                    }
+                }
+            }
+        }
+    }
+
+    // A block (mc x kc) -> row panels of MR, each stored k-major and zero padded
+    static void packA(int mc, int kc, double[] a, int off, int rs, int cs, double[] ap) {
+        int w = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int rowBase = off + ir * rs;
+            if (mr == MR) {
+                int r0 = rowBase, r1 = r0 + rs, r2 = r1 + rs, r3 = r2 + rs;
+                for (int p = 0, x = 0; p < kc; p++, x += cs) {
+                    ap[w++] = a[r0 + x];
+                    ap[w++] = a[r1 + x];
+                    ap[w++] = a[r2 + x];
+                    ap[w++] = a[r3 + x];
+                }
+            } else {
+                for (int p = 0; p < kc; p++) {
+                    for (int i = 0; i < MR; i++) ap[w++] = i < mr ? a[rowBase + i * rs + p * cs] : 0.0;
+                }
+            }
+        }
+    }
+
+    // B block (kc x nc) -> column panels of NR, each stored k-major and zero padded
+    static void packB(int kc, int nc, double[] b, int off, int rs, int cs, double[] bp) {
+        int w = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int colBase = off + jr * cs;
+            if (nr == NR && cs == 1) {
+                for (int p = 0, x = colBase; p < kc; p++, x += rs) {
+                    bp[w++] = b[x];
+                    bp[w++] = b[x + 1];
+                    bp[w++] = b[x + 2];
+                    bp[w++] = b[x + 3];
+                }
+            } else {
+                for (int p = 0; p < kc; p++) {
+                    for (int j = 0; j < NR; j++) bp[w++] = j < nr ? b[colBase + p * rs + j * cs] : 0.0;
+                }
+            }
+        }
+    }
+
+    static void packA(int mc, int kc, float[] a, int off, int rs, int cs, double[] ap) {
+        int w = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int rowBase = off + ir * rs;
+            for (int p = 0; p < kc; p++) {
+                for (int i = 0; i < MR; i++) ap[w++] = i < mr ? a[rowBase + i * rs + p * cs] : 0.0;
+            }
+        }
+    }
+
+    static void packB(int kc, int nc, float[] b, int off, int rs, int cs, double[] bp) {
+        int w = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int colBase = off + jr * cs;
+            for (int p = 0; p < kc; p++) {
+                for (int j = 0; j < NR; j++) bp[w++] = j < nr ? b[colBase + p * rs + j * cs] : 0.0;
+            }
+        }
+    }
+
+    // MR x NR register tile over packed panels
+    static void kernel(int kc, double[] ap, int ai, double[] bp, int bi,
+                       double[] c, int ci, int cRs, int cCs, int mr, int nr, boolean overwrite) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++, ai += MR, bi += NR) {
+            double a0 = ap[ai], a1 = ap[ai + 1], a2 = ap[ai + 2], a3 = ap[ai + 3];
+            double b0 = bp[bi], b1 = bp[bi + 1], b2 = bp[bi + 2], b3 = bp[bi + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+        store(c, ci, cCs, nr, overwrite, c00, c01, c02, c03); if (mr == 1) return; ci += cRs;
+        store(c, ci, cCs, nr, overwrite, c10, c11, c12, c13); if (mr == 2) return; ci += cRs;
+        store(c, ci, cCs, nr, overwrite, c20, c21, c22, c23); if (mr == 3) return; ci += cRs;
+        store(c, ci, cCs, nr, overwrite, c30, c31, c32, c33);
+    }
+
+    private static void store(double[] c, int ci, int cs, int nr, boolean overwrite, double v0, double v1, double v2, double v3) {
+        if (overwrite) {
+            c[ci] = v0;
+            if (nr > 1) c[ci + cs] = v1;
+            if (nr > 2) c[ci + 2 * cs] = v2;
+            if (nr > 3) c[ci + 3 * cs] = v3;
+        } else {
+            c[ci] += v0;
+            if (nr > 1) c[ci + cs] += v1;
+            if (nr > 2) c[ci + 2 * cs] += v2;
+            if (nr > 3) c[ci + 3 * cs] += v3;
+        }
+    }
+
+    // Unpacked loops for tiny products, ordered so the innermost loop walks unit strides
+    private static void small(int m, int n, int k,
+                              Object a, int aOff, int aRs, int aCs,
+                              Object b, int bOff, int bRs, int bCs,
+                              double[] c, int cOff, int cRs, int cCs) {
+        if (a instanceof double[] ad && b instanceof double[] bd && bCs == 1 && cCs == 1) {
+            // C row i = sum_p A[i,p] * B row p
+            for (int i = 0; i < m; i++) {
+                int ci = cOff + i * cRs;
+                for (int j = 0; j < n; j++) c[ci + j] = 0.0;
+                for (int p = 0; p < k; p++) {
+                    double av = ad[aOff + i * aRs + p * aCs];
+                    int bi = bOff + p * bRs;
+                    for (int j = 0; j < n; j++) c[ci + j] += av * bd[bi + j];
+                }
+            }
+        } else {
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < n; j++) {
+                    double s = 0.0;
+                    for (int p = 0, x = aOff + i * aRs, y = bOff + j * bCs; p < k; p++, x += aCs, y += bRs) s += at(a, x) * at(b, y);
+                    c[cOff + i * cRs + j * cCs] = s;
+                }
+            }
+        }
+    }
+
+    private static double at(Object array, int i) {
+        return array instanceof double[] d ? d[i] : ((float[]) array)[i];
+    }
+
+    /**
+     * Runs one product per batch entry, where entry i reads A at aOffs[i], B at bOffs[i] and
+     * writes C at cOffs[i]. With enough entries to occupy the pool the batch is split across
+     * workers and each product runs single-threaded; otherwise the products run one after
+     * another and parallelize internally.
+     */
+    static void batched(int m, int n, int k,
+                        double[] a, int[] aOffs, int aRs, int aCs,
+                        double[] b, int[] bOffs, int bRs, int bCs,
+                        double[] c, int[] cOffs, int cRs, int cCs) {
+        runBatched(m, n, k, a, aOffs, aRs, aCs, b, bOffs, bRs, bCs, c, cOffs, cRs, cCs);
+    }
+
+    static void batched(int m, int n, int k,
+                        float[] a, int[] aOffs, int aRs, int aCs,
+                        float[] b, int[] bOffs, int bRs, int bCs,
+                        double[] c, int[] cOffs, int cRs, int cCs) {
+        runBatched(m, n, k, a, aOffs, aRs, aCs, b, bOffs, bRs, bCs, c, cOffs, cRs, cCs);
+    }
+
+    private static void runBatched(int m, int n, int k,
+                                   Object a, int[] aOffs, int aRs, int aCs,
+                                   Object b, int[] bOffs, int bRs, int bCs,
+                                   double[] c, int[] cOffs, int cRs, int cCs) {
+        int count = cOffs.length;
+        if (count < Parallel.parallelism()) {
+            // too few entries to keep every thread busy, so each product parallelizes over its own tiles
+            for (int i = 0; i < count; i++) {
+                run(m, n, k, a, aOffs[i], aRs, aCs, b, bOffs[i], bRs, bCs, c, cOffs[i], cRs, cCs, true);
+            }
+            return;
+        }
+        Parallel.forEach(count, (long) m * n * k, (from, to, split) -> {
+            for (int i = (int) from; i < to; i++) {
+                run(m, n, k, a, aOffs[i], aRs, aCs, b, bOffs[i], bRs, bCs, c, cOffs[i], cRs, cCs, !split);
+            }
+        });
+    }
+}
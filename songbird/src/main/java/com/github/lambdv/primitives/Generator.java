@@ -0,0 +1,150 @@
+package com.github.lambdv.primitives;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seeded source of random tensors.
+ *
+ * The generator is counter-based: element i of a fill is a pure function of the seed and a
+ * position counter, hashed with the SplitMix64 finalizer, so the backend may fill chunks of a
+ * large tensor in parallel and the result is the same for any thread count. Every fill advances the counter
+ * past the positions it used, so successive calls on one generator give different values, and
+ * two generators with the same seed give the same sequence of tensors.
+ *
+ * {@link Tensor#rand} and {@link Tensor#randn} draw from a shared default generator, which
+ * {@link #manualSeed} reseeds.
+ */
+public final class Generator {
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private static volatile Generator defaultGenerator = new Generator(System.nanoTime() ^ 0x5DEECE66DL);
+
+    private final long seed;
+    private final long key;
+    private final AtomicLong counter = new AtomicLong();
+
+    public Generator(long seed) {
+        this.seed = seed;
+        this.key = mix(seed);
+    }
+
+    public long seed() { return seed; }
+
+    /** The generator behind the unseeded factories on {@link Tensor}. */
+    public static Generator defaultGenerator() { return defaultGenerator; }
+
+    /** Replaces the default generator with one seeded with seed. */
+    public static void manualSeed(long seed) {
+        defaultGenerator = new Generator(seed);
+    }
+
+    /** A new generator with a seed drawn from this one, for handing to another worker. */
+    public Generator split() {
+        return new Generator(mix(key + counter.getAndIncrement() * GAMMA) ^ GAMMA);
+    }
+
+    // Distributions
+
+    /** Uniform on [0, 1). */
+    public Tensor rand(int... shape) { return uniform(0.0, 1.0, shape); }
+
+    /** Standard normal. */
+    public Tensor randn(int... shape) { return normal(0.0, 1.0, shape); }
+
+    /** Uniform on [low, high). */
+    public Tensor uniform(double low, double high, int... shape) {
+        if (!(low <= high)) throw new IllegalArgumentException("Uniform bounds must satisfy low <= high, got " + low + ", " + high);
+        double width = high - low;
+        return fill(shape, base -> low + width * unit(base, 0));
+    }
+
+    public Tensor normal(double mean, double std, int... shape) {
+        if (!(std >= 0)) throw new IllegalArgumentException("std must be >= 0, got " + std);
+        return fill(shape, base -> mean + std * gaussian(base, 0));
+    }
+
+    /** Normal restricted to [low, high] by redrawing every value that falls outside. */
+    public Tensor truncatedNormal(double mean, double std, double low, double high, int... shape) {
+        if (!(std > 0)) throw new IllegalArgumentException("std must be > 0, got " + std);
+        if (!(low < high)) throw new IllegalArgumentException("Truncation bounds must satisfy low < high, got " + low + ", " + high);
+        return fill(shape, base -> {
+            // each redraw uses the next pair of words of the same element, so the result stays positional
+            for (int draw = 0; draw < 1000; draw += 2) {
+                double v = mean + std * gaussian(base, draw);
+                if (v >= low && v <= high) return v;
+            }
+            throw new IllegalArgumentException("Truncation interval [" + low + ", " + high + "] holds almost no mass of N(" + mean + ", " + std + "^2)");
+        });
+    }
+
+    // Initializers for a weight with fanIn inputs and fanOut outputs per unit
+
+    /** Glorot/Xavier uniform: U(-a, a) with a = sqrt(6 / (fanIn + fanOut)). */
+    public Tensor xavierUniform(int fanIn, int fanOut, int... shape) {
+        double a = Math.sqrt(6.0 / checkFans(fanIn, fanOut));
+        return uniform(-a, a, shape);
+    }
+
+    /** Glorot/Xavier normal: N(0, 2 / (fanIn + fanOut)). */
+    public Tensor xavierNormal(int fanIn, int fanOut, int... shape) {
+        return normal(0.0, Math.sqrt(2.0 / checkFans(fanIn, fanOut)), shape);
+    }
+
+    /** He/Kaiming uniform for ReLU layers: U(-a, a) with a = sqrt(6 / fanIn). */
+    public Tensor heUniform(int fanIn, int... shape) {
+        double a = Math.sqrt(6.0 / checkFans(fanIn, 0));
+        return uniform(-a, a, shape);
+    }
+
+    /** He/Kaiming normal for ReLU layers: N(0, 2 / fanIn). */
+    public Tensor heNormal(int fanIn, int... shape) {
+        return normal(0.0, Math.sqrt(2.0 / checkFans(fanIn, 0)), shape);
+    }
+
+    private static int checkFans(int fanIn, int fanOut) {
+        if (fanIn < 0 || fanOut < 0 || fanIn + fanOut == 0) {
+            throw new IllegalArgumentException("Fans must be non-negative and not both zero, got " + fanIn + ", " + fanOut);
+        }
+        return fanIn + fanOut;
+    }
+
+    // Counter-based words
+
+    @FunctionalInterface
+    private interface Element {
+        /** the value of the element whose words start from base */
+        double at(long base);
+    }
+
+    // word j of the element whose position hashes to base
+    private static long word(long base, int j) {
+        return mix(base + (j + 1) * GAMMA);
+    }
+
+    // 53 random bits as a double in [0, 1)
+    private static double unit(long base, int j) {
+        return (word(base, j) >>> 11) * 0x1.0p-53;
+    }
+
+    // Box-Muller over words j and j + 1; 1 - u keeps the log argument in (0, 1]
+    private static double gaussian(long base, int j) {
+        double r = Math.sqrt(-2.0 * Math.log(1.0 - unit(base, j)));
+        return r * Math.cos(TWO_PI * unit(base, j + 1));
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private Tensor fill(int[] shape, Element element) {
+        Tensor.validateShape(shape);
+        Tensor out = Tensor.empty(DType.FLOAT64, shape, false);
+        long start = counter.getAndAdd(out.numel());
+        Backends.current().generate(out, i -> element.at(mix(key + (start + i) * GAMMA)));
+        return out;
+    }
+}
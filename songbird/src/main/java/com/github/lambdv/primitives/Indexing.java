@@ -0,0 +1,308 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Kernels behind {@link Tensor#topk}, {@link Tensor#sort}, {@link Tensor#gather},
+ * {@link Tensor#scatterAdd} and {@link Tensor#indexSelect}.
+ *
+ * Everything works on the rows along one dim (see {@link Softmax.Rows}), so rows run in parallel on
+ * the common fork-join pool once there is enough work. Inputs are read a row at a time through their
+ * own layout into a per-thread FLOAT64 buffer (see {@link RowReader}), so a FLOAT32, strided or
+ * off-heap tensor is never copied whole; a gather that picks a few elements from long rows reads just
+ * those. Each row only ever writes to its own row of the result, even for the scatters, so no two
+ * threads touch the same element. top-k keeps a k-element heap per row, O(n log k); sort is a stable
+ * merge sort. Order puts NaN above every number and keeps equal values in index order. Indices are
+ * FLOAT64, like argmax, and must be whole numbers inside the dim they index.
+ */
+final class Indexing {
+    private Indexing() {}
+
+    /** The k largest (or smallest) elements of each row along dim, best first, as FLOAT64, and their positions. */
+    static Ranked topk(Tensor x, int k, int dim, boolean largest) {
+        int[] shape = x.shape();
+        int n = shape[dim];
+        shape[dim] = k;
+        Tensor values = Tensor.empty(DType.FLOAT64, shape, false), positions = Tensor.empty(DType.FLOAT64, shape, false);
+        if (values.numel() == 0) return new Ranked(values, positions);
+        double[] vd = values.storage().doubles(), pd = positions.storage().doubles();
+        RowReader rows = new RowReader(x, dim);
+        new Softmax.Rows(shape, dim).run((base, len, inner) -> {
+            double[] row = rows.read(rows.row(base, shape), n);
+            Order order = new Order(row, largest);
+            int[] heap = new int[k];
+            // heap[0] is the worst of the best seen so far
+            for (int j = 0; j < n; j++) {
+                if (j < k) {
+                    heap[j] = j;
+                    for (int c = j; c > 0 && order.before(heap[(c - 1) / 2], heap[c]); c = (c - 1) / 2) swap(heap, c, (c - 1) / 2);
+                } else if (order.before(j, heap[0])) {
+                    heap[0] = j;
+                    siftDown(heap, k, order);
+                }
+            }
+            for (int size = k; size > 0; size--) {
+                int o = base + (size - 1) * inner;
+                pd[o] = heap[0];
+                vd[o] = row[heap[0]];
+                heap[0] = heap[size - 1];
+                siftDown(heap, size - 1, order);
+            }
+        });
+        return new Ranked(values, positions);
+    }
+
+    /** Positions that sort each row along dim, ascending or descending; stable. */
+    static Tensor argsort(Tensor x, int dim, boolean descending) {
+        int[] shape = x.shape();
+        Tensor out = Tensor.empty(DType.FLOAT64, shape, false);
+        if (out.numel() == 0) return out;
+        double[] od = out.storage().doubles();
+        RowReader rows = new RowReader(x, dim);
+        new Softmax.Rows(shape, dim).run((base, n, inner) -> {
+            Order order = new Order(rows.read(rows.row(base, shape), n), descending);
+            int[] idx = new int[n], tmp = new int[n];
+            for (int j = 0; j < n; j++) idx[j] = j;
+            mergeSort(idx, tmp, 0, n, order);
+            for (int j = 0; j < n; j++) od[base + j * inner] = idx[j];
+        });
+        return out;
+    }
+
+    /** out[..., j, ...] = x[..., index[..., j, ...], ...] along dim; out has index's shape. */
+    static Tensor gather(Tensor x, int dim, Tensor index) {
+        int[] xs = x.shape(), is = index.shape();
+        checkFits(is, xs, dim, "gather index");
+        double[] id = indices(index, xs[dim]);
+        Tensor out = Tensor.empty(DType.FLOAT64, is, false);
+        if (out.numel() == 0) return out;
+        double[] od = out.storage().doubles();
+        RowReader rows = new RowReader(x, dim);
+        new Softmax.Rows(is, dim).run((base, n, inner) -> {
+            long row = rows.row(base, is);
+            if (rows.sparse(n)) {
+                for (int j = 0, i = base; j < n; j++, i += inner) od[i] = rows.at(row, (int) id[i]);
+                return;
+            }
+            double[] xr = rows.read(row, xs[dim]);
+            for (int j = 0, i = base; j < n; j++, i += inner) od[i] = xr[(int) id[i]];
+        });
+        return out;
+    }
+
+    /** A FLOAT64 copy of x with src[..., j, ...] added at x[..., index[..., j, ...], ...] along dim. */
+    static Tensor scatterAdd(Tensor x, int dim, Tensor index, Tensor src) {
+        int[] xs = x.shape(), is = index.shape(), ss = src.shape();
+        checkFits(is, xs, dim, "scatterAdd index");
+        checkFits(is, ss, -1, "scatterAdd index");
+        double[] id = indices(index, xs[dim]);
+        Tensor out = Tensor.empty(DType.FLOAT64, xs, false).copyFrom(x);
+        if (index.numel() == 0) return out;
+        double[] od = out.storage().doubles();
+        int[] xStrides = strides(xs);
+        RowReader rows = new RowReader(src, dim);
+        new Softmax.Rows(is, dim).run((base, n, inner) -> {
+            int dst = offset(base, is, xStrides, dim), step = xStrides[dim];
+            double[] sr = rows.read(rows.row(base, is), n);
+            for (int j = 0, i = base; j < n; j++, i += inner) od[dst + (int) id[i] * step] += sr[j];
+        });
+        return out;
+    }
+
+    /** The slices of x at the 1D index's positions along dim, in index order. */
+    static Tensor indexSelect(Tensor x, int dim, Tensor index) {
+        int[] shape = x.shape();
+        int n = shape[dim];
+        double[] id = indices(checkVector(index), n);
+        shape[dim] = id.length;
+        Tensor out = Tensor.empty(DType.FLOAT64, shape, false);
+        if (out.numel() == 0) return out;
+        double[] od = out.storage().doubles();
+        RowReader rows = new RowReader(x, dim);
+        new Softmax.Rows(shape, dim).run((base, m, inner) -> {
+            long row = rows.row(base, shape);
+            if (rows.sparse(m)) {
+                for (int j = 0, i = base; j < m; j++, i += inner) od[i] = rows.at(row, (int) id[j]);
+                return;
+            }
+            double[] xr = rows.read(row, n);
+            for (int j = 0, i = base; j < m; j++, i += inner) od[i] = xr[(int) id[j]];
+        });
+        return out;
+    }
+
+    /** Zeros of shape with each slice of g along dim added at the index's position; undoes indexSelect. */
+    static Tensor indexAdd(int[] shape, int dim, Tensor index, Tensor g) {
+        Tensor out = Tensor.empty(DType.FLOAT64, shape, false);
+        if (g.numel() == 0) return out;
+        int n = shape[dim];
+        int[] gs = g.shape();
+        double[] id = indices(index, n), od = out.storage().doubles();
+        RowReader rows = new RowReader(g, dim);
+        new Softmax.Rows(gs, dim).run((base, m, inner) -> {
+            int dst = base / (m * inner) * n * inner + base % inner;
+            double[] gr = rows.read(rows.row(base, gs), m);
+            for (int j = 0; j < m; j++) od[dst + (int) id[j] * inner] += gr[j];
+        });
+        return out;
+    }
+
+    /**
+     * Reads the rows along dim of a tensor through its own strides, storage and dtype: the dims are
+     * walked with dim last, so row r is the run of positions [r * n, (r + 1) * n) of that order.
+     */
+    private static final class RowReader {
+        private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[64]);
+
+        final Tensor t;
+        final int dim, n;
+        final int[] shape;    // t's shape with dim moved last
+        final long[] strides; // t's strides in that order
+        final long[] rowStrides;
+
+        RowReader(Tensor t, int dim) {
+            int[] ts = t.shape();
+            long[] st = t.broadcastStrides(ts);
+            int r = ts.length;
+            this.t = t;
+            this.dim = dim;
+            this.n = ts[dim];
+            this.shape = new int[r];
+            this.strides = new long[r];
+            this.rowStrides = new long[r];
+            for (int d = 0, j = 0; d < r; d++) {
+                if (d == dim) continue;
+                shape[j] = ts[d];
+                strides[j++] = st[d];
+            }
+            shape[r - 1] = n;
+            strides[r - 1] = st[dim];
+            long s = 1;
+            for (int d = r - 1; d >= 0; d--) {
+                if (d == dim) continue;
+                rowStrides[d] = s;
+                s *= ts[d];
+            }
+        }
+
+        // the row at the coordinates of row-major position pos of other, whose coordinate along dim is ignored
+        long row(int pos, int[] other) {
+            long row = 0;
+            for (int d = other.length - 1; d >= 0; d--) {
+                int c = pos % other[d];
+                pos /= other[d];
+                if (d != dim) row += c * rowStrides[d];
+            }
+            return row;
+        }
+
+        // whether picking len elements one by one beats reading the whole row
+        boolean sparse(int len) {
+            return (long) len * 16 < n;
+        }
+
+        /** The first len elements of row, in a per-thread buffer that the next read on this thread reuses. */
+        double[] read(long row, int len) {
+            double[] buf = SCRATCH.get();
+            if (buf.length < len) SCRATCH.set(buf = new double[len]);
+            if (len > 0) t.gather(shape, strides, row * n, len, buf);
+            return buf;
+        }
+
+        double at(long row, int j) {
+            double[] buf = SCRATCH.get();
+            t.gather(shape, strides, row * n + j, 1, buf);
+            return buf[0];
+        }
+    }
+
+    private static Tensor checkVector(Tensor index) {
+        if (index.ndim() != 1) throw new IllegalArgumentException("indexSelect index must be 1D, got rank " + index.ndim());
+        return index;
+    }
+
+    // index must have the rank of target and be no larger along any dim but skip
+    private static void checkFits(int[] index, int[] target, int skip, String what) {
+        if (index.length != target.length) {
+            throw new IllegalArgumentException(what + " must have rank " + target.length + ", got " + index.length);
+        }
+        for (int d = 0; d < index.length; d++) {
+            if (d != skip && index[d] > target[d]) {
+                throw new IllegalArgumentException(what + " has size " + index[d] + " at dim " + d + " but the tensor only " + target[d]);
+            }
+        }
+    }
+
+    // the index's elements, checked to be whole positions in [0, bound)
+    private static double[] indices(Tensor index, int bound) {
+        double[] id = Softmax.contiguous(index);
+        for (double v : id) {
+            if (!(v >= 0 && v < bound) || v != Math.rint(v)) {
+                throw new IllegalArgumentException("Index " + v + " is out of range for a dim of size " + bound);
+            }
+        }
+        return id;
+    }
+
+    private static int[] strides(int[] shape) {
+        int[] s = new int[shape.length];
+        for (int d = shape.length - 1, v = 1; d >= 0; v *= shape[d], d--) s[d] = v;
+        return s;
+    }
+
+    // offset under strides of the row-major position pos of shape, with its coordinate along dim dropped
+    private static int offset(int pos, int[] shape, int[] strides, int dim) {
+        int off = 0;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            int c = pos % shape[d];
+            pos /= shape[d];
+            if (d != dim) off += c * strides[d];
+        }
+        return off;
+    }
+
+    // Ranks positions j of a row read into x
+    private static final class Order {
+        final double[] x;
+        final int sign;
+
+        Order(double[] x, boolean largestFirst) {
+            this.x = x;
+            this.sign = largestFirst ? 1 : -1;
+        }
+
+        // whether position p goes strictly before position q
+        boolean before(int p, int q) {
+            int c = sign * Double.compare(x[p], x[q]);
+            return c > 0 || c == 0 && p < q;
+        }
+    }
+
+    // restores the heap property (worst at the root) for heap[0..size)
+    private static void siftDown(int[] heap, int size, Order order) {
+        for (int p = 0; ; ) {
+            int c = 2 * p + 1;
+            if (c >= size) return;
+            if (c + 1 < size && order.before(heap[c], heap[c + 1])) c++;
+            if (!order.before(heap[p], heap[c])) return;
+            swap(heap, p, c);
+            p = c;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private static void mergeSort(int[] a, int[] tmp, int from, int to, Order order) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid, order);
+        mergeSort(a, tmp, mid, to, order);
+        if (!order.before(a[mid], a[mid - 1])) return;
+        System.arraycopy(a, from, tmp, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            a[i] = r >= to || l < mid && !order.before(tmp[r], tmp[l]) ? tmp[l++] : tmp[r++];
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.github.lambdv.primitives;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Deferred elementwise expression over tensors, started with {@link Tensor#lazy()}. Ops only record a
+ * node of a DAG; {@link #eval}, {@link #toArray}, {@link #item} and the reductions then run the whole
+ * DAG in one pass over cache-sized blocks of the output. Intermediates only ever exist one block at a
+ * time, every input is read once, and the only full-size allocation is the result itself (none at all
+ * for {@link #sum()} and {@link #mean()}).
+ */
+public final class LazyTensor {
+    // elements per block; every node keeps one block buffer, so a whole chain stays in cache
+    private static final int BLOCK = 1024;
+
+    private final Node node;
+
+    private LazyTensor(Node node) {
+        this.node = node;
+    }
+
+    static LazyTensor of(Tensor t) {
+        return new LazyTensor(new Leaf(t));
+    }
+
+    public int[] shape() { return node.shape.clone(); }
+
+    // Elementwise ops with broadcasting
+    public LazyTensor add(LazyTensor other) { return zip(other, TensorKernels.Binary.ADD); }
+    public LazyTensor sub(LazyTensor other) { return zip(other, TensorKernels.Binary.SUB); }
+    public LazyTensor mul(LazyTensor other) { return zip(other, TensorKernels.Binary.MUL); }
+    public LazyTensor div(LazyTensor other) { return zip(other, TensorKernels.Binary.DIV); }
+
+    public LazyTensor add(Tensor other) { return add(other.lazy()); }
+    public LazyTensor sub(Tensor other) { return sub(other.lazy()); }
+    public LazyTensor mul(Tensor other) { return mul(other.lazy()); }
+    public LazyTensor div(Tensor other) { return div(other.lazy()); }
+
+    public LazyTensor add(double scalar) { return map(a -> a + scalar); }
+    public LazyTensor sub(double scalar) { return map(a -> a - scalar); }
+    public LazyTensor mul(double scalar) { return map(a -> a * scalar); }
+    public LazyTensor div(double scalar) { return map(a -> a / scalar); }
+
+    public LazyTensor map(DoubleUnaryOperator op) { return new LazyTensor(new Map1(node, op)); }
+
+    public LazyTensor exp() { return map(Math::exp); }
+    public LazyTensor log() { return map(Math::log); }
+    public LazyTensor tanh() { return map(TensorKernels.Unary.TANH); }
+    public LazyTensor relu() { return map(TensorKernels.Unary.RELU); }
+    public LazyTensor sigmoid() { return map(TensorKernels.Unary.SIGMOID); }
+
+    private LazyTensor zip(LazyTensor other, DoubleBinaryOperator op) {
+        return new LazyTensor(new Map2(node, other.node, op));
+    }
+
+    // Terminal ops: each runs the fused pass once
+
+    /** Evaluates into a fresh contiguous tensor of the promoted dtype, off-heap if any input is. */
+    public Tensor eval() {
+        Plan plan = new Plan(node);
+        Tensor out = Tensor.empty(plan.dtype, node.shape, plan.offHeap);
+        plan.run((buf, start, n) -> out.scatter(start, n, buf));
+        return out;
+    }
+
+    public double[] toArray() {
+        return toArray(new Plan(node));
+    }
+
+    private static double[] toArray(Plan plan) {
+        if (plan.total > Storage.MAX_HEAP_LENGTH) throw new IllegalStateException("Result has " + plan.total + " elements; use eval()");
+        double[] out = new double[(int) plan.total];
+        plan.run((buf, start, n) -> System.arraycopy(buf, 0, out, (int) start, n));
+        return out;
+    }
+
+    public double item() {
+        Plan plan = new Plan(node);
+        if (plan.total != 1) throw new IllegalStateException("item() only valid for a single-element tensor");
+        return toArray(plan)[0];
+    }
+
+    /** Agrees bit for bit with {@link Tensor#sum()} of the evaluated tensor. */
+    public double sum() {
+        return sum(new Plan(node));
+    }
+
+    public double mean() {
+        Plan plan = new Plan(node);
+        return plan.total == 0 ? Double.NaN : sum(plan) / plan.total;
+    }
+
+    // Reductions' compensated SUM over the same CHUNK-element chunks and merge tree as an eager sum
+    private static double sum(Plan plan) {
+        if (plan.total == 0) return 0.0;
+        Reductions.Op op = Reductions.of(TensorBackend.Reduction.SUM);
+        long chunks = (plan.total + Reductions.CHUNK - 1) / Reductions.CHUNK;
+        if (chunks > Integer.MAX_VALUE) throw new IllegalStateException("Too many elements to sum lazily: " + plan.total);
+        double[][] leaves = new double[(int) chunks][];
+        double[] chunk = new double[Reductions.CHUNK];
+        plan.run((buf, start, n) -> {
+            // BLOCK divides CHUNK, so blocks never straddle a chunk boundary
+            int at = (int) (start % Reductions.CHUNK);
+            System.arraycopy(buf, 0, chunk, at, n);
+            if (at + n == Reductions.CHUNK || start + n == plan.total) {
+                double[] p = new double[op.width];
+                op.leaf(chunk, 0, at + n, start - at, p);
+                leaves[(int) (start / Reductions.CHUNK)] = p;
+            }
+        });
+        return op.finish(Reductions.mergeTree(op, leaves, 0, leaves.length), plan.total);
+    }
+
+    public Tensor sum(int dim) { return sum(dim, false); }
+
+    /** Fuses the chain with a sum along dim, accumulating each block straight into the reduced result. */
+    public Tensor sum(int dim, boolean keepdim) {
+        int[] shape = node.shape;
+        if (dim < 0 || dim >= shape.length) throw new IllegalArgumentException("Invalid reduction dim");
+        Plan plan = new Plan(node);
+        int[] outShape = keepdim ? shape.clone() : new int[Math.max(shape.length - 1, 1)];
+        if (keepdim) {
+            outShape[dim] = 1;
+        } else if (shape.length == 1) {
+            outShape[0] = 1;
+        } else {
+            for (int i = 0, j = 0; i < shape.length; i++) if (i != dim) outShape[j++] = shape[i];
+        }
+        long outSize = 1;
+        for (int d : outShape) outSize *= d;
+        if (outSize > Storage.MAX_HEAP_LENGTH) throw new IllegalStateException("Reduced result is too large for the heap");
+        double[] acc = new double[(int) outSize];
+
+        // acc's row-major strides laid over the full shape, zero on the reduced dim
+        long[] accStrides = new long[shape.length];
+        long stride = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            if (d == dim) continue;
+            accStrides[d] = stride;
+            stride *= shape[d];
+        }
+        plan.run((buf, start, n) -> accumulate(shape, accStrides, start, n, buf, acc));
+        return Tensor.wrap(acc, outShape).to(plan.dtype);
+    }
+
+    // acc[offset of position p] += buf[p - start] for the n row-major positions from start
+    private static void accumulate(int[] shape, long[] accStrides, long start, int n, double[] buf, double[] acc) {
+        int r = shape.length;
+        int[] idx = new int[r];
+        long off = 0;
+        long rem = start;
+        for (int d = r - 1; d >= 0; d--) {
+            idx[d] = (int) (rem % shape[d]);
+            rem /= shape[d];
+            off += idx[d] * accStrides[d];
+        }
+        int inner = shape[r - 1];
+        int step = (int) accStrides[r - 1];
+        for (int i = 0; i < n; ) {
+            int run = Math.min(n - i, inner - idx[r - 1]);
+            if (step == 0) {
+                double s = 0.0;
+                for (int j = 0; j < run; j++) s += buf[i + j];
+                acc[(int) off] += s;
+            } else {
+                for (int j = 0, o = (int) off; j < run; j++, o += step) acc[o] += buf[i + j];
+            }
+            i += run;
+            off += (long) run * step;
+            idx[r - 1] += run;
+            if (idx[r - 1] < inner) continue;
+            off -= (long) inner * step;
+            idx[r - 1] = 0;
+            for (int d = r - 2; d >= 0; d--) {
+                off += accStrides[d];
+                if (++idx[d] < shape[d]) break;
+                off -= accStrides[d] * shape[d];
+                idx[d] = 0;
+            }
+        }
+    }
+
+    // DAG nodes; shapes are fixed when the node is built, so broadcast errors surface right away
+    private abstract static class Node {
+        final int[] shape;
+        final Node[] inputs;
+
+        Node(int[] shape, Node... inputs) {
+            this.shape = shape;
+            this.inputs = inputs;
+        }
+
+        // fills out with this node's values at n output positions from start; in holds the inputs' blocks
+        abstract void run(Plan plan, int id, double[][] in, double[] out, long start, int n);
+    }
+
+    private static final class Leaf extends Node {
+        final Tensor tensor;
+
+        Leaf(Tensor tensor) {
+            super(tensor.shape());
+            this.tensor = tensor;
+        }
+
+        @Override
+        void run(Plan plan, int id, double[][] in, double[] out, long start, int n) {
+            tensor.gather(plan.shape, plan.leafStrides[id], start, n, out);
+        }
+    }
+
+    private static final class Map1 extends Node {
+        final DoubleUnaryOperator op;
+
+        Map1(Node input, DoubleUnaryOperator op) {
+            super(input.shape, input);
+            this.op = op;
+        }
+
+        @Override
+        void run(Plan plan, int id, double[][] in, double[] out, long start, int n) {
+            double[] a = in[0];
+            if (op instanceof TensorKernels.Unary u) {
+                u.run(Simd.kernels(), a, 0, out, 0, n);
+            } else {
+                for (int i = 0; i < n; i++) out[i] = op.applyAsDouble(a[i]);
+            }
+        }
+    }
+
+    private static final class Map2 extends Node {
+        final DoubleBinaryOperator op;
+
+        Map2(Node a, Node b, DoubleBinaryOperator op) {
+            super(Tensor.broadcastShape(a.shape, b.shape), a, b);
+            this.op = op;
+        }
+
+        @Override
+        void run(Plan plan, int id, double[][] in, double[] out, long start, int n) {
+            double[] a = in[0], b = in[1];
+            if (op instanceof TensorKernels.Binary k) {
+                k.run(Simd.kernels(), a, 0, b, 0, out, 0, n);
+            } else {
+                for (int i = 0; i < n; i++) out[i] = op.applyAsDouble(a[i], b[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void accept(double[] block, long start, int n);
+    }
+
+    // The DAG in topological order. Every node is evaluated in the coordinates of the final output:
+    // broadcasting composes, so each leaf is broadcast straight to the root's shape.
+    private static final class Plan {
+        final Node[] order;
+        final int[][] inputs;
+        final long[][] leafStrides;
+        final int[] shape;
+        final long total;
+        final DType dtype;
+        final boolean offHeap;
+
+        Plan(Node root) {
+            // iterative post-order, so long chains cannot overflow the stack; shared nodes run once per block
+            Map<Node, Integer> ids = new IdentityHashMap<>();
+            List<Node> sorted = new ArrayList<>();
+            ArrayDeque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node n = stack.peek();
+                if (ids.containsKey(n)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (Node in : n.inputs) {
+                    if (!ids.containsKey(in)) {
+                        stack.push(in);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    ids.put(n, sorted.size());
+                    sorted.add(n);
+                }
+            }
+            order = sorted.toArray(new Node[0]);
+            shape = root.shape;
+            long t = 1;
+            for (int d : shape) t *= d;
+            total = t;
+
+            inputs = new int[order.length][];
+            leafStrides = new long[order.length][];
+            DType dt = null;
+            boolean off = false;
+            for (int i = 0; i < order.length; i++) {
+                Node n = order[i];
+                inputs[i] = new int[n.inputs.length];
+                for (int j = 0; j < n.inputs.length; j++) inputs[i][j] = ids.get(n.inputs[j]);
+                if (n instanceof Leaf leaf) {
+                    leafStrides[i] = leaf.tensor.broadcastStrides(shape);
+                    dt = dt == null ? leaf.tensor.dtype() : DType.promote(dt, leaf.tensor.dtype());
+                    off |= leaf.tensor.isOffHeap();
+                }
+            }
+            dtype = dt;
+            offHeap = off;
+        }
+
+        void run(Sink sink) {
+            double[][] bufs = new double[order.length][BLOCK];
+            double[][][] in = new double[order.length][][];
+            for (int i = 0; i < order.length; i++) {
+                in[i] = new double[inputs[i].length][];
+                for (int j = 0; j < inputs[i].length; j++) in[i][j] = bufs[inputs[i][j]];
+            }
+            double[] result = bufs[order.length - 1];
+            for (long start = 0; start < total; start += BLOCK) {
+                int n = (int) Math.min(BLOCK, total - start);
+                for (int i = 0; i < order.length; i++) order[i].run(this, i, in[i], bufs[i], start, n);
+                sink.accept(result, start, n);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyTensor(shape=" + Arrays.toString(node.shape) + ", nodes=" + new Plan(node).order.length + ")";
+    }
+}
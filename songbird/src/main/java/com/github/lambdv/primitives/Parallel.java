@@ -0,0 +1,89 @@
+package com.github.lambdv.primitives;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The fork-join splitter behind every parallel kernel. A range of items (rows, images, output
+ * tiles, elements) is cut where its cost halves until a piece is a single item or costs less than
+ * THRESHOLD, and each piece then runs on the common pool. A range that is cheap as a whole, has a
+ * single item, or meets a single-threaded pool runs on the calling thread instead. Called from a
+ * worker of another fork-join pool, such as a trainer's, the pieces stay on that pool, so nested
+ * kernels share its threads rather than adding the common pool's on top.
+ */
+final class Parallel {
+    private Parallel() {}
+
+    // below this much work, in elements touched or multiply-adds, a single thread is faster than forking
+    static final long THRESHOLD = 1L << 16;
+
+    @FunctionalInterface
+    interface Body {
+        /** handles items [from, to); split says the range was cut up, so work inside should not fork again */
+        void run(long from, long to, boolean split);
+    }
+
+    @FunctionalInterface
+    interface Cost {
+        /** work of items [from, to), in the units of THRESHOLD; must grow with to */
+        long of(long from, long to);
+    }
+
+    // the pool the calling thread works for, else the common pool
+    static int parallelism() {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        return pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    static boolean enabled() {
+        return parallelism() > 1;
+    }
+
+    /** Runs body over items [0, count), each costing costPerItem. */
+    static void forEach(long count, long costPerItem, Body body) {
+        forEach(count, (from, to) -> (to - from) * costPerItem, body);
+    }
+
+    /** Runs body over items [0, count) of uneven cost, splitting where the cost halves. */
+    static void forEach(long count, Cost cost, Body body) {
+        if (count > 1 && cost.of(0, count) >= THRESHOLD && enabled()) {
+            Task task = new Task(body, cost, 0, count);
+            if (ForkJoinTask.inForkJoinPool()) task.invoke(); else ForkJoinPool.commonPool().invoke(task);
+        } else {
+            body.run(0, count, false);
+        }
+    }
+
+    // never serialized; the lambdas it carries could not be
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final transient Body body;
+        final transient Cost cost;
+        final long from, to;
+
+        Task(Body body, Cost cost, long from, long to) {
+            this.body = body;
+            this.cost = cost;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            long total = cost.of(from, to);
+            if (to - from > 1 && total >= THRESHOLD) {
+                // first item at which the left half carries at least half the cost, leaving both halves non-empty
+                long lo = from + 1, hi = to - 1;
+                while (lo < hi) {
+                    long mid = (lo + hi) >>> 1;
+                    if (cost.of(from, mid) * 2 >= total) hi = mid; else lo = mid + 1;
+                }
+                invokeAll(new Task(body, cost, from, lo), new Task(body, cost, lo, to));
+                return;
+            }
+            body.run(from, to, true);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.lambdv.primitives;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * The default backend: SIMD kernels where {@link Simd} has them, the blocked {@link Gemm}, the
+ * compensated {@link Reductions} and im2col {@link Conv}, all splitting large work across the
+ * common fork-join pool.
+ */
+public final class ParallelBackend implements TensorBackend {
+    public ParallelBackend() {}
+
+    @Override public String name() { return "parallel"; }
+    @Override public int priority() { return 100; }
+
+    @Override
+    public void map(Tensor a, DoubleUnaryOperator op, Tensor out) {
+        a.mapKernel(op, out);
+    }
+
+    @Override
+    public void zip(Tensor a, Tensor b, DoubleBinaryOperator op, Tensor out) {
+        a.zipKernel(b, op, out);
+    }
+
+    @Override
+    public void fill(Tensor out, double value) {
+        out.fillKernel(value);
+    }
+
+    @Override
+    public void axpy(double alpha, Tensor x, Tensor y) {
+        y.axpyKernel(alpha, x);
+    }
+
+    @Override
+    public void fma(Tensor a, Tensor m, Tensor c, Tensor out) {
+        a.fmaKernel(m, c, out);
+    }
+
+    @Override
+    public void reduce(Tensor a, boolean[] reduced, Reduction op, Tensor out) {
+        Reductions.reduce(a, reduced, Reductions.of(op), out);
+    }
+
+    @Override
+    public void matmul(Tensor a, Tensor b, Tensor out) {
+        a.matmulKernel(b, out);
+    }
+
+    @Override
+    public void conv2d(Tensor x, Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation, Tensor out) {
+        Conv.forward(x, weight, bias, stride, padding, dilation, out);
+    }
+
+    @Override
+    public void generate(Tensor out, LongToDoubleFunction f) {
+        Storage storage = out.storage();
+        long offset = out.offset();
+        double[] data = storage.doubles();
+        Parallel.forEach(out.numel(), 1, (from, to, split) -> {
+            if (data != null) {
+                int base = (int) offset;
+                for (long i = from; i < to; i++) data[base + (int) i] = f.applyAsDouble(i);
+            } else {
+                Storage.guarded(() -> {
+                    for (long i = from; i < to; i++) storage.set(offset + i, f.applyAsDouble(i));
+                }, storage);
+            }
+        });
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.lambdv.primitives;
+
+/** Result of {@link Tensor#topk} and {@link Tensor#sort}: the chosen values and their positions along the dim. */
+public record Ranked(
+    Tensor values, // differentiable, same dtype as the input
+    Tensor indices // FLOAT64 positions along the dim, like argmax
+){}
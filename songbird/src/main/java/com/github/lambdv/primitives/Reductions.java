@@ -0,0 +1,375 @@
+package com.github.lambdv.primitives;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reductions of a {@link Tensor} over any set of its dims.
+ *
+ * The input is viewed with its kept dims first and its reduced dims last, so each output element
+ * reduces one row of that view. Rows are read in chunks of CHUNK elements gathered into a contiguous
+ * double buffer. Each chunk is folded into a small partial: a compensated sum, a running extreme and
+ * its index, or a count/mean/M2 triple. The partials of a row are merged along a fixed binary tree
+ * over its chunks. Sums add BLOCK-element blocks with the SIMD kernel and merge them with Neumaier
+ * compensation, so the error stays flat however long the row is.
+ *
+ * Large reductions run on the common fork-join pool (see {@link Parallel}), split either over rows
+ * or over the chunk tree of a single long row. The tree depends only on the row length, never on how the work was split,
+ * so results are bit-for-bit identical for any parallelism.
+ */
+final class Reductions {
+    private Reductions() {}
+
+    static final int CHUNK = 2048;
+    static final int BLOCK = 128;
+
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[CHUNK]);
+
+    /** One kind of reduction: how a chunk becomes a partial, how partials merge, and what a partial yields. */
+    abstract static class Op {
+        final int width;
+
+        Op(int width) { this.width = width; }
+
+        // p = partial of x[off, off + n); base is the row index of x[off]
+        abstract void leaf(double[] x, int off, int n, long base, double[] p);
+
+        // a = merge(a, b), where b covers the elements right after a's
+        abstract void merge(double[] a, double[] b);
+
+        abstract double finish(double[] p, long count);
+
+        boolean allowsEmpty() { return true; }
+    }
+
+    // Neumaier's update: the rounding error of s + b, added to the compensation instead of dropped
+    private static double twoSumError(double s, double b, double t) {
+        return Math.abs(s) >= Math.abs(b) ? (s - t) + b : (b - t) + s;
+    }
+
+    private static final class Sum extends Op {
+        final boolean mean;
+
+        Sum(boolean mean) {
+            super(2);
+            this.mean = mean;
+        }
+
+        @Override
+        void leaf(double[] x, int off, int n, long base, double[] p) {
+            ArrayKernels kx = Simd.kernels();
+            double s = 0.0, c = 0.0;
+            for (int i = 0; i < n; i += BLOCK) {
+                double b = kx.sum(x, off + i, Math.min(BLOCK, n - i));
+                double t = s + b;
+                c += twoSumError(s, b, t);
+                s = t;
+            }
+            p[0] = s;
+            p[1] = c;
+        }
+
+        @Override
+        void merge(double[] a, double[] b) {
+            double t = a[0] + b[0];
+            a[1] += twoSumError(a[0], b[0], t) + b[1];
+            a[0] = t;
+        }
+
+        @Override
+        double finish(double[] p, long count) {
+            // an infinite sum leaves a NaN compensation behind
+            double s = Double.isInfinite(p[0]) ? p[0] : p[0] + p[1];
+            return mean ? s / count : s;
+        }
+    }
+
+    private static final class Prod extends Op {
+        Prod() { super(1); }
+
+        @Override
+        void leaf(double[] x, int off, int n, long base, double[] p) {
+            double r = 1.0;
+            for (int i = 0; i < n; i++) r *= x[off + i];
+            p[0] = r;
+        }
+
+        @Override void merge(double[] a, double[] b) { a[0] *= b[0]; }
+        @Override double finish(double[] p, long count) { return p[0]; }
+    }
+
+    // max/min and their positions; NaN beats everything, and ties keep the first occurrence
+    private static final class Extreme extends Op {
+        final boolean max, index;
+
+        Extreme(boolean max, boolean index) {
+            super(2);
+            this.max = max;
+            this.index = index;
+        }
+
+        private boolean better(double y, double v) {
+            if (y != y) return v == v;
+            return max ? y > v : y < v;
+        }
+
+        @Override
+        void leaf(double[] x, int off, int n, long base, double[] p) {
+            double v = x[off];
+            int at = 0;
+            for (int i = 1; i < n; i++) {
+                double y = x[off + i];
+                if (better(y, v)) {
+                    v = y;
+                    at = i;
+                }
+            }
+            p[0] = v;
+            p[1] = base + at;
+        }
+
+        @Override
+        void merge(double[] a, double[] b) {
+            if (better(b[0], a[0])) {
+                a[0] = b[0];
+                a[1] = b[1];
+            }
+        }
+
+        @Override double finish(double[] p, long count) { return index ? p[1] : p[0]; }
+        @Override boolean allowsEmpty() { return false; }
+    }
+
+    // count, mean and sum of squared deviations; chunks use two passes, merges Chan's update
+    private static final class Variance extends Op {
+        final int correction;
+        final boolean sqrt;
+
+        Variance(int correction, boolean sqrt) {
+            super(3);
+            this.correction = correction;
+            this.sqrt = sqrt;
+        }
+
+        @Override
+        void leaf(double[] x, int off, int n, long base, double[] p) {
+            if (n == 0) {
+                p[0] = p[1] = p[2] = 0.0;
+                return;
+            }
+            double mean = Simd.kernels().sum(x, off, n) / n;
+            double m2 = 0.0;
+            for (int i = 0; i < n; i++) {
+                double d = x[off + i] - mean;
+                m2 += d * d;
+            }
+            p[0] = n;
+            p[1] = mean;
+            p[2] = m2;
+        }
+
+        @Override
+        void merge(double[] a, double[] b) {
+            double na = a[0], nb = b[0], n = na + nb;
+            if (nb == 0) return;
+            if (na == 0) {
+                System.arraycopy(b, 0, a, 0, 3);
+                return;
+            }
+            double d = b[1] - a[1];
+            a[0] = n;
+            a[1] += d * nb / n;
+            a[2] += b[2] + d * d * na * nb / n;
+        }
+
+        @Override
+        double finish(double[] p, long count) {
+            // too few elements leave the variance undefined, not -0.0 from 0 / (0 - 1)
+            if (p[0] <= correction) return Double.NaN;
+            double v = p[2] / (p[0] - correction);
+            return sqrt ? Math.sqrt(v) : v;
+        }
+    }
+
+    // running max m and sum of exp(x - m), rescaled whenever m grows
+    private static final class LogSumExp extends Op {
+        LogSumExp() { super(2); }
+
+        @Override
+        void leaf(double[] x, int off, int n, long base, double[] p) {
+            double m = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) m = Math.max(m, x[off + i]);
+            double s = 0.0;
+            if (Double.isFinite(m)) {
+                for (int i = 0; i < n; i++) s += Math.exp(x[off + i] - m);
+            } else if (m > 0) {
+                s = 1.0;
+            }
+            p[0] = m;
+            p[1] = s;
+        }
+
+        @Override
+        void merge(double[] a, double[] b) {
+            double m = Math.max(a[0], b[0]);
+            if (!Double.isFinite(m)) {
+                a[1] = m > 0 ? 1.0 : 0.0;
+            } else {
+                a[1] = a[1] * Math.exp(a[0] - m) + b[1] * Math.exp(b[0] - m);
+            }
+            a[0] = m;
+        }
+
+        @Override
+        double finish(double[] p, long count) {
+            return Double.isFinite(p[0]) ? p[0] + Math.log(p[1]) : p[0];
+        }
+    }
+
+    static final Op SUM = new Sum(false);
+    static final Op MEAN = new Sum(true);
+    static final Op PROD = new Prod();
+    static final Op MAX = new Extreme(true, false);
+    static final Op MIN = new Extreme(false, false);
+    static final Op ARGMAX = new Extreme(true, true);
+    static final Op ARGMIN = new Extreme(false, true);
+    static final Op LOGSUMEXP = new LogSumExp();
+
+    /** var (or std with sqrt) dividing by count - correction; correction 1 is the unbiased estimate. */
+    static Op variance(int correction, boolean sqrt) {
+        return new Variance(correction, sqrt);
+    }
+
+    static Op of(TensorBackend.Reduction r) {
+        return switch (r) {
+            case SUM -> SUM;
+            case MEAN -> MEAN;
+            case PROD -> PROD;
+            case MAX -> MAX;
+            case MIN -> MIN;
+            case ARGMAX -> ARGMAX;
+            case ARGMIN -> ARGMIN;
+            case LOGSUMEXP -> LOGSUMEXP;
+            case VAR -> variance(1, false);
+            case STD -> variance(1, true);
+            case VAR_BIASED -> variance(0, false);
+            case STD_BIASED -> variance(0, true);
+        };
+    }
+
+    /**
+     * Reduces t over the dims flagged in reduced, writing one element per kept position, in
+     * row-major order, into the fresh contiguous out.
+     */
+    static Tensor reduce(Tensor t, boolean[] reduced, Op op, Tensor out) {
+        int[] shape = t.shape();
+        long[] strides = t.broadcastStrides(shape);
+        int r = shape.length;
+        int[] viewShape = new int[r];
+        long[] viewStrides = new long[r];
+        long inner = 1;
+        int j = 0;
+        for (int d = 0; d < r; d++) {
+            if (reduced[d]) continue;
+            viewShape[j] = shape[d];
+            viewStrides[j++] = strides[d];
+        }
+        for (int d = 0; d < r; d++) {
+            if (!reduced[d]) continue;
+            viewShape[j] = shape[d];
+            viewStrides[j++] = strides[d];
+            inner *= shape[d];
+        }
+        long rows = out.numel();
+        if (rows == 0) return out;
+        if (inner == 0 && !op.allowsEmpty()) {
+            throw new IllegalArgumentException("Cannot reduce over a dim of size 0 with this op");
+        }
+        Job job = new Job(t, viewShape, viewStrides, inner, op, out);
+        Parallel.forEach(rows, inner, (from, to, split) -> job.rows(from, to));
+        return out;
+    }
+
+    /**
+     * Merges the chunk partials leaves[from, to) along the same midpoint tree a row's chunks take, so
+     * a caller that folds CHUNK-element chunks itself gets the result a reduction would; leaves[from]
+     * holds the merged partial afterwards.
+     */
+    static double[] mergeTree(Op op, double[][] leaves, int from, int to) {
+        if (to - from == 1) return leaves[from];
+        int mid = (from + to) >>> 1;
+        double[] left = mergeTree(op, leaves, from, mid);
+        op.merge(left, mergeTree(op, leaves, mid, to));
+        return left;
+    }
+
+    private static final class Job {
+        final Tensor src;
+        final int[] shape;
+        final long[] strides;
+        final long inner;
+        final Op op;
+        final Tensor out;
+
+        Job(Tensor src, int[] shape, long[] strides, long inner, Op op, Tensor out) {
+            this.src = src;
+            this.shape = shape;
+            this.strides = strides;
+            this.inner = inner;
+            this.op = op;
+            this.out = out;
+        }
+
+        // reduces rows [r0, r1); a row long enough splits its chunk tree across the pool
+        void rows(long r0, long r1) {
+            double[] p = new double[op.width];
+            if (inner > CHUNK) {
+                long chunks = (inner + CHUNK - 1) / CHUNK;
+                double[] result = new double[1];
+                for (long row = r0; row < r1; row++) {
+                    tree(row, 0, chunks, p);
+                    result[0] = op.finish(p, inner);
+                    out.scatter(row, 1, result);
+                }
+                return;
+            }
+            // short rows: gather as many whole rows as fit in a chunk at once
+            int group = inner == 0 ? CHUNK : (int) (CHUNK / inner);
+            double[] results = new double[group];
+            for (long row = r0; row < r1; ) {
+                int k = (int) Math.min(group, r1 - row);
+                double[] buf = SCRATCH.get();
+                if (inner > 0) src.gather(shape, strides, row * inner, (int) (k * inner), buf);
+                for (int i = 0; i < k; i++) {
+                    op.leaf(buf, (int) (i * inner), (int) inner, 0, p);
+                    results[i] = op.finish(p, inner);
+                }
+                out.scatter(row, k, results);
+                row += k;
+            }
+        }
+
+        // p = partial of chunks [c0, c1) of row, always split at the midpoint
+        void tree(long row, long c0, long c1, double[] p) {
+            if (c1 - c0 == 1) {
+                long first = c0 * CHUNK;
+                int n = (int) Math.min(CHUNK, inner - first);
+                double[] buf = SCRATCH.get();
+                src.gather(shape, strides, row * inner + first, n, buf);
+                op.leaf(buf, 0, n, first, p);
+                return;
+            }
+            long mid = (c0 + c1) >>> 1;
+            double[] right = new double[op.width];
+            if ((c1 - c0) * CHUNK >= Parallel.THRESHOLD && Parallel.enabled()) {
+                ForkJoinTask.invokeAll(
+                    ForkJoinTask.adapt(() -> tree(row, c0, mid, p)),
+                    ForkJoinTask.adapt(() -> tree(row, mid, c1, right))
+                );
+            } else {
+                tree(row, c0, mid, p);
+                tree(row, mid, c1, right);
+            }
+            op.merge(p, right);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.lambdv.primitives;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * Single-threaded backend written straight from the definitions, one element at a time through
+ * {@link Tensor#get} and {@link Tensor#set}. It is slow and meant as the oracle other backends are
+ * tested against, not for real work.
+ */
+public final class ReferenceBackend implements TensorBackend {
+    public ReferenceBackend() {}
+
+    @Override public String name() { return "reference"; }
+
+    @Override
+    public void map(Tensor a, DoubleUnaryOperator op, Tensor out) {
+        int[] shape = out.shape();
+        int[] idx = new int[shape.length];
+        for (long i = 0; i < out.numel(); i++) {
+            out.set(op.applyAsDouble(a.get(idx)), idx);
+            next(idx, shape);
+        }
+    }
+
+    @Override
+    public void zip(Tensor a, Tensor b, DoubleBinaryOperator op, Tensor out) {
+        int[] shape = out.shape();
+        int[] idx = new int[shape.length];
+        int[] as = a.shape(), bs = b.shape();
+        for (long i = 0; i < out.numel(); i++) {
+            out.set(op.applyAsDouble(a.get(broadcast(idx, as)), b.get(broadcast(idx, bs))), idx);
+            next(idx, shape);
+        }
+    }
+
+    @Override
+    public void reduce(Tensor a, boolean[] reduced, Reduction op, Tensor out) {
+        int[] shape = a.shape();
+        int r = shape.length;
+        int keptRank = 0;
+        for (boolean d : reduced) if (!d) keptRank++;
+        int[] kept = new int[keptRank], dropped = new int[r - keptRank];
+        long inner = 1;
+        for (int d = 0, k = 0, j = 0; d < r; d++) {
+            if (reduced[d]) {
+                dropped[j++] = shape[d];
+                inner *= shape[d];
+            } else {
+                kept[k++] = shape[d];
+            }
+        }
+        int[] keptIdx = new int[keptRank], droppedIdx = new int[r - keptRank], idx = new int[r];
+        double[] row = new double[(int) inner];
+        for (long o = 0; o < out.numel(); o++) {
+            Arrays.fill(droppedIdx, 0);
+            for (int j = 0; j < row.length; j++) {
+                for (int d = 0, k = 0, q = 0; d < r; d++) idx[d] = reduced[d] ? droppedIdx[q++] : keptIdx[k++];
+                row[j] = a.get(idx);
+                next(droppedIdx, dropped);
+            }
+            out.storage().set(out.offset() + o, reduceRow(row, op));
+            next(keptIdx, kept);
+        }
+    }
+
+    private static double reduceRow(double[] x, Reduction op) {
+        int n = x.length;
+        switch (op) {
+            case SUM, MEAN -> {
+                double s = 0.0;
+                for (double v : x) s += v;
+                return op == Reduction.MEAN ? s / n : s;
+            }
+            case PROD -> {
+                double p = 1.0;
+                for (double v : x) p *= v;
+                return p;
+            }
+            case MAX, MIN, ARGMAX, ARGMIN -> {
+                boolean max = op == Reduction.MAX || op == Reduction.ARGMAX;
+                int at = 0;
+                for (int i = 1; i < n; i++) {
+                    double y = x[i], v = x[at];
+                    boolean better = y != y ? v == v : max ? y > v : y < v;
+                    if (better) at = i;
+                }
+                return op == Reduction.ARGMAX || op == Reduction.ARGMIN ? at : x[at];
+            }
+            case LOGSUMEXP -> {
+                double m = Double.NEGATIVE_INFINITY;
+                for (double v : x) m = Math.max(m, v);
+                if (!Double.isFinite(m)) return m;
+                double s = 0.0;
+                for (double v : x) s += Math.exp(v - m);
+                return m + Math.log(s);
+            }
+            default -> {
+                double mean = 0.0;
+                for (double v : x) mean += v;
+                mean /= n;
+                double m2 = 0.0;
+                for (double v : x) m2 += (v - mean) * (v - mean);
+                int correction = op == Reduction.VAR || op == Reduction.STD ? 1 : 0;
+                if (n <= correction) return Double.NaN;
+                double var = m2 / (n - correction);
+                return op == Reduction.STD || op == Reduction.STD_BIASED ? Math.sqrt(var) : var;
+            }
+        }
+    }
+
+    @Override
+    public void matmul(Tensor a, Tensor b, Tensor out) {
+        int[] shape = out.shape(), as = a.shape(), bs = b.shape();
+        int ro = shape.length, k = as[as.length - 1];
+        int[] idx = new int[ro];
+        for (long i = 0; i < out.numel(); i++) {
+            int[] ai = broadcast(idx, as), bi = broadcast(idx, bs);
+            double s = 0.0;
+            for (int p = 0; p < k; p++) {
+                ai[ai.length - 2] = idx[ro - 2];
+                ai[ai.length - 1] = p;
+                bi[bi.length - 2] = p;
+                bi[bi.length - 1] = idx[ro - 1];
+                s += a.get(ai) * b.get(bi);
+            }
+            out.set(s, idx);
+            next(idx, shape);
+        }
+    }
+
+    @Override
+    public void conv2d(Tensor x, Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation, Tensor out) {
+        int[] xs = x.shape(), ws = weight.shape(), os = out.shape();
+        for (int n = 0; n < os[0]; n++) {
+            for (int o = 0; o < os[1]; o++) {
+                for (int oy = 0; oy < os[2]; oy++) {
+                    for (int ox = 0; ox < os[3]; ox++) {
+                        double s = bias == null ? 0.0 : bias.get(o);
+                        for (int c = 0; c < xs[1]; c++) {
+                            for (int i = 0; i < ws[2]; i++) {
+                                for (int j = 0; j < ws[3]; j++) {
+                                    int y = oy * stride[0] - padding[0] + i * dilation[0];
+                                    int z = ox * stride[1] - padding[1] + j * dilation[1];
+                                    if (y >= 0 && y < xs[2] && z >= 0 && z < xs[3]) s += x.get(n, c, y, z) * weight.get(o, c, i, j);
+                                }
+                            }
+                        }
+                        out.set(s, n, o, oy, ox);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void generate(Tensor out, LongToDoubleFunction f) {
+        for (long i = 0; i < out.numel(); i++) out.storage().set(out.offset() + i, f.applyAsDouble(i));
+    }
+
+    // row-major increment of idx within shape
+    private static void next(int[] idx, int[] shape) {
+        for (int d = idx.length - 1; d >= 0; d--) {
+            if (++idx[d] < shape[d]) return;
+            idx[d] = 0;
+        }
+    }
+
+    // the index into a tensor of shape that broadcasts to the output index idx
+    private static int[] broadcast(int[] idx, int[] shape) {
+        int[] at = new int[shape.length];
+        int lead = idx.length - shape.length;
+        for (int d = 0; d < shape.length; d++) at[d] = shape[d] == 1 ? 0 : idx[lead + d];
+        return at;
+    }
+}
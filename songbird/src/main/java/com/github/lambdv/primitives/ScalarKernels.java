@@ -0,0 +1,78 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Plain Java loops; the fallback whenever the vector module is missing or SIMD is disabled.
+ */
+final class ScalarKernels implements ArrayKernels {
+    static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    private ScalarKernels() {}
+
+    @Override
+    public void add(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] + b[bi + i];
+    }
+
+    @Override
+    public void sub(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] - b[bi + i];
+    }
+
+    @Override
+    public void mul(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] * b[bi + i];
+    }
+
+    @Override
+    public void div(double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] / b[bi + i];
+    }
+
+    @Override
+    public void fma(double[] a, int ai, double[] b, int bi, double[] c, int ci, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = Math.fma(a[ai + i], b[bi + i], c[ci + i]);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xi, double[] y, int yi, int n) {
+        for (int i = 0; i < n; i++) y[yi + i] += alpha * x[xi + i];
+    }
+
+    @Override
+    public double dot(double[] a, int ai, double[] b, int bi, int n) {
+        double s = 0.0;
+        for (int i = 0; i < n; i++) s += a[ai + i] * b[bi + i];
+        return s;
+    }
+
+    @Override
+    public double sum(double[] a, int ai, int n) {
+        double s = 0.0;
+        for (int i = 0; i < n; i++) s += a[ai + i];
+        return s;
+    }
+
+    @Override
+    public void relu(double[] a, int ai, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            double v = a[ai + i];
+            out[oi + i] = v > 0 ? v : 0.0;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] a, int ai, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = 1.0 / (1.0 + Math.exp(-a[ai + i]));
+    }
+
+    @Override
+    public void tanh(double[] a, int ai, double[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) out[oi + i] = Math.tanh(a[ai + i]);
+    }
+
+    @Override
+    public void gemmKernel(int kc, double[] ap, int ai, double[] bp, int bi,
+                           double[] c, int ci, int cRs, int cCs, int mr, int nr, boolean overwrite) {
+        Gemm.kernel(kc, ap, ai, bp, bi, c, ci, cRs, cCs, mr, nr, overwrite);
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Runtime switch between the scalar and the Vector API kernels.
+ *
+ * The vectorized kernels are only compiled by the {@code vector} Maven profile and need
+ * {@code --add-modules jdk.incubator.vector} at runtime. When either is missing, or when
+ * {@code -Dsongbird.simd=false} is set, every op runs on the scalar path.
+ */
+public final class Simd {
+    private static final ArrayKernels VECTOR = loadVectorKernels();
+    private static volatile ArrayKernels active =
+        VECTOR != null && Boolean.parseBoolean(System.getProperty("songbird.simd", "true")) ? VECTOR : ScalarKernels.INSTANCE;
+
+    private Simd() {}
+
+    /** true when the vectorized kernels were compiled in and the incubator module is loaded */
+    public static boolean isAvailable() {
+        return VECTOR != null;
+    }
+
+    public static boolean isEnabled() {
+        return active != ScalarKernels.INSTANCE;
+    }
+
+    /** Turns the vectorized kernels on or off; enabling is a no-op when they are unavailable. */
+    public static void setEnabled(boolean enabled) {
+        active = enabled && VECTOR != null ? VECTOR : ScalarKernels.INSTANCE;
+    }
+
+    static ArrayKernels kernels() {
+        return active;
+    }
+
+    private static ArrayKernels loadVectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            Class<?> impl = Class.forName("com.github.lambdv.primitives.VectorKernels");
+            return (ArrayKernels) impl.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.lambdv.primitives;
+
+/**
+ * Softmax and log-softmax along one dim of a {@link Tensor}, and their backward passes.
+ *
+ * The input is read as rows of n = shape[dim] elements spaced inner apart. The forward pass makes
+ * one sweep per row keeping a running max m and the sum s of exp(x - m), rescaled whenever m
+ * grows, then a second sweep that writes exp(x - m) / s or x - m - log(s). The backward passes are
+ * vector-Jacobian products in two sweeps as well: softmax y gives dx = y * (g - sum(g * y)) and
+ * log-softmax gives dx = g - exp(y) * sum(g), so the n x n Jacobian never exists. Rows run in
+ * parallel on the common fork-join pool once there is enough work (see {@link Parallel}).
+ */
+final class Softmax {
+    private Softmax() {}
+
+    /** y = softmax(x) along dim, or log-softmax when log is set; FLOAT64, contiguous. */
+    static Tensor forward(Tensor x, int dim, boolean log) {
+        Rows rows = new Rows(x.shape(), dim);
+        double[] xd = contiguous(x);
+        Tensor out = Tensor.empty(DType.FLOAT64, x.shape(), false);
+        double[] yd = out.storage().doubles();
+        rows.run((base, n, inner) -> {
+            double m = Double.NEGATIVE_INFINITY, s = 0.0;
+            for (int j = 0, i = base; j < n; j++, i += inner) {
+                double v = xd[i];
+                if (v > m) {
+                    s = s * Math.exp(m - v) + 1.0;
+                    m = v;
+                } else if (v != Double.NEGATIVE_INFINITY) {
+                    s += Math.exp(v - m);
+                }
+            }
+            if (Double.isInfinite(m) || s != s) {
+                // a NaN, a +inf (inf - inf) or nothing but -inf leaves no meaningful distribution
+                for (int j = 0, i = base; j < n; j++, i += inner) yd[i] = Double.NaN;
+                return;
+            }
+            double logS = Math.log(s);
+            for (int j = 0, i = base; j < n; j++, i += inner) {
+                yd[i] = log ? xd[i] - m - logS : Math.exp(xd[i] - m) / s;
+            }
+        });
+        return out;
+    }
+
+    /** dL/dx from dL/dy = g and the forward result y. */
+    static Tensor backward(Tensor g, Tensor y, int dim, boolean log) {
+        Rows rows = new Rows(y.shape(), dim);
+        double[] gd = contiguous(g), yd = contiguous(y);
+        Tensor dx = Tensor.empty(DType.FLOAT64, y.shape(), false);
+        double[] dd = dx.storage().doubles();
+        rows.run((base, n, inner) -> {
+            double dot = 0.0;
+            for (int j = 0, i = base; j < n; j++, i += inner) dot += log ? gd[i] : gd[i] * yd[i];
+            for (int j = 0, i = base; j < n; j++, i += inner) {
+                dd[i] = log ? gd[i] - Math.exp(yd[i]) * dot : yd[i] * (gd[i] - dot);
+            }
+        });
+        return dx;
+    }
+
+    // row-major FLOAT64 elements of t, without copying when t already is exactly that
+    static double[] contiguous(Tensor t) {
+        double[] d = t.storage().doubles();
+        return d != null && t.offset() == 0 && d.length == t.numel() && t.isContiguous() ? d : t.toArray();
+    }
+
+    @FunctionalInterface
+    interface Row {
+        /** handles the n elements at base, base + inner, ... */
+        void run(int base, int n, int inner);
+    }
+
+    // The rows along dim of a contiguous tensor of shape: outer * inner of them, n long; also used by Indexing
+    static final class Rows {
+        final int outer, n, inner;
+
+        Rows(int[] shape, int dim) {
+            long o = 1, in = 1;
+            for (int d = 0; d < dim; d++) o *= shape[d];
+            for (int d = dim + 1; d < shape.length; d++) in *= shape[d];
+            this.outer = (int) o;
+            this.n = shape[dim];
+            this.inner = (int) in;
+        }
+
+        // every row, numbered outer-major
+        void run(Row row) {
+            Parallel.forEach((long) outer * inner, n, (from, to, split) -> {
+                for (long r = from; r < to; r++) {
+                    long o = r / inner, i = r % inner;
+                    row.run((int) (o * n * inner + i), n, inner);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.github.lambdv.primitives;
+
+import java.util.Arrays;
+
+/**
+ * Immutable tensor that stores only its nonzero elements, as double values.
+ *
+ * A 2D sparse tensor is kept in CSR form: rowPtr[i]..rowPtr[i + 1] delimit the column indices
+ * and values of row i. Tensors of any other rank are kept in COO form: every entry is its
+ * row-major flat index, sorted and without duplicates. {@link #toCsr} and {@link #toCoo} convert
+ * between the two for 2D tensors.
+ *
+ * {@link #matmul(Tensor)} and {@link Tensor#matmul(SparseTensor)} multiply with a dense 2D
+ * tensor in O(nnz) work per dense column instead of O(rows * cols), splitting the output rows
+ * across the common fork-join pool when the product is large. Both record autograd for the
+ * dense operand; the sparse one is treated as a constant.
+ */
+public final class SparseTensor {
+    public enum Layout { COO, CSR }
+
+    private final int[] shape;
+    private final Layout layout;
+    private final double[] values;
+    // CSR only
+    private final int[] rowPtr;
+    private final int[] cols;
+    // COO only: sorted row-major flat indices
+    private final long[] keys;
+
+    private SparseTensor(int[] shape, Layout layout, double[] values, int[] rowPtr, int[] cols, long[] keys) {
+        this.shape = shape;
+        this.layout = layout;
+        this.values = values;
+        this.rowPtr = rowPtr;
+        this.cols = cols;
+        this.keys = keys;
+    }
+
+    // Construction
+
+    /**
+     * COO tensor from indices[d][i], the coordinate along dim d of entry i, and values[i].
+     * Entries may come in any order; duplicates are summed.
+     */
+    public static SparseTensor coo(int[] shape, int[][] indices, double[] values) {
+        long[] strides = strides(shape);
+        if (indices.length != shape.length) {
+            throw new IllegalArgumentException("Expected " + shape.length + " index arrays but got " + indices.length);
+        }
+        int nnz = values.length;
+        long[] keys = new long[nnz];
+        for (int d = 0; d < shape.length; d++) {
+            if (indices[d].length != nnz) {
+                throw new IllegalArgumentException("Index array " + d + " has " + indices[d].length + " entries but there are " + nnz + " values");
+            }
+            for (int i = 0; i < nnz; i++) {
+                int at = indices[d][i];
+                if (at < 0 || at >= shape[d]) {
+                    throw new IllegalArgumentException("Index " + at + " out of bounds for dim " + d + " of size " + shape[d]);
+                }
+                keys[i] += at * strides[d];
+            }
+        }
+        return coalesce(shape.clone(), keys, values.clone());
+    }
+
+    /**
+     * CSR matrix with the given row pointers, column indices and values. Columns need not be
+     * sorted within a row, and a repeated column counts as the sum of its values.
+     */
+    public static SparseTensor csr(int rows, int cols, int[] rowPtr, int[] colIdx, double[] values) {
+        if (rows < 0 || cols < 0) throw new IllegalArgumentException("Shape must not be negative");
+        if (rowPtr.length != rows + 1) {
+            throw new IllegalArgumentException("rowPtr must have rows + 1 = " + (rows + 1) + " entries but has " + rowPtr.length);
+        }
+        if (colIdx.length != values.length) {
+            throw new IllegalArgumentException("colIdx and values must have the same length");
+        }
+        if (rowPtr[0] != 0 || rowPtr[rows] != values.length) {
+            throw new IllegalArgumentException("rowPtr must run from 0 to nnz = " + values.length);
+        }
+        for (int i = 0; i < rows; i++) {
+            if (rowPtr[i] > rowPtr[i + 1]) throw new IllegalArgumentException("rowPtr must be non-decreasing");
+        }
+        for (int c : colIdx) {
+            if (c < 0 || c >= cols) throw new IllegalArgumentException("Column " + c + " out of bounds for " + cols + " columns");
+        }
+        return new SparseTensor(new int[] {rows, cols}, Layout.CSR, values.clone(), rowPtr.clone(), colIdx.clone(), null);
+    }
+
+    /** The nonzero elements of t: CSR when t is 2D, COO otherwise. */
+    public static SparseTensor fromDense(Tensor t) {
+        double[] data = t.toArray();
+        int nnz = 0;
+        for (double v : data) if (v != 0.0) nnz++;
+        long[] keys = new long[nnz];
+        double[] values = new double[nnz];
+        int j = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == 0.0) continue;
+            keys[j] = i;
+            values[j++] = data[i];
+        }
+        SparseTensor coo = new SparseTensor(t.shape(), Layout.COO, values, null, null, keys);
+        return t.ndim() == 2 ? coo.toCsr() : coo;
+    }
+
+    // Accessors
+
+    public int ndim() { return shape.length; }
+    public int[] shape() { return shape.clone(); }
+    public Layout layout() { return layout; }
+
+    /** Number of stored elements. */
+    public int nnz() { return values.length; }
+
+    public double get(int... indices) {
+        if (indices.length != shape.length) {
+            throw new IllegalArgumentException("Expected " + shape.length + " indices but got " + indices.length);
+        }
+        for (int d = 0; d < shape.length; d++) {
+            if (indices[d] < 0 || indices[d] >= shape[d]) {
+                throw new IndexOutOfBoundsException("Index " + indices[d] + " out of bounds for dim " + d + " of size " + shape[d]);
+            }
+        }
+        if (layout == Layout.CSR) {
+            double v = 0.0;
+            for (int p = rowPtr[indices[0]]; p < rowPtr[indices[0] + 1]; p++) {
+                if (cols[p] == indices[1]) v += values[p];
+            }
+            return v;
+        }
+        long key = 0;
+        long[] strides = strides(shape);
+        for (int d = 0; d < shape.length; d++) key += indices[d] * strides[d];
+        int at = Arrays.binarySearch(keys, key);
+        return at >= 0 ? values[at] : 0.0;
+    }
+
+    // Conversions
+
+    public Tensor toDense() {
+        Tensor out = Tensor.empty(DType.FLOAT64, shape, false);
+        double[] data = out.storage().doubles();
+        if (layout == Layout.CSR) {
+            int n = shape[1];
+            for (int i = 0; i < shape[0]; i++) {
+                for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) data[i * n + cols[p]] += values[p];
+            }
+        } else {
+            for (int i = 0; i < keys.length; i++) data[(int) keys[i]] = values[i];
+        }
+        return out;
+    }
+
+    public SparseTensor toCsr() {
+        if (layout == Layout.CSR) return this;
+        if (shape.length != 2) throw new IllegalArgumentException("CSR needs a 2D tensor, got " + shape.length + "D");
+        int rows = shape[0], n = shape[1];
+        int[] ptr = new int[rows + 1];
+        int[] c = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ptr[(int) (keys[i] / n) + 1]++;
+            c[i] = (int) (keys[i] % n);
+        }
+        for (int i = 0; i < rows; i++) ptr[i + 1] += ptr[i];
+        return new SparseTensor(shape, Layout.CSR, values, ptr, c, null);
+    }
+
+    public SparseTensor toCoo() {
+        if (layout == Layout.COO) return this;
+        long[] k = new long[values.length];
+        for (int i = 0; i < shape[0]; i++) {
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) k[p] = (long) i * shape[1] + cols[p];
+        }
+        return coalesce(shape, k, values.clone());
+    }
+
+    /** Transpose of a 2D tensor, in CSR form with sorted columns. */
+    public SparseTensor transpose() {
+        SparseTensor a = toCsr();
+        int rows = shape[0], n = shape[1];
+        int[] ptr = new int[n + 1];
+        for (int c : a.cols) ptr[c + 1]++;
+        for (int j = 0; j < n; j++) ptr[j + 1] += ptr[j];
+        int[] next = Arrays.copyOf(ptr, n);
+        int[] c = new int[values.length];
+        double[] v = new double[values.length];
+        for (int i = 0; i < rows; i++) {
+            for (int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                int q = next[a.cols[p]]++;
+                c[q] = i;
+                v[q] = a.values[p];
+            }
+        }
+        return new SparseTensor(new int[] {n, rows}, Layout.CSR, v, ptr, c, null);
+    }
+
+    // Products
+
+    /** this x dense, for a 2D this and a 2D dense; the result is a dense FLOAT64 tensor. */
+    public Tensor matmul(Tensor dense) {
+        SparseTensor a = toCsr();
+        int[] bShape = dense.shape();
+        if (bShape.length != 2) throw new IllegalArgumentException("Sparse matmul needs a 2D dense operand, got " + bShape.length + "D");
+        if (bShape[0] != shape[1]) {
+            throw new IllegalArgumentException("Inner dimensions must match for matmul: " + shape[1] + " vs " + bShape[0]);
+        }
+        int m = shape[0], n = bShape[1];
+        Tensor b = heapDoubles(dense);
+        double[] bd = b.storage().doubles();
+        int[] bs = b.strides();
+        int bOff = (int) b.offset(), bRs = bs[0], bCs = bs[1];
+        Tensor out = Tensor.empty(DType.FLOAT64, new int[] {m, n}, false);
+        double[] c = out.storage().doubles();
+        ArrayKernels kx = Simd.kernels();
+        rows(m, a.rowPtr, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                    double v = a.values[p];
+                    int bRow = bOff + a.cols[p] * bRs;
+                    if (bCs == 1) {
+                        kx.axpy(v, bd, bRow, c, i * n, n);
+                    } else {
+                        for (int j = 0; j < n; j++) c[i * n + j] += v * bd[bRow + j * bCs];
+                    }
+                }
+            }
+        });
+        if (!Autograd.tracks(dense)) return out;
+        return Tensor.record(out, g -> new Tensor[] {a.transpose().matmul(g)}, dense);
+    }
+
+    // dense x this, see Tensor#matmul(SparseTensor)
+    Tensor leftMatmul(Tensor dense) {
+        SparseTensor s = toCsr();
+        int[] aShape = dense.shape();
+        if (aShape.length != 2) throw new IllegalArgumentException("Sparse matmul needs a 2D dense operand, got " + aShape.length + "D");
+        if (aShape[1] != shape[0]) {
+            throw new IllegalArgumentException("Inner dimensions must match for matmul: " + aShape[1] + " vs " + shape[0]);
+        }
+        int m = aShape[0], k = shape[0], n = shape[1];
+        Tensor a = heapDoubles(dense);
+        double[] ad = a.storage().doubles();
+        int[] as = a.strides();
+        int aOff = (int) a.offset(), aRs = as[0], aCs = as[1];
+        Tensor out = Tensor.empty(DType.FLOAT64, new int[] {m, n}, false);
+        double[] c = out.storage().doubles();
+        // every output row walks all of this, so rows cost the same
+        rows(m, null, k + s.values.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int p = 0; p < k; p++) {
+                    double v = ad[aOff + i * aRs + p * aCs];
+                    if (v == 0.0) continue;
+                    for (int q = s.rowPtr[p]; q < s.rowPtr[p + 1]; q++) c[i * n + s.cols[q]] += v * s.values[q];
+                }
+            }
+        });
+        if (!Autograd.tracks(dense)) return out;
+        return Tensor.record(out, g -> new Tensor[] {g.matmul(s.transpose())}, dense);
+    }
+
+    // Utilities
+
+    @FunctionalInterface
+    private interface RowKernel {
+        void run(int from, int to);
+    }
+
+    // runs kernel over rows [0, m); with rowPtr a row costs cost per stored element, otherwise cost flat,
+    // and the rows are split so both halves get about the same work
+    private static void rows(int m, int[] rowPtr, long cost, RowKernel kernel) {
+        Parallel.Cost work = rowPtr == null
+            ? (from, to) -> (to - from) * cost
+            : (from, to) -> (rowPtr[(int) to] - rowPtr[(int) from]) * cost;
+        Parallel.forEach(m, work, (from, to, split) -> kernel.run((int) from, (int) to));
+    }
+
+    // t itself when it is heap FLOAT64, otherwise a contiguous FLOAT64 copy
+    private static Tensor heapDoubles(Tensor t) {
+        return t.storage().doubles() != null ? t : Tensor.wrap(t.toArray(), t.shape());
+    }
+
+    // sorts keys with their values and sums the values of equal keys
+    private static SparseTensor coalesce(int[] shape, long[] keys, double[] values) {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (x, y) -> Long.compare(keys[x], keys[y]));
+        long[] k = new long[keys.length];
+        double[] v = new double[keys.length];
+        int n = 0;
+        for (int i : order) {
+            if (n > 0 && k[n - 1] == keys[i]) {
+                v[n - 1] += values[i];
+            } else {
+                k[n] = keys[i];
+                v[n++] = values[i];
+            }
+        }
+        return new SparseTensor(shape, Layout.COO, Arrays.copyOf(v, n), null, null, Arrays.copyOf(k, n));
+    }
+
+    private static long[] strides(int[] shape) {
+        long[] strides = new long[shape.length];
+        long s = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            if (shape[d] < 0) throw new IllegalArgumentException("Shape must not be negative: " + Arrays.toString(shape));
+            strides[d] = s;
+            s *= shape[d];
+        }
+        return strides;
+    }
+
+    @Override
+    public String toString() {
+        return "SparseTensor(shape=" + Arrays.toString(shape) + ", layout=" + layout + ", nnz=" + values.length + ")";
+    }
+}
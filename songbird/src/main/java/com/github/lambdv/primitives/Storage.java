@@ -0,0 +1,321 @@
+package com.github.lambdv.primitives;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flat element buffer behind one or more {@link Tensor} views. Heap-backed storages expose
+ * their array so kernels can loop over it directly; {@link #get}/{@link #set} work for every
+ * storage and widen/narrow to double.
+ */
+abstract class Storage {
+    // largest array the JVM reliably allocates
+    static final long MAX_HEAP_LENGTH = Integer.MAX_VALUE - 8;
+
+    // every tensor viewing this buffer while a TensorScope owns it, so closing the scope can cut them off
+    Views views;
+
+    abstract DType dtype();
+    abstract long length();
+    abstract double get(long index);
+    abstract void set(long index, double value);
+
+    /** the backing array when this is heap FLOAT64 storage, otherwise null */
+    double[] doubles() { return null; }
+
+    /** the backing array when this is heap FLOAT32 storage, otherwise null */
+    float[] floats() { return null; }
+
+    /** Frees the memory now if it lives outside the heap; heap storage is left to the GC. */
+    void close() {}
+
+    /** Holds off close until the matching exit; bulk kernels bracket their element loops with these. */
+    void enter() {}
+
+    void exit() {}
+
+    /** Runs body with every one of storages held open against close, the same storage possibly more than once. */
+    static void guarded(Runnable body, Storage... storages) {
+        int entered = 0;
+        try {
+            for (Storage s : storages) {
+                s.enter();
+                entered++;
+            }
+            body.run();
+        } finally {
+            for (int i = 0; i < entered; i++) storages[i].exit();
+        }
+    }
+
+    static Storage allocate(DType dtype, long length) {
+        if (length > MAX_HEAP_LENGTH) {
+            throw new IllegalArgumentException("Cannot allocate " + length + " elements on the heap; use Tensor.offHeap");
+        }
+        return switch (dtype) {
+            case FLOAT64 -> new Doubles(new double[(int) length]);
+            case FLOAT32 -> new Floats(new float[(int) length]);
+        };
+    }
+
+    static Storage direct(DType dtype, long length) {
+        return new Direct(dtype, length);
+    }
+
+    /** Read-only little-endian elements mapped straight from a file region; no bytes are copied. */
+    static Storage mapped(FileChannel channel, long position, DType dtype, long length) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((length + Direct.CHUNK - 1) / Direct.CHUNK)];
+        for (int i = 0; i < chunks.length; i++) {
+            long first = (long) i * Direct.CHUNK;
+            long bytes = Math.min(Direct.CHUNK, length - first) * dtype.byteSize();
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + first * dtype.byteSize(), bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new Direct(dtype, length, chunks);
+    }
+
+    /**
+     * The views of a scope-owned buffer, held weakly: a view dropped mid-scope, such as a slice taken
+     * every step of an epoch, is collected as usual and its entry is cleared on the next registration.
+     */
+    static final class Views {
+        private final Set<WeakReference<Tensor>> refs = ConcurrentHashMap.newKeySet();
+        private final ReferenceQueue<Tensor> collected = new ReferenceQueue<>();
+
+        void add(Tensor t) {
+            for (Reference<? extends Tensor> r; (r = collected.poll()) != null; ) refs.remove(r);
+            refs.add(new WeakReference<>(t, collected));
+        }
+
+        /** Releases every view still reachable; see {@link Tensor#release}. */
+        void releaseAll() {
+            for (WeakReference<Tensor> r : refs) {
+                Tensor t = r.get();
+                if (t != null) t.release();
+            }
+            refs.clear();
+        }
+    }
+
+    static final class Doubles extends Storage {
+        final double[] array;
+
+        Doubles(double[] array) { this.array = array; }
+
+        @Override DType dtype() { return DType.FLOAT64; }
+        @Override long length() { return array.length; }
+        @Override double get(long index) { return array[(int) index]; }
+        @Override void set(long index, double value) { array[(int) index] = value; }
+        @Override double[] doubles() { return array; }
+    }
+
+    static final class Floats extends Storage {
+        final float[] array;
+
+        Floats(float[] array) { this.array = array; }
+
+        @Override DType dtype() { return DType.FLOAT32; }
+        @Override long length() { return array.length; }
+        @Override double get(long index) { return array[(int) index]; }
+        @Override void set(long index, double value) { array[(int) index] = (float) value; }
+        @Override float[] floats() { return array; }
+    }
+
+    /** What a tensor points at once a closing {@link TensorScope} has taken its buffer back: every access throws. */
+    static final class Released extends Storage {
+        private final DType dtype;
+        private final long length;
+
+        Released(DType dtype, long length) {
+            this.dtype = dtype;
+            this.length = length;
+        }
+
+        @Override DType dtype() { return dtype; }
+        @Override long length() { return length; }
+        @Override double get(long index) { throw released(); }
+        @Override void set(long index, double value) { throw released(); }
+
+        private static IllegalStateException released() {
+            return new IllegalStateException("Tensor storage was recycled when its TensorScope closed; keep tensors that must outlive the scope");
+        }
+    }
+
+    /**
+     * Native-order direct buffers outside the GC'd heap. A single buffer is int-indexed, so the
+     * storage is split into fixed-size chunks and addressed with a long index. The chunk size is
+     * 2^24 elements unless the songbird.offheap.chunkShift property sets another power of two,
+     * which lets tests cross chunk boundaries with small tensors.
+     *
+     * get and set are plain buffer accesses that throw IllegalStateException once close has
+     * dropped the buffers, so use after close fails on the closing thread. Bulk kernels instead
+     * enter once before their loops and exit after them; close waits for the kernels already
+     * inside and then frees the chunks, so a kernel racing close either finishes or throws. A
+     * lone get or set on another thread is not guarded and must not race close.
+     */
+    static final class Direct extends Storage {
+        static final int CHUNK_SHIFT = chunkShift();
+        static final long CHUNK = 1L << CHUNK_SHIFT;
+        private static final long MASK = CHUNK - 1;
+        // sign bit of state: set once close has begun; the rest counts accesses in flight
+        private static final long CLOSED = Long.MIN_VALUE;
+
+        private final DType dtype;
+        private final long length;
+        private final AtomicLong state = new AtomicLong();
+        private final ByteBuffer[] chunks;
+        // dropped by close, before the chunks are freed
+        private DoubleBuffer[] doubles;
+        private FloatBuffer[] floats;
+
+        Direct(DType dtype, long length) {
+            this(dtype, length, allocateChunks(dtype, length));
+        }
+
+        // chunks[i] holds elements [i * CHUNK, (i + 1) * CHUNK), in each buffer's own byte order
+        Direct(DType dtype, long length, ByteBuffer[] chunks) {
+            this.dtype = dtype;
+            this.length = length;
+            this.chunks = chunks;
+            if (dtype == DType.FLOAT64) {
+                doubles = new DoubleBuffer[chunks.length];
+                floats = null;
+                for (int i = 0; i < chunks.length; i++) doubles[i] = chunks[i].asDoubleBuffer();
+            } else {
+                doubles = null;
+                floats = new FloatBuffer[chunks.length];
+                for (int i = 0; i < chunks.length; i++) floats[i] = chunks[i].asFloatBuffer();
+            }
+        }
+
+        // a chunk of 2^shift elements must fit one int-indexed buffer of 8-byte elements
+        private static int chunkShift() {
+            String value = System.getProperty("songbird.offheap.chunkShift");
+            if (value == null) return 24;
+            int shift = Integer.parseInt(value.trim());
+            if (shift < 0 || shift > 27) {
+                throw new IllegalArgumentException("songbird.offheap.chunkShift must be in [0, 27], got " + shift);
+            }
+            return shift;
+        }
+
+        private static ByteBuffer[] allocateChunks(DType dtype, long length) {
+            if (length < 0) throw new IllegalArgumentException("length must be >= 0");
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + MASK) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long n = Math.min(CHUNK, length - ((long) i << CHUNK_SHIFT));
+                chunks[i] = ByteBuffer.allocateDirect((int) n * dtype.byteSize()).order(ByteOrder.nativeOrder());
+            }
+            return chunks;
+        }
+
+        @Override DType dtype() { return dtype; }
+        @Override long length() { return length; }
+
+        @Override
+        double get(long index) {
+            int c = (int) (index >>> CHUNK_SHIFT), i = (int) (index & MASK);
+            DoubleBuffer[] d = doubles;
+            if (d != null) return d[c].get(i);
+            FloatBuffer[] f = floats;
+            if (f != null) return f[c].get(i);
+            throw closed();
+        }
+
+        @Override
+        void set(long index, double value) {
+            int c = (int) (index >>> CHUNK_SHIFT), i = (int) (index & MASK);
+            DoubleBuffer[] d = doubles;
+            if (d != null) {
+                d[c].put(i, value);
+                return;
+            }
+            FloatBuffer[] f = floats;
+            if (f == null) throw closed();
+            f[c].put(i, (float) value);
+        }
+
+        /**
+         * Frees the chunks once the kernels already inside have exited. Only the first call frees
+         * anything; it throws if this JVM offers no way to free direct memory explicitly.
+         */
+        @Override
+        void close() {
+            long s;
+            do {
+                s = state.get();
+                if (s < 0) return;
+            } while (!state.compareAndSet(s, s | CLOSED));
+            while (state.get() != CLOSED) Thread.onSpinWait();
+            doubles = null;
+            floats = null;
+            for (ByteBuffer b : chunks) Cleaner.free(b);
+        }
+
+        @Override
+        void enter() {
+            long s;
+            do {
+                s = state.get();
+                if (s < 0) throw closed();
+            } while (!state.compareAndSet(s, s + 1));
+        }
+
+        @Override
+        void exit() {
+            state.decrementAndGet();
+        }
+
+        private static IllegalStateException closed() {
+            return new IllegalStateException("Tensor storage has been closed");
+        }
+    }
+
+    // Unsafe.invokeCleaner releases a direct buffer immediately; it is the only way to do so before Java 22
+    private static final class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+        private static final Exception UNAVAILABLE;
+
+        static {
+            Object unsafe = null;
+            Method invoke = null;
+            Exception failure = null;
+            try {
+                Class<?> c = Class.forName("sun.misc.Unsafe");
+                Field f = c.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                invoke = c.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                failure = e;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invoke;
+            UNAVAILABLE = failure;
+        }
+
+        static void free(ByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) {
+                throw new UnsupportedOperationException("This JVM does not allow freeing off-heap tensors explicitly", UNAVAILABLE);
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not free off-heap tensor memory", e);
+            }
+        }
+    }
+}
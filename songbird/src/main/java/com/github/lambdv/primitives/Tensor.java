@@ -1,44 +1,74 @@
 package com.github.lambdv.primitives;
 
 import java.util.Arrays;
-import java.util.Random;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import java.util.List;
 
-public class Tensor {
-    private final double[] data;
+public class Tensor implements AutoCloseable {
+    // swapped for a Storage.Released, with both arrays nulled, when a closing TensorScope recycles the buffer
+    private Storage storage;
+    // storage's backing array for the matching dtype, null otherwise (including off-heap storage)
+    private double[] data;
+    private float[] fdata;
     private final int[] shape;
-    private final int[] strides;
-    private final int size;
+    private final long[] strides;
+    // storage index of the first element; non-zero for views made by select, narrow and slice
+    private final long offset;
+    private final long size;
+    // autograd: set on leaves by requiresGrad(true), and on every result an op records from them
+    private boolean requiresGrad;
+    private Tensor grad;
+    private Autograd.Node gradFn;
 
     // Constructors
     public Tensor(int... shape) {
         validateShape(shape);
         this.shape = shape.clone();
         this.size = product(shape);
-        this.data = new double[this.size];
+        this.storage = Storage.allocate(DType.FLOAT64, this.size);
+        this.data = storage.doubles();
+        this.fdata = null;
         this.strides = defaultStrides(this.shape);
+        this.offset = 0;
     }
 
     public Tensor(double[] data, int... shape) {
         validateShape(shape);
-        int expected = product(shape);
+        long expected = product(shape);
         if (data.length != expected) {
             throw new IllegalArgumentException("Data length " + data.length + " does not match shape product " + expected);
         }
         this.shape = shape.clone();
         this.size = expected;
-        this.data = data.clone();
+        this.storage = new Storage.Doubles(data.clone());
+        this.data = storage.doubles();
+        this.fdata = null;
         this.strides = defaultStrides(this.shape);
+        this.offset = 0;
     }
 
-    private Tensor(double[] data, int[] shape, int[] strides) {
-        this.data = data;
+    private Tensor(Storage storage, int[] shape, long[] strides) {
+        this(storage, shape, strides, 0);
+    }
+
+    private Tensor(Storage storage, int[] shape, long[] strides, long offset) {
+        this.storage = storage;
+        this.data = storage.doubles();
+        this.fdata = storage.floats();
         this.shape = shape;
         this.strides = strides;
+        this.offset = offset;
         this.size = product(shape);
+        Storage.Views views = storage.views;
+        if (views != null) views.add(this);
+    }
+
+    private Tensor(double[] data, int[] shape, long[] strides) {
+        this(new Storage.Doubles(data), shape, strides);
     }
 
     // Factories
@@ -58,23 +88,76 @@ public class Tensor {
         return t;
     }
 
+    public static Tensor zeros(DType dtype, int... shape) {
+        return empty(dtype, shape);
+    }
+
+    public static Tensor ones(DType dtype, int... shape) {
+        return full(1.0, dtype, shape);
+    }
+
+    public static Tensor full(double value, DType dtype, int... shape) {
+        return empty(dtype, shape).fill(value);
+    }
+
     public static Tensor of(double[] data, int... shape) {
         return new Tensor(data, shape);
     }
 
-    // Random / numeric factories
+    public static Tensor of(float[] data, int... shape) {
+        return wrap(data.clone(), shape);
+    }
+
+    /** Like {@link #of} but takes ownership of data instead of copying it; later writes to data show through. */
+    public static Tensor wrap(double[] data, int... shape) {
+        validateShape(shape);
+        long expected = product(shape);
+        if (data.length != expected) {
+            throw new IllegalArgumentException("Data length " + data.length + " does not match shape product " + expected);
+        }
+        int[] s = shape.clone();
+        return new Tensor(data, s, defaultStrides(s));
+    }
+
+    public static Tensor wrap(float[] data, int... shape) {
+        validateShape(shape);
+        long expected = product(shape);
+        if (data.length != expected) {
+            throw new IllegalArgumentException("Data length " + data.length + " does not match shape product " + expected);
+        }
+        int[] s = shape.clone();
+        return new Tensor(new Storage.Floats(data), s, defaultStrides(s));
+    }
+
+    /**
+     * Zero-filled tensor in native memory outside the GC'd heap. It may hold more than 2^31 elements
+     * (bounded by -XX:MaxDirectMemorySize), and {@link #close} frees it without waiting for the GC.
+     * Ops on off-heap tensors allocate their results off-heap too.
+     */
+    public static Tensor offHeap(DType dtype, int... shape) {
+        validateShape(shape);
+        return empty(dtype, shape, true);
+    }
+
+    public static Tensor offHeap(int... shape) {
+        return offHeap(DType.FLOAT64, shape);
+    }
+
+    // Random / numeric factories; the unseeded ones draw from Generator.defaultGenerator()
     public static Tensor rand(int... shape) {
-        Tensor t = new Tensor(shape);
-        Random r = new Random();
-        for (int i = 0; i < t.data.length; i++) t.data[i] = r.nextDouble();
-        return t;
+        return Generator.defaultGenerator().rand(shape);
     }
 
     public static Tensor randn(int... shape) {
-        Tensor t = new Tensor(shape);
-        Random r = new Random();
-        for (int i = 0; i < t.data.length; i++) t.data[i] = r.nextGaussian();
-        return t;
+        return Generator.defaultGenerator().randn(shape);
+    }
+
+    public static Tensor rand(Generator gen, int... shape) {
+        return gen.rand(shape);
+    }
+
+    public static Tensor randn(Generator gen, int... shape) {
+        return gen.randn(shape);
     }
 
     public static Tensor eye(int n) {
@@ -117,17 +200,110 @@ public class Tensor {
 
     // Basic info
     public int ndim() { return shape.length; }
-    public int size() { return size; }
     public int[] shape() { return shape.clone(); }
-    public int[] strides() { return strides.clone(); }
+    public int[] strides() { return ints(strides); }
+    public DType dtype() { return storage.dtype(); }
+    public boolean isOffHeap() { return data == null && fdata == null; }
     public double[] toArray() { return toContiguousArray(); }
 
+    /** Number of elements; tensors past the int range only report it through {@link #numel}. */
+    public int size() {
+        if (size > Integer.MAX_VALUE) throw new IllegalStateException("Tensor has " + size + " elements; use numel()");
+        return (int) size;
+    }
+
+    public long numel() { return size; }
+
+    public float[] toFloatArray() {
+        if (fdata != null && isContiguous()) return Arrays.copyOfRange(fdata, (int) offset, (int) (offset + size));
+        Tensor out = empty(DType.FLOAT32, shape);
+        copy(shape, this, offset, strides, out, out.strides);
+        return out.fdata;
+    }
+
+    /** Contiguous copy converted to dtype, or this tensor itself when it already has that dtype. */
+    public Tensor to(DType dtype) {
+        if (dtype == dtype()) return this;
+        Tensor out = empty(dtype, shape, isOffHeap());
+        copy(shape, this, offset, strides, out, out.strides);
+        DType from = dtype();
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g.to(from)}, this) : out;
+    }
+
+    /** Starts a deferred expression over this tensor; see {@link LazyTensor}. */
+    public LazyTensor lazy() {
+        return LazyTensor.of(this);
+    }
+
+    /**
+     * Releases off-heap storage now instead of when the GC finds it unreachable. The storage is shared
+     * with every view of this tensor, and any use of them afterwards throws IllegalStateException.
+     * Throws UnsupportedOperationException if the JVM cannot free direct memory explicitly. A no-op on the heap.
+     */
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+    // Autograd
+    /**
+     * Marks a leaf tensor as a parameter to differentiate with respect to. The allocating ops on it
+     * (and on everything computed from it) then record how to send a gradient back; destination-buffer
+     * and in-place variants do not, and neither does anything run inside {@link #noGrad}.
+     */
+    public Tensor requiresGrad(boolean requiresGrad) {
+        if (gradFn != null) throw new IllegalStateException("requiresGrad can only be set on a leaf tensor");
+        this.requiresGrad = requiresGrad;
+        return this;
+    }
+
+    public boolean requiresGrad() { return requiresGrad; }
+
+    /** Gradient accumulated by {@link #backward} calls since the last {@link #zeroGrad}, or null. */
+    public Tensor grad() { return grad; }
+
+    public void zeroGrad() { grad = null; }
+
+    /** Same storage and layout, cut off from the graph. */
+    public Tensor detach() { return new Tensor(storage, shape, strides, offset); }
+
+    /** Backpropagates from a single-element tensor, such as a loss. */
+    public void backward() {
+        if (size != 1) throw new IllegalStateException("backward() needs a single-element tensor; pass the output gradient instead");
+        backward(full(1.0, dtype(), shape));
+    }
+
+    /** Backpropagates gradOutput, dL/d(this), into the grad of every leaf that requires grad. */
+    public void backward(Tensor gradOutput) {
+        Autograd.backward(this, gradOutput);
+    }
+
+    /** Runs body without recording any op, e.g. for an optimizer step or evaluation. */
+    public static <T> T noGrad(Supplier<T> body) {
+        return Autograd.noGrad(body);
+    }
+
+    Autograd.Node gradFn() { return gradFn; }
+
+    void accumulateGrad(Tensor g) {
+        grad = grad == null ? g.contiguous() : grad.add(g);
+        TensorScope.escape(grad);
+    }
+
+    // marks out as computed from inputs; called only when Autograd.tracks(...) holds
+    static Tensor record(Tensor out, Autograd.Backward backward, Tensor... inputs) {
+        out.gradFn = new Autograd.Node(inputs, backward);
+        out.requiresGrad = true;
+        return out;
+    }
+
     // Indexing
     public double get(int... indices) {
-        int off = offset(indices);
-        return data[off];
+        long off = offset(indices);
+        return storage.get(off);
     }
 
+    /** Copy of the sub-tensor at the leading indices; {@link #select} gives the same elements as a view. */
     public Tensor getSlice(int... indices) {
         if (indices == null) throw new IllegalArgumentException("indices must not be null");
         if (indices.length < 0 || indices.length >= shape.length) {
@@ -145,31 +321,25 @@ public class Tensor {
         int[] outShape = new int[outRank];
         for (int i = 0; i < outRank; i++) outShape[i] = shape[i + indices.length];
 
-        double[] out = new double[product(outShape)];
-        int write = 0;
-        IndexIterator it = new IndexIterator(outShape);
-        while (it.hasNext()) {
-            int[] tail = it.next();
-            int[] full = new int[shape.length];
-            // prefix fixed indices
-            for (int i = 0; i < indices.length; i++) full[i] = indices[i];
-            // tail indices
-            for (int i = 0; i < tail.length; i++) full[i + indices.length] = tail[i];
-            out[write++] = get(full);
-        }
-        return new Tensor(out, outShape);
+        long base = offset;
+        for (int d = 0; d < indices.length; d++) base += indices[d] * strides[d];
+        long[] tailStrides = Arrays.copyOfRange(strides, indices.length, strides.length);
+
+        Tensor out = empty(dtype(), outShape, isOffHeap());
+        copy(outShape, this, base, tailStrides, out, out.strides);
+        return out;
     }
 
     public void set(double value, int... indices) {
-        int off = offset(indices);
-        data[off] = value;
+        long off = offset(indices);
+        storage.set(off, value);
     }
 
-    private int offset(int... indices) {
+    private long offset(int... indices) {
         if (indices.length != shape.length) {
             throw new IllegalArgumentException("Index rank " + indices.length + " must match tensor rank " + shape.length);
         }
-        int off = 0;
+        long off = offset;
         for (int d = 0; d < shape.length; d++) {
             int idx = indices[d];
             if (idx < 0 || idx >= shape[d]) {
@@ -198,18 +368,51 @@ public class Tensor {
         int[] finalShape = newShape.clone();
         if (inferred != -1) {
             if (this.size % knownProduct != 0) throw new IllegalArgumentException("Cannot infer dimension: size not divisible");
-            finalShape[inferred] = (int) (this.size / knownProduct);
+            long d = this.size / knownProduct;
+            if (d > Integer.MAX_VALUE) throw new IllegalArgumentException("Inferred dimension " + d + " exceeds the int range");
+            finalShape[inferred] = (int) d;
         }
         if (product(finalShape) != this.size) throw new IllegalArgumentException("Cannot reshape: total size mismatch");
-        return new Tensor(this.data, finalShape, defaultStrides(finalShape));
+        // a view whenever the new dims can be laid over the existing strides; otherwise a row-major copy
+        long[] viewStrides = viewStrides(finalShape);
+        Tensor out = viewStrides != null
+            ? new Tensor(storage, finalShape, viewStrides, offset)
+            : new Tensor(contiguousOn(isOffHeap()).storage, finalShape, defaultStrides(finalShape), 0);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g.reshape(shape)}, this) : out;
     }
 
     public Tensor view(int... newShape) { return reshape(newShape); }
 
+    // strides that show this tensor's elements in row-major order as newShape, or null when some new dim
+    // would have to span two runs of memory that are not evenly spaced
+    private long[] viewStrides(int[] newShape) {
+        if (size == 0) return defaultStrides(newShape);
+        long[] out = new long[newShape.length];
+        int v = newShape.length - 1;
+        long base = strides[shape.length - 1], chunk = 1, viewChunk = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            chunk *= shape[d];
+            // dims d.. down to the next break form one evenly strided run of chunk elements
+            if (d == 0 || shape[d - 1] != 1 && strides[d - 1] != chunk * base) {
+                while (v >= 0 && (viewChunk < chunk || newShape[v] == 1)) {
+                    out[v] = viewChunk * base;
+                    viewChunk *= newShape[v--];
+                }
+                if (viewChunk != chunk) return null;
+                if (d > 0) {
+                    base = strides[d - 1];
+                    chunk = 1;
+                    viewChunk = 1;
+                }
+            }
+        }
+        return v == -1 ? out : null;
+    }
+
     public Tensor unsqueeze(int dim) {
         if (dim < 0 || dim > shape.length) throw new IllegalArgumentException("Invalid dim for unsqueeze");
         int[] newShape = new int[shape.length + 1];
-        int[] newStrides = new int[strides.length + 1];
+        long[] newStrides = new long[strides.length + 1];
         for (int i = 0, j = 0; i < newShape.length; i++) {
             if (i == dim) {
                 newShape[i] = 1;
@@ -220,7 +423,8 @@ public class Tensor {
                 j++;
             }
         }
-        return new Tensor(this.data, newShape, newStrides);
+        Tensor out = new Tensor(storage, newShape, newStrides, offset);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g.squeeze(dim)}, this) : out;
     }
 
     public Tensor squeeze() { return squeezeAll(); }
@@ -229,14 +433,15 @@ public class Tensor {
         if (dim < 0 || dim >= shape.length) throw new IllegalArgumentException("Invalid dim for squeeze");
         if (shape[dim] != 1) return this;
         int[] newShape = new int[shape.length - 1];
-        int[] newStrides = new int[strides.length - 1];
+        long[] newStrides = new long[strides.length - 1];
         for (int i = 0, j = 0; i < shape.length; i++) {
             if (i == dim) continue;
             newShape[j] = shape[i];
             newStrides[j] = strides[i];
             j++;
         }
-        return new Tensor(this.data, newShape, newStrides);
+        Tensor out = new Tensor(storage, newShape, newStrides, offset);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g.unsqueeze(dim)}, this) : out;
     }
 
     private Tensor squeezeAll() {
@@ -245,19 +450,23 @@ public class Tensor {
         if (keep == shape.length) return this;
         if (keep == 0) return this; // keep at least 1D for simplicity
         int[] newShape = new int[keep];
-        int[] newStrides = new int[keep];
+        long[] newStrides = new long[keep];
         for (int i = 0, j = 0; i < shape.length; i++) {
             if (shape[i] == 1) continue;
             newShape[j] = shape[i];
             newStrides[j] = strides[i];
             j++;
         }
-        return new Tensor(this.data, newShape, newStrides);
+        Tensor out = new Tensor(storage, newShape, newStrides, offset);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g.reshape(shape)}, this) : out;
     }
 
-    public Tensor flatten() { return reshape(size); }
+    public Tensor flatten() { return reshape(-1); }
 
-    public Tensor contiguous() { return new Tensor(toContiguousArray(), shape.clone()); }
+    public Tensor contiguous() {
+        Tensor out = contiguousOn(isOffHeap());
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {g}, this) : out;
+    }
 
     public Tensor permute(int... dims) {
         if (dims.length != shape.length) {
@@ -265,7 +474,7 @@ public class Tensor {
         }
         boolean[] seen = new boolean[dims.length];
         int[] newShape = new int[dims.length];
-        int[] newStrides = new int[dims.length];
+        long[] newStrides = new long[dims.length];
         for (int i = 0; i < dims.length; i++) {
             int d = dims[i];
             if (d < 0 || d >= shape.length || seen[d]) {
@@ -275,7 +484,11 @@ public class Tensor {
             newShape[i] = shape[d];
             newStrides[i] = strides[d];
         }
-        return new Tensor(this.data, newShape, newStrides);
+        Tensor out = new Tensor(storage, newShape, newStrides, offset);
+        if (!Autograd.tracks(this)) return out;
+        int[] inverse = new int[dims.length];
+        for (int i = 0; i < dims.length; i++) inverse[dims[i]] = i;
+        return record(out, g -> new Tensor[] {g.permute(inverse)}, this);
     }
 
     public Tensor T() {
@@ -285,150 +498,897 @@ public class Tensor {
         return permute(1, 0);
     }
 
+    // Slicing views: O(1), sharing storage with this tensor, so writes through either show in both
+
+    /** The sub-tensor at index along dim, with dim removed. */
+    public Tensor select(int dim, int index) {
+        checkDim(dim);
+        if (shape.length == 1) throw new IllegalArgumentException("select would leave no dims; use get or narrow");
+        if (index < 0 || index >= shape[dim]) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for dim " + dim + " with size " + shape[dim]);
+        }
+        int[] newShape = new int[shape.length - 1];
+        long[] newStrides = new long[shape.length - 1];
+        for (int i = 0, j = 0; i < shape.length; i++) {
+            if (i == dim) continue;
+            newShape[j] = shape[i];
+            newStrides[j++] = strides[i];
+        }
+        Tensor out = new Tensor(storage, newShape, newStrides, offset + index * strides[dim]);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {embed(g, t -> t.select(dim, index))}, this) : out;
+    }
+
+    /** length consecutive entries of dim, starting at start. */
+    public Tensor narrow(int dim, int start, int length) {
+        checkDim(dim);
+        if (start < 0 || length < 0 || start + length > shape[dim]) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + (start + length) + ") out of bounds for dim " + dim + " with size " + shape[dim]);
+        }
+        return slice(dim, start, start + length, 1);
+    }
+
+    /** Entries start, start + step, ... below end of dim; 0 <= start <= end <= size and step >= 1. */
+    public Tensor slice(int dim, int start, int end, int step) {
+        checkDim(dim);
+        if (step < 1) throw new IllegalArgumentException("step must be >= 1");
+        if (start < 0 || start > end || end > shape[dim]) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for dim " + dim + " with size " + shape[dim]);
+        }
+        int[] newShape = shape.clone();
+        long[] newStrides = strides.clone();
+        newShape[dim] = (end - start + step - 1) / step;
+        newStrides[dim] = strides[dim] * step;
+        Tensor out = new Tensor(storage, newShape, newStrides, offset + start * strides[dim]);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {embed(g, t -> t.slice(dim, start, end, step))}, this) : out;
+    }
+
+    public Tensor slice(int dim, int start, int end) { return slice(dim, start, end, 1); }
+
+    // The elements whose indices along dims a and b agree, as one dim at a (b removed); a view, used by einsum
+    Tensor diagonal(int a, int b) {
+        checkDim(a);
+        checkDim(b);
+        if (a >= b || shape[a] != shape[b]) throw new IllegalArgumentException("diagonal needs dims a < b of equal size");
+        int[] newShape = new int[shape.length - 1];
+        long[] newStrides = new long[shape.length - 1];
+        for (int d = 0, j = 0; d < shape.length; d++) {
+            if (d == b) continue;
+            newShape[j] = shape[d];
+            newStrides[j++] = d == a ? strides[a] + strides[b] : strides[d];
+        }
+        Tensor out = new Tensor(storage, newShape, newStrides, offset);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {embed(g, z -> z.diagonal(a, b))}, this) : out;
+    }
+
+    // gradient of a view: g written into the viewed region of zeros shaped like this tensor
+    private Tensor embed(Tensor g, UnaryOperator<Tensor> view) {
+        Tensor z = empty(g.dtype(), shape, g.isOffHeap());
+        view.apply(z).copyFrom(g);
+        return z;
+    }
+
+    private void checkDim(int dim) {
+        if (dim < 0 || dim >= shape.length) throw new IllegalArgumentException("Invalid dim " + dim + " for rank " + shape.length);
+    }
+
     // Unary ops
+    /** An arbitrary op has no known derivative: backpropagating through its result throws. */
     public Tensor map(DoubleUnaryOperator op) {
-        double[] out = new double[size];
-        int idx = 0;
-        IndexIterator it = new IndexIterator(shape);
-        while (it.hasNext()) {
-            int[] ix = it.next();
-            out[idx++] = op.applyAsDouble(get(ix));
-        }
-        return new Tensor(out, shape.clone());
+        Tensor out = apply(op);
+        return Autograd.tracks(this) ? record(out, g -> {
+            throw new IllegalStateException("map(op) is not differentiable; build the function from differentiable ops");
+        }, this) : out;
     }
 
-    public Tensor add(double scalar) { return map(a -> a + scalar); }
-    public Tensor sub(double scalar) { return map(a -> a - scalar); }
-    public Tensor mul(double scalar) { return map(a -> a * scalar); }
-    public Tensor div(double scalar) { return map(a -> a / scalar); }
+    public Tensor add(double scalar) { return unary(apply(a -> a + scalar), g -> g); }
+    public Tensor sub(double scalar) { return unary(apply(a -> a - scalar), g -> g); }
+    public Tensor mul(double scalar) { return unary(apply(a -> a * scalar), g -> g.mul(scalar)); }
+    public Tensor div(double scalar) { return unary(apply(a -> a / scalar), g -> g.div(scalar)); }
+
+    public Tensor exp() {
+        Tensor out = apply(Math::exp);
+        return unary(out, g -> g.mul(out));
+    }
+
+    public Tensor log() { return unary(apply(Math::log), g -> g.div(this)); }
+
+    public Tensor tanh() {
+        Tensor out = apply(TensorKernels.Unary.TANH);
+        return unary(out, g -> g.mul(out.mul(out).mul(-1.0).add(1.0)));
+    }
 
-    public Tensor exp() { return map(Math::exp); }
-    public Tensor log() { return map(Math::log); }
-    public Tensor tanh() { return map(Math::tanh); }
-    public Tensor relu() { return map(a -> a > 0 ? a : 0.0); }
-    public Tensor sigmoid() { return map(a -> 1.0 / (1.0 + Math.exp(-a))); }
+    public Tensor relu() { return unary(apply(TensorKernels.Unary.RELU), g -> g.mul(apply(a -> a > 0 ? 1.0 : 0.0))); }
+
+    public Tensor sigmoid() {
+        Tensor out = apply(TensorKernels.Unary.SIGMOID);
+        return unary(out, g -> g.mul(out).mul(out.mul(-1.0).add(1.0)));
+    }
+
+    /** exp(x) / sum(exp(x)) along dim, max-shifted and fused into two sweeps per row (see Softmax). */
+    public Tensor softmax(int dim) { return softmax(dim, false); }
+
+    /** log(softmax(x)) along dim, computed directly as x - logsumexp(x) rather than through the log. */
+    public Tensor logSoftmax(int dim) { return softmax(dim, true); }
+
+    private Tensor softmax(int dim, boolean log) {
+        checkDim(dim);
+        Tensor y = Softmax.forward(this, dim, log);
+        Tensor out = y.to(dtype());
+        if (!Autograd.tracks(this)) return out;
+        DType dtype = dtype();
+        return record(out, g -> new Tensor[] {Softmax.backward(g, y, dim, log).to(dtype)}, this);
+    }
+
+    private Tensor apply(DoubleUnaryOperator op) { return map(op, empty(dtype(), shape, isOffHeap())); }
+
+    // records out = f(this), with derivative dL/dthis = dx(dL/dout)
+    private Tensor unary(Tensor out, UnaryOperator<Tensor> dx) {
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {dx.apply(g)}, this) : out;
+    }
 
     // Elementwise binary ops with broadcasting
-    public Tensor add(Tensor other) { return elementwise(other, (a, b) -> a + b); }
-    public Tensor sub(Tensor other) { return elementwise(other, (a, b) -> a - b); }
-    public Tensor mul(Tensor other) { return elementwise(other, (a, b) -> a * b); }
-    public Tensor div(Tensor other) { return elementwise(other, (a, b) -> a / b); }
+    public Tensor add(Tensor other) {
+        return binary(other, elementwise(other, TensorKernels.Binary.ADD), g -> g, g -> g);
+    }
+
+    public Tensor sub(Tensor other) {
+        return binary(other, elementwise(other, TensorKernels.Binary.SUB), g -> g, g -> g.mul(-1.0));
+    }
+
+    public Tensor mul(Tensor other) {
+        return binary(other, elementwise(other, TensorKernels.Binary.MUL), g -> g.mul(other), g -> g.mul(this));
+    }
+
+    public Tensor div(Tensor other) {
+        return binary(other, elementwise(other, TensorKernels.Binary.DIV),
+            g -> g.div(other), g -> g.mul(this).div(other.mul(other)).mul(-1.0));
+    }
+
+    // records out = f(this, other); each partial gradient is summed back over the dims broadcasting added
+    private Tensor binary(Tensor other, Tensor out, UnaryOperator<Tensor> dThis, UnaryOperator<Tensor> dOther) {
+        if (!Autograd.tracks(this, other)) return out;
+        return record(out, g -> new Tensor[] {
+            requiresGrad ? Autograd.sumTo(dThis.apply(g), shape) : null,
+            other.requiresGrad ? Autograd.sumTo(dOther.apply(g), other.shape) : null
+        }, this, other);
+    }
+
+    // this * m + a in a single pass
+    public Tensor fma(Tensor m, Tensor a) {
+        if (Autograd.tracks(this, m, a)) return mul(m).add(a);
+        int[] outShape = broadcastShape(broadcastShape(shape, m.shape), a.shape);
+        DType dtype = DType.promote(DType.promote(dtype(), m.dtype()), a.dtype());
+        Tensor out = empty(dtype, outShape, isOffHeap() || m.isOffHeap() || a.isOffHeap());
+        Backends.current().fma(this, m, a, out);
+        return out;
+    }
+
+    // the built-in fma kernel, run by ParallelBackend: one fused pass when nothing broadcasts
+    void fmaKernel(Tensor m, Tensor a, Tensor out) {
+        if (data != null && m.data != null && a.data != null && out.data != null
+                && Arrays.equals(shape, out.shape) && Arrays.equals(m.shape, out.shape) && Arrays.equals(a.shape, out.shape)
+                && isContiguous() && m.isContiguous() && a.isContiguous() && out.isContiguous()) {
+            Simd.kernels().fma(data, (int) offset, m.data, (int) m.offset, a.data, (int) a.offset, out.data, (int) out.offset, (int) size);
+            return;
+        }
+        zipKernel(m, TensorKernels.Binary.MUL, out);
+        out.zipKernel(a, TensorKernels.Binary.ADD, out);
+    }
 
     private Tensor elementwise(Tensor other, DoubleBinaryOperator op) {
-        int[] outShape = broadcastShape(this.shape, other.shape);
-        double[] out = new double[product(outShape)];
+        DType dtype = DType.promote(dtype(), other.dtype());
+        return elementwise(other, op, empty(dtype, broadcastShape(this.shape, other.shape), isOffHeap() || other.isOffHeap()));
+    }
 
-        int[] aStridesForOut = broadcastStridesFor(this, outShape);
-        int[] bStridesForOut = broadcastStridesFor(other, outShape);
+    // Destination-buffer variants: write the result into out (any layout of the result shape) and return out.
+    // The op runs in out's dtype; operands of another dtype are converted first, and operands that overlap
+    // out through a different view are copied first.
+    public Tensor map(DoubleUnaryOperator op, Tensor out) {
+        checkOut(out, shape);
+        Backends.current().map(unaliased(this, out), op, out);
+        return out;
+    }
 
-        int idx = 0;
-        IndexIterator it = new IndexIterator(outShape);
-        while (it.hasNext()) {
-            int[] ix = it.next();
-            int offA = dot(ix, aStridesForOut);
-            int offB = dot(ix, bStridesForOut);
-            out[idx++] = op.applyAsDouble(this.data[offA], other.data[offB]);
+    // the built-in map kernel, run by ParallelBackend
+    void mapKernel(DoubleUnaryOperator op, Tensor out) {
+        Tensor src = to(out.dtype());
+        if (src.isOffHeap() || out.isOffHeap()) {
+            TensorKernels.map(shape, src.storage, src.offset, src.strides, out.storage, out.offset, out.strides, op);
+            return;
+        }
+        if (out.fdata != null) {
+            TensorKernels.map(shape, src.fdata, (int) src.offset, ints(src.strides), out.fdata, (int) out.offset, ints(out.strides), op);
+            return;
         }
-        return new Tensor(out, outShape);
+        if (src.isContiguous() && out.isContiguous()) {
+            int n = (int) size, si = (int) src.offset, oi = (int) out.offset;
+            if (op instanceof TensorKernels.Unary u) {
+                u.run(Simd.kernels(), src.data, si, out.data, oi, n);
+            } else {
+                for (int i = 0; i < n; i++) out.data[oi + i] = op.applyAsDouble(src.data[si + i]);
+            }
+        } else {
+            TensorKernels.map(shape, src.data, (int) src.offset, ints(src.strides), out.data, (int) out.offset, ints(out.strides), op);
+        }
+    }
+
+    public Tensor add(double scalar, Tensor out) { return map(a -> a + scalar, out); }
+    public Tensor sub(double scalar, Tensor out) { return map(a -> a - scalar, out); }
+    public Tensor mul(double scalar, Tensor out) { return map(a -> a * scalar, out); }
+    public Tensor div(double scalar, Tensor out) { return map(a -> a / scalar, out); }
+
+    public Tensor exp(Tensor out) { return map(Math::exp, out); }
+    public Tensor log(Tensor out) { return map(Math::log, out); }
+    public Tensor tanh(Tensor out) { return map(TensorKernels.Unary.TANH, out); }
+    public Tensor relu(Tensor out) { return map(TensorKernels.Unary.RELU, out); }
+    public Tensor sigmoid(Tensor out) { return map(TensorKernels.Unary.SIGMOID, out); }
+
+    public Tensor add(Tensor other, Tensor out) { return elementwise(other, TensorKernels.Binary.ADD, out); }
+    public Tensor sub(Tensor other, Tensor out) { return elementwise(other, TensorKernels.Binary.SUB, out); }
+    public Tensor mul(Tensor other, Tensor out) { return elementwise(other, TensorKernels.Binary.MUL, out); }
+    public Tensor div(Tensor other, Tensor out) { return elementwise(other, TensorKernels.Binary.DIV, out); }
+
+    private Tensor elementwise(Tensor other, DoubleBinaryOperator op, Tensor out) {
+        checkOut(out, broadcastShape(this.shape, other.shape));
+        Backends.current().zip(unaliased(this, out), unaliased(other, out), op, out);
+        return out;
     }
 
-    // Matrix multiplication (2D x 2D)
+    // the built-in broadcast kernel, run by ParallelBackend
+    void zipKernel(Tensor other, DoubleBinaryOperator op, Tensor out) {
+        int[] outShape = out.shape;
+        Tensor a = to(out.dtype());
+        Tensor b = other.to(out.dtype());
+        long[] aStridesForOut = broadcastStridesFor(a, outShape);
+        long[] bStridesForOut = broadcastStridesFor(b, outShape);
+        if (a.isOffHeap() || b.isOffHeap() || out.isOffHeap()) {
+            TensorKernels.zip(outShape, a.storage, a.offset, aStridesForOut, b.storage, b.offset, bStridesForOut, out.storage, out.offset, out.strides, op);
+            return;
+        }
+        if (out.fdata != null) {
+            TensorKernels.zip(outShape, a.fdata, (int) a.offset, ints(aStridesForOut), b.fdata, (int) b.offset, ints(bStridesForOut), out.fdata, (int) out.offset, ints(out.strides), op);
+            return;
+        }
+        if (Arrays.equals(a.shape, b.shape) && a.isContiguous() && b.isContiguous() && out.isContiguous()) {
+            // nothing to broadcast or walk: one flat loop and no index bookkeeping
+            int n = (int) out.size, ai = (int) a.offset, bi = (int) b.offset, oi = (int) out.offset;
+            if (op instanceof TensorKernels.Binary k) {
+                k.run(Simd.kernels(), a.data, ai, b.data, bi, out.data, oi, n);
+            } else {
+                for (int i = 0; i < n; i++) out.data[oi + i] = op.applyAsDouble(a.data[ai + i], b.data[bi + i]);
+            }
+            return;
+        }
+        TensorKernels.zip(outShape, a.data, (int) a.offset, ints(aStridesForOut), b.data, (int) b.offset, ints(bStridesForOut), out.data, (int) out.offset, ints(out.strides), op);
+    }
+
+    // In-place ops: mutate this tensor (or the view it is) and return it; other must broadcast to this shape
+    public Tensor addInPlace(Tensor other) { return elementwise(other, TensorKernels.Binary.ADD, this); }
+    public Tensor subInPlace(Tensor other) { return elementwise(other, TensorKernels.Binary.SUB, this); }
+    public Tensor mulInPlace(Tensor other) { return elementwise(other, TensorKernels.Binary.MUL, this); }
+    public Tensor divInPlace(Tensor other) { return elementwise(other, TensorKernels.Binary.DIV, this); }
+
+    public Tensor addInPlace(double scalar) { return map(a -> a + scalar, this); }
+    public Tensor subInPlace(double scalar) { return map(a -> a - scalar, this); }
+    public Tensor mulInPlace(double scalar) { return map(a -> a * scalar, this); }
+    public Tensor divInPlace(double scalar) { return map(a -> a / scalar, this); }
+
+    public Tensor mapInPlace(DoubleUnaryOperator op) { return map(op, this); }
+
+    // this += alpha * x
+    public Tensor axpy(double alpha, Tensor x) {
+        checkOut(this, broadcastShape(shape, x.shape));
+        Backends.current().axpy(alpha, unaliased(x, this), this);
+        return this;
+    }
+
+    // the built-in axpy kernel, run by ParallelBackend
+    void axpyKernel(double alpha, Tensor x) {
+        if (data != null && x.data != null && Arrays.equals(shape, x.shape) && isContiguous() && x.isContiguous()) {
+            Simd.kernels().axpy(alpha, x.data, (int) x.offset, data, (int) offset, (int) size);
+            return;
+        }
+        zipKernel(x, (a, b) -> a + alpha * b, this);
+    }
+
+    public Tensor fill(double value) {
+        Backends.current().fill(this, value);
+        return this;
+    }
+
+    // the built-in fill kernel, run by ParallelBackend
+    void fillKernel(double value) {
+        if (isContiguous() && data != null) {
+            Arrays.fill(data, (int) offset, (int) (offset + size), value);
+        } else if (isContiguous() && fdata != null) {
+            Arrays.fill(fdata, (int) offset, (int) (offset + size), (float) value);
+        } else {
+            mapKernel(a -> value, this);
+        }
+    }
+
+    public Tensor copyFrom(Tensor src) {
+        checkOut(this, broadcastShape(shape, src.shape));
+        src = unaliased(src, this);
+        copy(shape, src, src.offset, broadcastStridesFor(src, shape), this, strides);
+        return this;
+    }
+
+    // Matrix multiplication: 2D x 2D, or [..., m, k] x [..., k, n] with broadcast batch dims
     public Tensor matmul(Tensor other) {
-        if (this.ndim() != 2 || other.ndim() != 2) {
-            throw new IllegalArgumentException("matmul requires two 2D tensors");
+        Tensor out = matmul(other, null);
+        if (!Autograd.tracks(this, other)) return out;
+        return record(out, g -> new Tensor[] {
+            requiresGrad ? Autograd.sumTo(g.matmul(Autograd.mT(other)), shape) : null,
+            other.requiresGrad ? Autograd.sumTo(Autograd.mT(this).matmul(g), other.shape) : null
+        }, this, other);
+    }
+
+    /**
+     * matmul writing into out; out must have the result shape and must not share storage with either operand.
+     * FLOAT32 products are accumulated in double and rounded once when stored. Off-heap operands are staged
+     * through heap copies for the GEMM, so each of them must fit in a Java array.
+     */
+    public Tensor matmul(Tensor other, Tensor out) {
+        if (this.ndim() < 2 || other.ndim() < 2) {
+            throw new IllegalArgumentException("matmul requires tensors of rank >= 2");
         }
-        int m = this.shape[0];
-        int kA = this.shape[1];
-        int kB = other.shape[0];
-        int n = other.shape[1];
+        int ra = this.ndim(), rb = other.ndim();
+        int m = this.shape[ra - 2];
+        int kA = this.shape[ra - 1];
+        int kB = other.shape[rb - 2];
+        int n = other.shape[rb - 1];
         if (kA != kB) {
             throw new IllegalArgumentException("Inner dimensions must match for matmul");
         }
-        double[] out = new double[m * n];
-        for (int i = 0; i < m; i++) {
-            for (int j = 0; j < n; j++) {
-                double sum = 0.0;
-                for (int k = 0; k < kA; k++) {
-                    sum += this.get(i, k) * other.get(k, j);
-                }
-                out[i * n + j] = sum;
+        int[] batchShape = broadcastShape(Arrays.copyOf(this.shape, ra - 2), Arrays.copyOf(other.shape, rb - 2));
+        int[] outShape = Arrays.copyOf(batchShape, batchShape.length + 2);
+        outShape[batchShape.length] = m;
+        outShape[batchShape.length + 1] = n;
+        if (out == null) {
+            out = empty(DType.promote(dtype(), other.dtype()), outShape, isOffHeap() || other.isOffHeap());
+        } else {
+            checkOut(out, outShape);
+            if (sharesStorage(out, this) || sharesStorage(out, other)) {
+                throw new IllegalArgumentException("matmul out must not share storage with its operands");
             }
         }
-        return new Tensor(out, m, n);
+        Backends.current().matmul(this, other, out);
+        return out;
     }
 
+    // the built-in GEMM dispatch, run by ParallelBackend; shapes are already checked
+    void matmulKernel(Tensor other, Tensor out) {
+        int ra = this.ndim(), rb = other.ndim();
+        int m = this.shape[ra - 2];
+        int kA = this.shape[ra - 1];
+        int n = other.shape[rb - 1];
+        int[] outShape = out.shape;
+        int[] batchShape = Arrays.copyOf(outShape, outShape.length - 2);
+        Tensor a = to(out.dtype());
+        Tensor b = other.to(out.dtype());
+        if (a.isOffHeap() || b.isOffHeap() || out.isOffHeap()) {
+            Tensor c = out.isOffHeap() ? empty(out.dtype(), outShape) : out;
+            a.contiguousOn(false).matmulKernel(b.contiguousOn(false), c);
+            if (c != out) out.copyFrom(c);
+            return;
+        }
+        // float results go through a contiguous double accumulator
+        boolean narrow = out.fdata != null;
+        double[] c = narrow ? new double[(int) out.size] : out.data;
+        int[] cStrides = ints(narrow ? defaultStrides(outShape) : out.strides);
+        int[] as = ints(a.strides), bs = ints(b.strides);
+
+        int ro = outShape.length;
+        int aRs = as[ra - 2], aCs = as[ra - 1];
+        int bRs = bs[rb - 2], bCs = bs[rb - 1];
+        int cRs = cStrides[ro - 2], cCs = cStrides[ro - 1];
+        if (ra == 2 && rb == 2) {
+            if (narrow) {
+                Gemm.gemm(m, n, kA, a.fdata, (int) a.offset, aRs, aCs, b.fdata, (int) b.offset, bRs, bCs, c, 0, cRs, cCs);
+                TensorKernels.copy(outShape, c, 0, cStrides, out.fdata, (int) out.offset, ints(out.strides));
+            } else {
+                Gemm.gemm(m, n, kA, a.data, (int) a.offset, aRs, aCs, b.data, (int) b.offset, bRs, bCs, c, (int) out.offset, cRs, cCs);
+            }
+            return;
+        }
+
+        int batch = (int) product(batchShape);
+        int[] aBatchStrides = ints(broadcastStridesFor(Arrays.copyOf(a.shape, ra - 2), Arrays.copyOf(a.strides, ra - 2), batchShape));
+        int[] bBatchStrides = ints(broadcastStridesFor(Arrays.copyOf(b.shape, rb - 2), Arrays.copyOf(b.strides, rb - 2), batchShape));
+        int[] cBatchStrides = Arrays.copyOf(cStrides, ro - 2);
+
+        // per-entry offsets; broadcast batch dims have stride 0 so operands are never copied
+        int[] aOffs = new int[batch], bOffs = new int[batch], cOffs = new int[batch];
+        int[] idx = new int[batchShape.length];
+        int ao = (int) a.offset, bo = (int) b.offset, co = narrow ? 0 : (int) out.offset;
+        for (int i = 0; i < batch; i++) {
+            aOffs[i] = ao;
+            bOffs[i] = bo;
+            cOffs[i] = co;
+            for (int d = batchShape.length - 1; d >= 0; d--) {
+                ao += aBatchStrides[d]; bo += bBatchStrides[d]; co += cBatchStrides[d];
+                if (++idx[d] < batchShape[d]) break;
+                ao -= aBatchStrides[d] * batchShape[d]; bo -= bBatchStrides[d] * batchShape[d]; co -= cBatchStrides[d] * batchShape[d];
+                idx[d] = 0;
+            }
+        }
+        if (narrow) {
+            Gemm.batched(m, n, kA, a.fdata, aOffs, aRs, aCs, b.fdata, bOffs, bRs, bCs, c, cOffs, cRs, cCs);
+            TensorKernels.copy(outShape, c, 0, cStrides, out.fdata, (int) out.offset, ints(out.strides));
+        } else {
+            Gemm.batched(m, n, kA, a.data, aOffs, aRs, aCs, b.data, bOffs, bRs, bCs, c, cOffs, cRs, cCs);
+        }
+    }
+
+    /** this x a sparse 2D matrix, for a 2D this; the result is a dense FLOAT64 tensor. */
+    public Tensor matmul(SparseTensor other) { return other.leftMatmul(this); }
+
     public Tensor mm(Tensor other) { return matmul(other); }
 
+    // Convolution and pooling, lowered to GEMM (see Conv); stride, padding and dilation pairs are {h, w}
+
+    /** Convolves [N, C, H, W] with weight [O, C, KH, KW] plus an optional bias [O], giving [N, O, OH, OW]. */
+    public Tensor conv2d(Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation) {
+        return Conv.conv2d(this, weight, bias, stride, padding, dilation);
+    }
+
+    public Tensor conv2d(Tensor weight, Tensor bias, int stride, int padding) {
+        return conv2d(weight, bias, new int[] {stride, stride}, new int[] {padding, padding}, new int[] {1, 1});
+    }
+
+    public Tensor conv2d(Tensor weight) { return conv2d(weight, null, 1, 0); }
+
+    /** Convolves [N, C, L] with weight [O, C, K] plus an optional bias [O], giving [N, O, OL]. */
+    public Tensor conv1d(Tensor weight, Tensor bias, int stride, int padding, int dilation) {
+        if (ndim() != 3 || weight.ndim() != 3) {
+            throw new IllegalArgumentException("conv1d expects input [N, C, L] and weight [O, C, K]");
+        }
+        return unsqueeze(2)
+            .conv2d(weight.unsqueeze(2), bias, new int[] {1, stride}, new int[] {0, padding}, new int[] {1, dilation})
+            .squeeze(2);
+    }
+
+    public Tensor conv1d(Tensor weight) { return conv1d(weight, null, 1, 0, 1); }
+
+    public Tensor maxPool2d(int[] kernel, int[] stride, int[] padding, int[] dilation) {
+        return Conv.pool2d(this, true, kernel, stride, padding, dilation);
+    }
+
+    /** Non-overlapping kernel x kernel max pooling. */
+    public Tensor maxPool2d(int kernel) {
+        return maxPool2d(new int[] {kernel, kernel}, new int[] {kernel, kernel}, new int[] {0, 0}, new int[] {1, 1});
+    }
+
+    /** Average pooling; windows overlapping the padding still divide by the full window size. */
+    public Tensor avgPool2d(int[] kernel, int[] stride, int[] padding, int[] dilation) {
+        return Conv.pool2d(this, false, kernel, stride, padding, dilation);
+    }
+
+    public Tensor avgPool2d(int kernel) {
+        return avgPool2d(new int[] {kernel, kernel}, new int[] {kernel, kernel}, new int[] {0, 0}, new int[] {1, 1});
+    }
+
+    public Tensor maxPool1d(int kernel, int stride, int padding, int dilation) {
+        return pool1d(true, kernel, stride, padding, dilation);
+    }
+
+    public Tensor maxPool1d(int kernel) { return maxPool1d(kernel, kernel, 0, 1); }
+
+    public Tensor avgPool1d(int kernel, int stride, int padding, int dilation) {
+        return pool1d(false, kernel, stride, padding, dilation);
+    }
+
+    public Tensor avgPool1d(int kernel) { return avgPool1d(kernel, kernel, 0, 1); }
+
+    private Tensor pool1d(boolean max, int kernel, int stride, int padding, int dilation) {
+        if (ndim() != 3) throw new IllegalArgumentException("1D pooling expects input [N, C, L], got " + ndim() + "D");
+        return Conv.pool2d(unsqueeze(2), max, new int[] {1, kernel}, new int[] {1, stride}, new int[] {0, padding}, new int[] {1, dilation})
+            .squeeze(2);
+    }
+
     public double dot(Tensor other) {
         if (this.ndim() != 1 || other.ndim() != 1)
             throw new IllegalArgumentException("dot requires two 1D tensors");
         if (this.size != other.size)
             throw new IllegalArgumentException("Vectors must be the same length");
-        double s = 0.0;
-        for (int i = 0; i < size; i++) s += this.get(i) * other.get(i);
-        return s;
-    }
-
-    // Reductions
-    public double sum() {
-        double s = 0.0;
-        IndexIterator it = new IndexIterator(shape);
-        while (it.hasNext()) {
-            s += get(it.next());
+        int n = shape[0];
+        if (this.isOffHeap() || other.isOffHeap()) {
+            return TensorKernels.dot(n, this.storage, this.offset, this.strides[0], other.storage, other.offset, other.strides[0]);
         }
-        return s;
+        if (this.fdata != null && other.fdata != null) {
+            return TensorKernels.dot(n, this.fdata, (int) this.offset, (int) this.strides[0], other.fdata, (int) other.offset, (int) other.strides[0]);
+        }
+        Tensor a = to(DType.FLOAT64);
+        Tensor b = other.to(DType.FLOAT64);
+        return TensorKernels.dot(n, a.data, (int) a.offset, (int) a.strides[0], b.data, (int) b.offset, (int) b.strides[0]);
     }
 
-    public double mean() {
-        return size == 0 ? Double.NaN : sum() / size;
-        }
+    // Reductions: the built-in backend accumulates in double over a fixed tree of chunks (see Reductions),
+    // so results stay accurate over long dims and are identical however many threads compute them
+    public double sum() { return reduceAll(TensorBackend.Reduction.SUM); }
+    public double mean() { return reduceAll(TensorBackend.Reduction.MEAN); }
+    public double prod() { return reduceAll(TensorBackend.Reduction.PROD); }
+    public double max() { return reduceAll(TensorBackend.Reduction.MAX); }
+    public double min() { return reduceAll(TensorBackend.Reduction.MIN); }
+    public double logsumexp() { return reduceAll(TensorBackend.Reduction.LOGSUMEXP); }
+
+    /** Unbiased sample variance. */
+    public double var() { return reduceAll(TensorBackend.Reduction.VAR); }
+    public double std() { return reduceAll(TensorBackend.Reduction.STD); }
+
+    /** Row-major flat index of the largest element; the first one on ties, any NaN before everything else. */
+    public long argmax() { return (long) reduceAll(TensorBackend.Reduction.ARGMAX); }
+    public long argmin() { return (long) reduceAll(TensorBackend.Reduction.ARGMIN); }
 
     public Tensor sum(int dim) { return sum(dim, false); }
+    public Tensor sum(int dim, boolean keepdim) { return sum(new int[] {dim}, keepdim); }
 
-    public Tensor sum(int dim, boolean keepdim) {
-        return reduceAlongDim(dim, keepdim, Double::sum, 0.0);
+    public Tensor sum(int[] dims, boolean keepdim) {
+        Tensor out = reduce(dims, keepdim, TensorBackend.Reduction.SUM, dtype());
+        if (!Autograd.tracks(this)) return out;
+        int[] kept = reducedShape(dims, true);
+        return record(out, g -> new Tensor[] {Autograd.expandTo(g.reshape(kept), shape)}, this);
     }
 
+    /**
+     * sum writing into out, which must have the result shape and must not share storage with this tensor. The sum
+     * runs in out's dtype; an out that is not contiguous is filled through a temporary. Not recorded for autograd.
+     */
+    public Tensor sum(int[] dims, boolean keepdim, Tensor out) {
+        checkOut(out, reducedShape(dims, keepdim));
+        if (sharesStorage(out, this)) throw new IllegalArgumentException("sum out must not share storage with its input");
+        boolean[] reduced = reducedDims(dims);
+        if (out.isContiguous()) return reduce(reduced, TensorBackend.Reduction.SUM, out);
+        return out.copyFrom(reduce(reduced, TensorBackend.Reduction.SUM, empty(out.dtype(), out.shape, out.isOffHeap())));
+    }
+
+    /** Sum of every element as a single-element tensor, so it can be differentiated. */
+    public Tensor sumAll() {
+        Tensor out = full(sum(), dtype(), 1);
+        return Autograd.tracks(this) ? record(out, g -> new Tensor[] {Autograd.expandTo(g, shape)}, this) : out;
+    }
+
+    public Tensor meanAll() { return sumAll().div(size); }
+
     public Tensor mean(int dim) { return mean(dim, false); }
+    public Tensor mean(int dim, boolean keepdim) { return mean(new int[] {dim}, keepdim); }
+
+    public Tensor mean(int[] dims, boolean keepdim) {
+        Tensor s = sum(dims, keepdim);
+        long count = 1;
+        for (int d : dims) count *= shape[d];
+        return s.div(count);
+    }
+
+    public Tensor prod(int dim) { return prod(dim, false); }
+    public Tensor prod(int dim, boolean keepdim) { return prod(new int[] {dim}, keepdim); }
+    public Tensor prod(int[] dims, boolean keepdim) { return reduce(dims, keepdim, TensorBackend.Reduction.PROD, dtype()); }
+
+    public Tensor max(int dim) { return max(dim, false); }
+    public Tensor max(int dim, boolean keepdim) { return max(new int[] {dim}, keepdim); }
+    public Tensor max(int[] dims, boolean keepdim) { return reduce(dims, keepdim, TensorBackend.Reduction.MAX, dtype()); }
+
+    public Tensor min(int dim) { return min(dim, false); }
+    public Tensor min(int dim, boolean keepdim) { return min(new int[] {dim}, keepdim); }
+    public Tensor min(int[] dims, boolean keepdim) { return reduce(dims, keepdim, TensorBackend.Reduction.MIN, dtype()); }
+
+    public Tensor logsumexp(int dim) { return logsumexp(dim, false); }
+    public Tensor logsumexp(int dim, boolean keepdim) { return logsumexp(new int[] {dim}, keepdim); }
 
-    public Tensor mean(int dim, boolean keepdim) {
-        Tensor s = sum(dim, keepdim);
-        double denom = this.shape[dim];
-        return s.div(denom);
+    public Tensor logsumexp(int[] dims, boolean keepdim) {
+        Tensor out = reduce(dims, keepdim, TensorBackend.Reduction.LOGSUMEXP, dtype());
+        if (!Autograd.tracks(this)) return out;
+        // d logsumexp / dx = softmax(x) over the reduced dims
+        int[] kept = reducedShape(dims, true);
+        return record(out, g -> new Tensor[] {Autograd.expandTo(g.reshape(kept), shape).mul(sub(out.reshape(kept)).exp())}, this);
+    }
+
+    public Tensor var(int dim) { return var(dim, false); }
+    public Tensor var(int dim, boolean keepdim) { return var(new int[] {dim}, keepdim, true); }
+
+    /** Variance over dims, dividing by n - 1 when unbiased and by n otherwise. */
+    public Tensor var(int[] dims, boolean keepdim, boolean unbiased) {
+        return reduce(dims, keepdim, unbiased ? TensorBackend.Reduction.VAR : TensorBackend.Reduction.VAR_BIASED, dtype());
+    }
+
+    public Tensor std(int dim) { return std(dim, false); }
+    public Tensor std(int dim, boolean keepdim) { return std(new int[] {dim}, keepdim, true); }
+
+    public Tensor std(int[] dims, boolean keepdim, boolean unbiased) {
+        return reduce(dims, keepdim, unbiased ? TensorBackend.Reduction.STD : TensorBackend.Reduction.STD_BIASED, dtype());
+    }
+
+    /** Positions along dim as FLOAT64 values, whatever the dtype. */
+    public Tensor argmax(int dim) { return argmax(dim, false); }
+    public Tensor argmax(int dim, boolean keepdim) { return reduce(new int[] {dim}, keepdim, TensorBackend.Reduction.ARGMAX, DType.FLOAT64); }
+
+    public Tensor argmin(int dim) { return argmin(dim, false); }
+    public Tensor argmin(int dim, boolean keepdim) { return reduce(new int[] {dim}, keepdim, TensorBackend.Reduction.ARGMIN, DType.FLOAT64); }
+
+    // Ranking and indexing along a dim; positions are FLOAT64 like argmax's (see Indexing)
+
+    /** The k largest elements along dim, largest first, and their positions; O(n log k) per row. */
+    public Ranked topk(int k, int dim) { return topk(k, dim, true); }
+
+    /** The k largest, or with largest unset the k smallest, elements along dim, best first. */
+    public Ranked topk(int k, int dim, boolean largest) {
+        checkDim(dim);
+        if (k < 0 || k > shape[dim]) throw new IllegalArgumentException("topk k=" + k + " is outside [0, " + shape[dim] + "]");
+        Ranked best = Indexing.topk(this, k, dim, largest);
+        // the values were read alongside the positions; only autograd needs them to come from gather
+        Tensor values = Autograd.tracks(this) ? gather(dim, best.indices()) : best.values().to(dtype());
+        return new Ranked(values, best.indices());
+    }
+
+    /** Each row along dim sorted ascending, with the positions the values came from; stable, NaN last. */
+    public Ranked sort(int dim) { return sort(dim, false); }
+
+    public Ranked sort(int dim, boolean descending) {
+        Tensor indices = argsort(dim, descending);
+        return new Ranked(gather(dim, indices), indices);
+    }
+
+    public Tensor argsort(int dim) { return argsort(dim, false); }
+
+    public Tensor argsort(int dim, boolean descending) {
+        checkDim(dim);
+        return Indexing.argsort(this, dim, descending);
+    }
+
+    /**
+     * out[i][j] = this[index[i][j]][j] for dim 0 (and likewise for other dims and ranks): out has the shape
+     * of index, which must have this rank and be no larger than this along every other dim.
+     */
+    public Tensor gather(int dim, Tensor index) {
+        checkDim(dim);
+        Tensor out = Indexing.gather(this, dim, index).to(dtype());
+        if (!Autograd.tracks(this)) return out;
+        DType dtype = dtype();
+        return record(out, g -> new Tensor[] {Indexing.scatterAdd(zeros(shape), dim, index, g).to(dtype)}, this);
     }
 
-    private Tensor reduceAlongDim(int dim, boolean keepdim, DoubleBinaryOperator reducer, double identity) {
-        if (dim < 0 || dim >= shape.length) throw new IllegalArgumentException("Invalid reduction dim");
-        int[] outShape = keepdim ? shape.clone() : new int[shape.length - 1];
-        if (keepdim) outShape[dim] = 1; else {
-            for (int i = 0, j = 0; i < shape.length; i++) if (i != dim) outShape[j++] = shape[i];
+    /**
+     * A copy of this with src[i][j] added to element [index[i][j]][j] for dim 0 (and likewise for other dims
+     * and ranks); repeated positions accumulate. index must fit inside src, and inside this along other dims.
+     */
+    public Tensor scatterAdd(int dim, Tensor index, Tensor src) {
+        checkDim(dim);
+        Tensor out = Indexing.scatterAdd(this, dim, index, src).to(dtype());
+        if (!Autograd.tracks(this, src)) return out;
+        return record(out, g -> new Tensor[] {
+            requiresGrad ? g : null,
+            src.requiresGrad ? src.embed(g.gather(dim, index), t -> leading(t, index.shape)) : null
+        }, this, src);
+    }
+
+    // the view of t's first sizes[d] entries along every dim d
+    private static Tensor leading(Tensor t, int[] sizes) {
+        for (int d = 0; d < sizes.length; d++) t = t.narrow(d, 0, sizes[d]);
+        return t;
+    }
+
+    /** The slices at the positions of the 1D index along dim, in index order; positions may repeat. */
+    public Tensor indexSelect(int dim, Tensor index) {
+        checkDim(dim);
+        Tensor out = Indexing.indexSelect(this, dim, index).to(dtype());
+        if (!Autograd.tracks(this)) return out;
+        DType dtype = dtype();
+        return record(out, g -> new Tensor[] {Indexing.indexAdd(shape, dim, index, g).to(dtype)}, this);
+    }
+
+    private Tensor reduce(int[] dims, boolean keepdim, TensorBackend.Reduction op, DType dtype) {
+        return reduce(reducedDims(dims), op, empty(dtype, reducedShape(dims, keepdim), isOffHeap()));
+    }
+
+    private double reduceAll(TensorBackend.Reduction op) {
+        boolean[] reduced = new boolean[shape.length];
+        Arrays.fill(reduced, true);
+        return reduce(reduced, op, empty(DType.FLOAT64, new int[] {1})).item();
+    }
+
+    private Tensor reduce(boolean[] reduced, TensorBackend.Reduction op, Tensor out) {
+        if (out.size > 0 && !op.allowsEmpty()) {
+            for (int d = 0; d < shape.length; d++) {
+                if (reduced[d] && shape[d] == 0) throw new IllegalArgumentException("Cannot reduce over a dim of size 0 with " + op);
+            }
         }
-        int outSize = product(outShape);
-        double[] out = new double[outSize];
-        Arrays.fill(out, identity);
-        int[] outStrides = defaultStrides(outShape);
+        Backends.current().reduce(this, reduced, op, out);
+        return out;
+    }
 
-        IndexIterator it = new IndexIterator(shape);
-        while (it.hasNext()) {
-            int[] ix = it.next();
-            int[] outIx;
+    private boolean[] reducedDims(int[] dims) {
+        if (dims.length == 0) throw new IllegalArgumentException("At least one reduction dim is required");
+        boolean[] reduced = new boolean[shape.length];
+        for (int d : dims) {
+            if (d < 0 || d >= shape.length) throw new IllegalArgumentException("Invalid reduction dim " + d + " for rank " + shape.length);
+            if (reduced[d]) throw new IllegalArgumentException("Reduction dim " + d + " is repeated");
+            reduced[d] = true;
+        }
+        return reduced;
+    }
+
+    // reducing every dim without keepdim leaves shape [1]
+    private int[] reducedShape(int[] dims, boolean keepdim) {
+        boolean[] reduced = reducedDims(dims);
+        int kept = 0;
+        for (boolean r : reduced) if (!r) kept++;
+        int[] out = keepdim ? shape.clone() : new int[Math.max(kept, 1)];
+        if (!keepdim && kept == 0) {
+            out[0] = 1;
+            return out;
+        }
+        for (int d = 0, j = 0; d < shape.length; d++) {
             if (keepdim) {
-                outIx = ix.clone();
-                outIx[dim] = 0;
+                if (reduced[d]) out[d] = 1;
+            } else if (!reduced[d]) {
+                out[j++] = shape[d];
+            }
+        }
+        return out;
+    }
+
+    // Package hooks for LazyTensor's blocked evaluation: both walk a run of row-major positions of outShape
+
+    long[] broadcastStrides(int[] outShape) {
+        return broadcastStridesFor(this, outShape);
+    }
+
+    /** Reads n elements of this tensor, broadcast to outShape with strides bs, starting at flat position start. */
+    void gather(int[] outShape, long[] bs, long start, int n, double[] buf) {
+        Storage held = storage;
+        held.enter();
+        try {
+            gatherRun(outShape, bs, start, n, buf);
+        } finally {
+            held.exit();
+        }
+    }
+
+    private void gatherRun(int[] outShape, long[] bs, long start, int n, double[] buf) {
+        int r = outShape.length;
+        int[] idx = new int[r];
+        long off = offset;
+        long rem = start;
+        for (int d = r - 1; d >= 0; d--) {
+            idx[d] = (int) (rem % outShape[d]);
+            rem /= outShape[d];
+            off += idx[d] * bs[d];
+        }
+        int inner = outShape[r - 1];
+        long step = bs[r - 1];
+        for (int i = 0; i < n; ) {
+            int run = Math.min(n - i, inner - idx[r - 1]);
+            if (data != null && step == 1) {
+                System.arraycopy(data, (int) off, buf, i, run);
+            } else if (data != null && step == 0) {
+                Arrays.fill(buf, i, i + run, data[(int) off]);
+            } else if (data != null) {
+                for (int j = 0, o = (int) off; j < run; j++, o += (int) step) buf[i + j] = data[o];
+            } else if (fdata != null) {
+                for (int j = 0, o = (int) off; j < run; j++, o += (int) step) buf[i + j] = fdata[o];
             } else {
-                outIx = new int[outShape.length];
-                for (int i = 0, j = 0; i < ix.length; i++) if (i != dim) outIx[j++] = ix[i];
+                long o = off;
+                for (int j = 0; j < run; j++, o += step) buf[i + j] = storage.get(o);
+            }
+            i += run;
+            off += run * step;
+            idx[r - 1] += run;
+            if (idx[r - 1] < inner) continue;
+            off -= inner * step;
+            idx[r - 1] = 0;
+            for (int d = r - 2; d >= 0; d--) {
+                off += bs[d];
+                if (++idx[d] < outShape[d]) break;
+                off -= bs[d] * outShape[d];
+                idx[d] = 0;
             }
-            int offOut = dot(outIx, outStrides);
-            double cur = out[offOut];
-            double val = get(ix);
-            out[offOut] = reducer.applyAsDouble(cur, val);
         }
-        return new Tensor(out, outShape);
+    }
+
+    /** Writes n elements to the contiguous run starting at flat position start; this must be contiguous. */
+    void scatter(long start, int n, double[] buf) {
+        start += offset;
+        if (data != null) {
+            System.arraycopy(buf, 0, data, (int) start, n);
+        } else if (fdata != null) {
+            for (int i = 0; i < n; i++) fdata[(int) start + i] = (float) buf[i];
+        } else {
+            Storage held = storage;
+            held.enter();
+            try {
+                for (int i = 0; i < n; i++) held.set(start + i, buf[i]);
+            } finally {
+                held.exit();
+            }
+        }
+    }
+
+    // Package hooks for the binary tensor format in Tensors
+    Storage storage() { return storage; }
+
+    // cuts this tensor off from a buffer its TensorScope is taking back, so later use throws instead of reading the next owner's data
+    void release() {
+        storage = new Storage.Released(storage.dtype(), storage.length());
+        data = null;
+        fdata = null;
+    }
+
+    long offset() { return offset; }
+
+    static Tensor onStorage(Storage storage, int[] shape, long[] strides) {
+        validateShape(shape);
+        if (strides.length != shape.length) throw new IllegalArgumentException("strides rank must match shape rank");
+        long last = 0;
+        for (int d = 0; d < shape.length; d++) {
+            if (strides[d] < 0) throw new IllegalArgumentException("strides must be >= 0");
+            if (shape[d] > 0) last += (shape[d] - 1) * strides[d];
+        }
+        if (product(shape) > 0 && last >= storage.length()) {
+            throw new IllegalArgumentException("Layout reaches element " + last + " of a storage of " + storage.length());
+        }
+        return new Tensor(storage, shape.clone(), strides.clone());
     }
 
     // Utilities
-    private static void validateShape(int[] shape) {
+    // fresh contiguous, zero-filled result of the given shape
+    private static Tensor empty(DType dtype, int[] shape) {
+        return empty(dtype, shape, false);
+    }
+
+    static Tensor empty(DType dtype, int[] shape, boolean offHeap) {
+        int[] s = shape.clone();
+        long n = product(s);
+        return new Tensor(TensorScope.allocate(dtype, n, offHeap), s, defaultStrides(s));
+    }
+
+    private Tensor contiguousOn(boolean offHeap) {
+        Tensor out = empty(dtype(), shape, offHeap);
+        copy(shape, this, offset, strides, out, out.strides);
+        return out;
+    }
+
+    // strided copy between any two dtypes and placements
+    private static void copy(int[] shape, Tensor src, long srcOff, long[] srcStrides, Tensor dst, long[] dstStrides) {
+        if (src.isOffHeap() || dst.isOffHeap()) {
+            TensorKernels.copy(shape, src.storage, srcOff, srcStrides, dst.storage, dst.offset, dstStrides);
+            return;
+        }
+        int so = (int) srcOff, dof = (int) dst.offset;
+        int[] ss = ints(srcStrides), ds = ints(dstStrides);
+        if (src.data != null && dst.data != null) TensorKernels.copy(shape, src.data, so, ss, dst.data, dof, ds);
+        else if (src.fdata != null && dst.fdata != null) TensorKernels.copy(shape, src.fdata, so, ss, dst.fdata, dof, ds);
+        else if (src.data != null) TensorKernels.copy(shape, src.data, so, ss, dst.fdata, dof, ds);
+        else TensorKernels.copy(shape, src.fdata, so, ss, dst.data, dof, ds);
+    }
+
+    // heap arrays are int-indexed, so heap strides always narrow losslessly for the array kernels
+    private static int[] ints(long[] strides) {
+        int[] out = new int[strides.length];
+        for (int i = 0; i < strides.length; i++) out[i] = Math.toIntExact(strides[i]);
+        return out;
+    }
+
+    private static void checkOut(Tensor out, int[] expected) {
+        if (!Arrays.equals(out.shape, expected)) {
+            throw new IllegalArgumentException("out has shape " + Arrays.toString(out.shape) + ", expected " + Arrays.toString(expected));
+        }
+    }
+
+    // whether a and b can touch the same memory, whatever their views of it
+    private static boolean sharesStorage(Tensor a, Tensor b) {
+        return a.storage == b.storage || a.data != null && a.data == b.data || a.fdata != null && a.fdata == b.fdata;
+    }
+
+    // src, or a contiguous copy of it when it shares memory with out through any other view; a kernel
+    // writing out element by element would otherwise overwrite elements of src before reading them
+    private static Tensor unaliased(Tensor src, Tensor out) {
+        if (!sharesStorage(src, out)) return src;
+        if (src.offset == out.offset && Arrays.equals(src.shape, out.shape) && Arrays.equals(src.strides, out.strides)) return src;
+        return src.contiguousOn(src.isOffHeap());
+    }
+
+    static void validateShape(int[] shape) {
         if (shape == null || shape.length == 0) {
             throw new IllegalArgumentException("Shape must be non-empty");
         }
@@ -437,16 +1397,16 @@ public class Tensor {
         }
     }
 
-    private static int product(int[] dims) {
-        int p = 1;
+    private static long product(int[] dims) {
+        long p = 1;
         for (int d : dims) p *= d;
         return p;
     }
 
-    private static int[] defaultStrides(int[] shape) {
+    private static long[] defaultStrides(int[] shape) {
         int r = shape.length;
-        int[] s = new int[r];
-        int stride = 1;
+        long[] s = new long[r];
+        long stride = 1;
         for (int i = r - 1; i >= 0; i--) {
             s[i] = stride;
             stride *= shape[i];
@@ -454,7 +1414,7 @@ public class Tensor {
         return s;
     }
 
-    private static int[] broadcastShape(int[] a, int[] b) {
+    static int[] broadcastShape(int[] a, int[] b) {
         int ra = a.length;
         int rb = b.length;
         int r = Math.max(ra, rb);
@@ -465,64 +1425,61 @@ public class Tensor {
             if (ad != bd && ad != 1 && bd != 1) {
                 throw new IllegalArgumentException("Shapes are not broadcastable: " + Arrays.toString(a) + " vs " + Arrays.toString(b));
             }
-            out[i] = Math.max(ad, bd);
+            out[i] = ad == 1 ? bd : ad;
         }
         return out;
     }
 
-    private static int[] broadcastStridesFor(Tensor t, int[] outShape) {
-        int rt = t.shape.length;
+    private static long[] broadcastStridesFor(Tensor t, int[] outShape) {
+        return broadcastStridesFor(t.shape, t.strides, outShape);
+    }
+
+    private static long[] broadcastStridesFor(int[] shape, long[] strides, int[] outShape) {
+        int rt = shape.length;
         int ro = outShape.length;
-        int[] outStrides = new int[ro];
+        long[] outStrides = new long[ro];
         for (int i = 0; i < ro; i++) {
-            int td = (i < ro - rt) ? 1 : t.shape[i - (ro - rt)];
-            int stride = (i < ro - rt) ? 0 : t.strides[i - (ro - rt)];
+            int td = (i < ro - rt) ? 1 : shape[i - (ro - rt)];
+            long stride = (i < ro - rt) ? 0 : strides[i - (ro - rt)];
             outStrides[i] = (td == 1 && outShape[i] > 1) ? 0 : stride;
         }
         return outStrides;
     }
 
-    private static int dot(int[] a, int[] b) {
-        int s = 0;
-        for (int i = 0; i < a.length; i++) s += a[i] * b[i];
-        return s;
-    }
-
     private double[] toContiguousArray() {
-        if (isContiguous()) {
-            return data.clone();
-        }
-        double[] out = new double[size];
-        int idx = 0;
-        IndexIterator it = new IndexIterator(shape);
-        while (it.hasNext()) {
-            out[idx++] = get(it.next());
+        if (data != null && isContiguous()) {
+            return Arrays.copyOfRange(data, (int) offset, (int) (offset + size));
         }
-        return out;
+        Tensor out = empty(DType.FLOAT64, shape);
+        copy(shape, this, offset, strides, out, out.strides);
+        return out.data;
     }
 
-    private boolean isContiguous() {
-        return Arrays.equals(strides, defaultStrides(shape));
+    // row-major dense; strides of size-1 dims are irrelevant
+    boolean isContiguous() {
+        long expected = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            if (shape[d] != 1 && strides[d] != expected) return false;
+            expected *= shape[d];
+        }
+        return true;
     }
 
     public double item() {
         if (size != 1) throw new IllegalStateException("item() only valid for a single-element tensor");
-        return toContiguousArray()[0];
+        return storage.get(offset);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Tensor(shape=").append(Arrays.toString(shape)).append(", data=");
-        int limit = Math.min(size, 32);
+        int limit = (int) Math.min(size, 32);
         sb.append("[");
         if (limit > 0) {
-            int shown = 0;
-            IndexIterator it = new IndexIterator(shape);
-            while (it.hasNext() && shown < limit) {
+            for (int shown = 0; shown < limit; shown++) {
                 if (shown > 0) sb.append(", ");
-                sb.append(get(it.next()));
-                shown++;
+                sb.append(storage.get(offsetOfFlat(shown)));
             }
             if (limit < size) sb.append(", ...");
         }
@@ -553,45 +1510,17 @@ public class Tensor {
         sb.append("]");
     }
 
-    // Simple N-D index iterator over a given shape
-    private static final class IndexIterator {
-        private final int[] shape;
-        private final int[] index;
-        private boolean hasNext;
-
-        IndexIterator(int[] shape) {
-            this.shape = shape.clone();
-            this.index = new int[shape.length];
-            this.hasNext = product(shape) > 0;
-            if (!hasNext) {
-                // nothing to iterate
-            }
-        }
-
-        boolean hasNext() {
-            return hasNext;
-        }
-
-        int[] next() {
-            if (!hasNext) {
-                throw new IllegalStateException("Iterator exhausted");
-            }
-            int[] out = index.clone();
-            // advance
-            for (int d = shape.length - 1; d >= 0; d--) {
-                index[d]++;
-                if (index[d] < shape[d]) {
-                    break;
-                } else {
-                    index[d] = 0;
-                    if (d == 0) hasNext = false;
-                }
-            }
-            return out;
+    // Storage offset of the element at a row-major flat position
+    private long offsetOfFlat(long flat) {
+        long off = offset;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            off += (flat % shape[d]) * strides[d];
+            flat /= shape[d];
         }
+        return off;
     }
 
     public List<?> toList() {
         return Arrays.asList(this.toArray());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package com.github.lambdv.primitives;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * Compute engine behind the heavy {@link Tensor} ops: elementwise maps and broadcasts, fills, axpy
+ * and fma, reductions, matmul, conv2d and random fills.
+ *
+ * {@link Tensor} validates arguments, allocates results and records autograd, then hands the
+ * kernel itself to {@link Backends#current()}. A backend therefore only ever sees operands that
+ * already fit together, and writes into a given out tensor instead of allocating its own. Every
+ * input may be any strided view, heap or off-heap, FLOAT64 or FLOAT32, unless a method says
+ * otherwise. Backends must not call back into the Tensor ops listed here, which would dispatch to
+ * the current backend again; reading and writing single elements is fine.
+ *
+ * The interface is sealed to {@link ReferenceBackend} and {@link ParallelBackend}: a fast backend
+ * needs the package-private storage and kernel hooks of Tensor, so only this package can write one.
+ */
+public sealed interface TensorBackend permits ReferenceBackend, ParallelBackend {
+    /** Unique name, used by {@link Backends#use} and {@code -Dsongbird.backend}. */
+    String name();
+
+    /** Without an explicit choice the available backend with the highest priority is used. */
+    default int priority() { return 0; }
+
+    /** Reductions over a set of dims, see {@link Tensor#sum(int[], boolean)} and friends. */
+    enum Reduction {
+        SUM, MEAN, PROD, MAX, MIN, ARGMAX, ARGMIN, LOGSUMEXP,
+        // VAR and STD divide by n - 1, the *_BIASED ones by n
+        VAR, STD, VAR_BIASED, STD_BIASED;
+
+        /** whether a reduction over zero elements is defined */
+        public boolean allowsEmpty() {
+            return this != MAX && this != MIN && this != ARGMAX && this != ARGMIN;
+        }
+    }
+
+    /** out[i] = op(a[i]); a and out have the same shape and out may be a itself. */
+    void map(Tensor a, DoubleUnaryOperator op, Tensor out);
+
+    /** out[i] = op(a[i], b[i]) with a and b broadcast to out's shape; out may be a itself. */
+    void zip(Tensor a, Tensor b, DoubleBinaryOperator op, Tensor out);
+
+    /** out[i] = value. The default maps every element to value. */
+    default void fill(Tensor out, double value) {
+        map(out, a -> value, out);
+    }
+
+    /** y[i] += alpha * x[i] with x broadcast to y's shape. The default is a zip into y. */
+    default void axpy(double alpha, Tensor x, Tensor y) {
+        zip(y, x, (a, b) -> a + alpha * b, y);
+    }
+
+    /**
+     * out[i] = a[i] * m[i] + c[i] with all three broadcast to out, a fresh contiguous tensor. The
+     * default multiplies into out and then adds c, rounding twice where a fused kernel rounds once.
+     */
+    default void fma(Tensor a, Tensor m, Tensor c, Tensor out) {
+        zip(a, m, (x, y) -> x * y, out);
+        zip(out, c, (x, y) -> x + y, out);
+    }
+
+    /**
+     * Reduces a over the dims flagged in reduced into out, a fresh contiguous tensor holding one
+     * element per kept position in row-major order. ARGMAX and ARGMIN yield the row-major index
+     * within the reduced dims; NaN beats every number and ties keep the first occurrence.
+     */
+    void reduce(Tensor a, boolean[] reduced, Reduction op, Tensor out);
+
+    /**
+     * out = a x b for a [..., m, k] and b [..., k, n] with broadcast batch dims. out has the result
+     * shape and shares storage with neither operand.
+     */
+    void matmul(Tensor a, Tensor b, Tensor out);
+
+    /**
+     * Convolution of x [N, C, H, W] with weight [O, C, KH, KW] and an optional bias [O]; stride,
+     * padding and dilation are {h, w} pairs. out is a fresh contiguous FLOAT64 [N, O, OH, OW].
+     */
+    void conv2d(Tensor x, Tensor weight, Tensor bias, int[] stride, int[] padding, int[] dilation, Tensor out);
+
+    /**
+     * Writes f(i) into the i-th element of out, a fresh contiguous tensor. f is pure, so the
+     * elements may be computed in any order and on any thread.
+     */
+    void generate(Tensor out, LongToDoubleFunction f);
+}
@@ -0,0 +1,352 @@
+package com.github.lambdv.primitives;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Flat primitive loops behind the elementwise ops of {@link Tensor}.
+ *
+ * Every kernel takes a logical shape plus (array, offset, strides) for each operand.
+ * Before looping, the operands are coalesced: size-1 dims are dropped and adjacent dims
+ * that are contiguous for every operand are merged. A contiguous same-shape op therefore
+ * collapses to a single flat loop, while scalar, row and column broadcasts end up as an
+ * inner run with a zero stride on one side. Whatever remains is walked by an odometer that
+ * increments offsets by strides and hands each innermost run to a loop body, so no kernel
+ * allocates per element.
+ */
+final class TensorKernels {
+    private TensorKernels() {}
+
+    // Binary ops with a dedicated SIMD loop for unit-stride runs
+    enum Binary implements DoubleBinaryOperator {
+        ADD { public double applyAsDouble(double a, double b) { return a + b; } },
+        SUB { public double applyAsDouble(double a, double b) { return a - b; } },
+        MUL { public double applyAsDouble(double a, double b) { return a * b; } },
+        DIV { public double applyAsDouble(double a, double b) { return a / b; } };
+
+        void run(ArrayKernels kx, double[] a, int ai, double[] b, int bi, double[] out, int oi, int n) {
+            switch (this) {
+                case ADD -> kx.add(a, ai, b, bi, out, oi, n);
+                case SUB -> kx.sub(a, ai, b, bi, out, oi, n);
+                case MUL -> kx.mul(a, ai, b, bi, out, oi, n);
+                case DIV -> kx.div(a, ai, b, bi, out, oi, n);
+            }
+        }
+
+        // float arithmetic is exactly rounded here, and these loops are simple enough for the JIT to vectorize
+        void run(float[] a, int ai, float[] b, int bi, float[] out, int oi, int n) {
+            switch (this) {
+                case ADD -> { for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] + b[bi + i]; }
+                case SUB -> { for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] - b[bi + i]; }
+                case MUL -> { for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] * b[bi + i]; }
+                case DIV -> { for (int i = 0; i < n; i++) out[oi + i] = a[ai + i] / b[bi + i]; }
+            }
+        }
+    }
+
+    // Unary ops with a dedicated SIMD loop for unit-stride runs
+    enum Unary implements DoubleUnaryOperator {
+        RELU { public double applyAsDouble(double a) { return a > 0 ? a : 0.0; } },
+        SIGMOID { public double applyAsDouble(double a) { return 1.0 / (1.0 + Math.exp(-a)); } },
+        TANH { public double applyAsDouble(double a) { return Math.tanh(a); } };
+
+        void run(ArrayKernels kx, double[] a, int ai, double[] out, int oi, int n) {
+            switch (this) {
+                case RELU -> kx.relu(a, ai, out, oi, n);
+                case SIGMOID -> kx.sigmoid(a, ai, out, oi, n);
+                case TANH -> kx.tanh(a, ai, out, oi, n);
+            }
+        }
+    }
+
+    // Innermost-run bodies: n elements starting at each operand's offset, advancing by its step
+    @FunctionalInterface
+    interface Run1 { void run(int n, int a, int as); }
+
+    @FunctionalInterface
+    interface Run2 { void run(int n, int a, int as, int b, int bs); }
+
+    @FunctionalInterface
+    interface Run3 { void run(int n, int a, int as, int b, int bs, int c, int cs); }
+
+    static void walk(int[] shape, int aOff, int[] aStrides, Run1 body) {
+        if (isEmpty(shape)) return;
+        int[][] l = coalesce(shape, aStrides);
+        int[] s = l[0], as = l[1];
+        int r = s.length;
+        int n = s[r - 1], aStep = as[r - 1];
+        int[] idx = new int[r];
+        int ai = aOff;
+        while (true) {
+            body.run(n, ai, aStep);
+            int d = r - 2;
+            for (; d >= 0; d--) {
+                ai += as[d];
+                if (++idx[d] < s[d]) break;
+                ai -= as[d] * s[d];
+                idx[d] = 0;
+            }
+            if (d < 0) return;
+        }
+    }
+
+    static void walk(int[] shape, int aOff, int[] aStrides, int bOff, int[] bStrides, Run2 body) {
+        if (isEmpty(shape)) return;
+        int[][] l = coalesce(shape, aStrides, bStrides);
+        int[] s = l[0], as = l[1], bs = l[2];
+        int r = s.length;
+        int n = s[r - 1], aStep = as[r - 1], bStep = bs[r - 1];
+        int[] idx = new int[r];
+        int ai = aOff, bi = bOff;
+        while (true) {
+            body.run(n, ai, aStep, bi, bStep);
+            int d = r - 2;
+            for (; d >= 0; d--) {
+                ai += as[d]; bi += bs[d];
+                if (++idx[d] < s[d]) break;
+                ai -= as[d] * s[d]; bi -= bs[d] * s[d];
+                idx[d] = 0;
+            }
+            if (d < 0) return;
+        }
+    }
+
+    static void walk(int[] shape, int aOff, int[] aStrides, int bOff, int[] bStrides, int cOff, int[] cStrides, Run3 body) {
+        if (isEmpty(shape)) return;
+        int[][] l = coalesce(shape, aStrides, bStrides, cStrides);
+        int[] s = l[0], as = l[1], bs = l[2], cs = l[3];
+        int r = s.length;
+        int n = s[r - 1], aStep = as[r - 1], bStep = bs[r - 1], cStep = cs[r - 1];
+        int[] idx = new int[r];
+        int ai = aOff, bi = bOff, ci = cOff;
+        while (true) {
+            body.run(n, ai, aStep, bi, bStep, ci, cStep);
+            int d = r - 2;
+            for (; d >= 0; d--) {
+                ai += as[d]; bi += bs[d]; ci += cs[d];
+                if (++idx[d] < s[d]) break;
+                ai -= as[d] * s[d]; bi -= bs[d] * s[d]; ci -= cs[d] * s[d];
+                idx[d] = 0;
+            }
+            if (d < 0) return;
+        }
+    }
+
+    // Unary: dst = op(src)
+    static void map(int[] shape, double[] src, int srcOff, int[] srcStrides,
+                    double[] dst, int dstOff, int[] dstStrides, DoubleUnaryOperator op) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            if (ss == 1 && ds == 1) {
+                if (op instanceof Unary u) {
+                    u.run(Simd.kernels(), src, si, dst, di, n);
+                    return;
+                }
+                for (int i = 0; i < n; i++) dst[di + i] = op.applyAsDouble(src[si + i]);
+            } else if (ss == 0 && ds == 1) {
+                double v = op.applyAsDouble(src[si]);
+                for (int i = 0; i < n; i++) dst[di + i] = v;
+            } else {
+                for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = op.applyAsDouble(src[si]);
+            }
+        });
+    }
+
+    static void map(int[] shape, float[] src, int srcOff, int[] srcStrides,
+                    float[] dst, int dstOff, int[] dstStrides, DoubleUnaryOperator op) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            if (ss == 1 && ds == 1) {
+                for (int i = 0; i < n; i++) dst[di + i] = (float) op.applyAsDouble(src[si + i]);
+            } else {
+                for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = (float) op.applyAsDouble(src[si]);
+            }
+        });
+    }
+
+    // Binary: dst = op(a, b), with broadcasting expressed as zero strides
+    static void zip(int[] shape, double[] a, int aOff, int[] aStrides, double[] b, int bOff, int[] bStrides,
+                    double[] dst, int dstOff, int[] dstStrides, DoubleBinaryOperator op) {
+        walk(shape, aOff, aStrides, bOff, bStrides, dstOff, dstStrides, (n, ai, as, bi, bs, di, ds) -> {
+            if (as == 1 && bs == 1 && ds == 1) {
+                // same shape / row broadcast
+                if (op instanceof Binary k) {
+                    k.run(Simd.kernels(), a, ai, b, bi, dst, di, n);
+                    return;
+                }
+                for (int i = 0; i < n; i++) dst[di + i] = op.applyAsDouble(a[ai + i], b[bi + i]);
+            } else if (as == 1 && bs == 0 && ds == 1) {
+                // scalar / column broadcast of b
+                double bv = b[bi];
+                for (int i = 0; i < n; i++) dst[di + i] = op.applyAsDouble(a[ai + i], bv);
+            } else if (as == 0 && bs == 1 && ds == 1) {
+                double av = a[ai];
+                for (int i = 0; i < n; i++) dst[di + i] = op.applyAsDouble(av, b[bi + i]);
+            } else {
+                for (int i = 0; i < n; i++, ai += as, bi += bs, di += ds) dst[di] = op.applyAsDouble(a[ai], b[bi]);
+            }
+        });
+    }
+
+    static void zip(int[] shape, float[] a, int aOff, int[] aStrides, float[] b, int bOff, int[] bStrides,
+                    float[] dst, int dstOff, int[] dstStrides, DoubleBinaryOperator op) {
+        walk(shape, aOff, aStrides, bOff, bStrides, dstOff, dstStrides, (n, ai, as, bi, bs, di, ds) -> {
+            if (as == 1 && bs == 1 && ds == 1) {
+                if (op instanceof Binary k) {
+                    k.run(a, ai, b, bi, dst, di, n);
+                    return;
+                }
+                for (int i = 0; i < n; i++) dst[di + i] = (float) op.applyAsDouble(a[ai + i], b[bi + i]);
+            } else if (as == 1 && bs == 0 && ds == 1) {
+                double bv = b[bi];
+                for (int i = 0; i < n; i++) dst[di + i] = (float) op.applyAsDouble(a[ai + i], bv);
+            } else {
+                for (int i = 0; i < n; i++, ai += as, bi += bs, di += ds) dst[di] = (float) op.applyAsDouble(a[ai], b[bi]);
+            }
+        });
+    }
+
+    // Copy one strided layout into another, converting between element types where needed
+    static void copy(int[] shape, double[] src, int srcOff, int[] srcStrides, double[] dst, int dstOff, int[] dstStrides) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            if (ss == 1 && ds == 1) {
+                System.arraycopy(src, si, dst, di, n);
+            } else {
+                for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = src[si];
+            }
+        });
+    }
+
+    static void copy(int[] shape, float[] src, int srcOff, int[] srcStrides, float[] dst, int dstOff, int[] dstStrides) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            if (ss == 1 && ds == 1) {
+                System.arraycopy(src, si, dst, di, n);
+            } else {
+                for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = src[si];
+            }
+        });
+    }
+
+    static void copy(int[] shape, double[] src, int srcOff, int[] srcStrides, float[] dst, int dstOff, int[] dstStrides) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = (float) src[si];
+        });
+    }
+
+    static void copy(int[] shape, float[] src, int srcOff, int[] srcStrides, double[] dst, int dstOff, int[] dstStrides) {
+        walk(shape, srcOff, srcStrides, dstOff, dstStrides, (n, si, ss, di, ds) -> {
+            for (int i = 0; i < n; i++, si += ss, di += ds) dst[di] = src[si];
+        });
+    }
+
+    static double dot(int n, double[] a, int aOff, int aStride, double[] b, int bOff, int bStride) {
+        if (aStride == 1 && bStride == 1) return Simd.kernels().dot(a, aOff, b, bOff, n);
+        double s = 0.0;
+        for (int i = 0, x = aOff, y = bOff; i < n; i++, x += aStride, y += bStride) s += a[x] * b[y];
+        return s;
+    }
+
+    static double dot(int n, float[] a, int aOff, int aStride, float[] b, int bOff, int bStride) {
+        double s = 0.0;
+        for (int i = 0, x = aOff, y = bOff; i < n; i++, x += aStride, y += bStride) s += (double) a[x] * b[y];
+        return s;
+    }
+
+    // Storage-generic loops for tensors whose storage has no heap array (off-heap, mapped).
+    // Offsets and strides are longs; elements go through Storage.get/set, converting dtypes on the way.
+
+    // Innermost-run body: n elements starting at offs[i], advancing by steps[i], for each operand i
+    @FunctionalInterface
+    interface LongRun { void run(int n, long[] offs, long[] steps); }
+
+    static void walk(int[] shape, long[] offs, long[][] strides, LongRun body) {
+        if (isEmpty(shape)) return;
+        int r = shape.length, ops = offs.length;
+        long[] o = offs.clone();
+        long[] cur = new long[ops];
+        long[] steps = new long[ops];
+        for (int i = 0; i < ops; i++) steps[i] = strides[i][r - 1];
+        int[] idx = new int[r];
+        while (true) {
+            System.arraycopy(o, 0, cur, 0, ops);
+            body.run(shape[r - 1], cur, steps);
+            int d = r - 2;
+            for (; d >= 0; d--) {
+                for (int i = 0; i < ops; i++) o[i] += strides[i][d];
+                if (++idx[d] < shape[d]) break;
+                for (int i = 0; i < ops; i++) o[i] -= strides[i][d] * shape[d];
+                idx[d] = 0;
+            }
+            if (d < 0) return;
+        }
+    }
+
+    static void map(int[] shape, Storage src, long srcOff, long[] srcStrides,
+                    Storage dst, long dstOff, long[] dstStrides, DoubleUnaryOperator op) {
+        Storage.guarded(() -> walk(shape, new long[]{srcOff, dstOff}, new long[][]{srcStrides, dstStrides}, (n, o, st) -> {
+            long si = o[0], di = o[1];
+            for (int i = 0; i < n; i++, si += st[0], di += st[1]) dst.set(di, op.applyAsDouble(src.get(si)));
+        }), src, dst);
+    }
+
+    static void zip(int[] shape, Storage a, long aOff, long[] aStrides, Storage b, long bOff, long[] bStrides,
+                    Storage dst, long dstOff, long[] dstStrides, DoubleBinaryOperator op) {
+        Storage.guarded(() -> walk(shape, new long[]{aOff, bOff, dstOff}, new long[][]{aStrides, bStrides, dstStrides}, (n, o, st) -> {
+            long ai = o[0], bi = o[1], di = o[2];
+            for (int i = 0; i < n; i++, ai += st[0], bi += st[1], di += st[2]) dst.set(di, op.applyAsDouble(a.get(ai), b.get(bi)));
+        }), a, b, dst);
+    }
+
+    static void copy(int[] shape, Storage src, long srcOff, long[] srcStrides, Storage dst, long dstOff, long[] dstStrides) {
+        Storage.guarded(() -> walk(shape, new long[]{srcOff, dstOff}, new long[][]{srcStrides, dstStrides}, (n, o, st) -> {
+            long si = o[0], di = o[1];
+            for (int i = 0; i < n; i++, si += st[0], di += st[1]) dst.set(di, src.get(si));
+        }), src, dst);
+    }
+
+    static double dot(int n, Storage a, long aOff, long aStride, Storage b, long bOff, long bStride) {
+        double[] s = new double[1];
+        Storage.guarded(() -> {
+            for (long i = 0, x = aOff, y = bOff; i < n; i++, x += aStride, y += bStride) s[0] += a.get(x) * b.get(y);
+        }, a, b);
+        return s[0];
+    }
+
+    /**
+     * Drops size-1 dims and merges adjacent dims that are contiguous for every operand.
+     * Returns {shape, strides of operand 0, strides of operand 1, ...}; always at least rank 1.
+     */
+    static int[][] coalesce(int[] shape, int[]... strides) {
+        int ops = strides.length;
+        int[] s = new int[Math.max(shape.length, 1)];
+        int[][] st = new int[ops][s.length];
+        int r = 0;
+        for (int d = 0; d < shape.length; d++) {
+            if (shape[d] == 1) continue;
+            boolean merge = r > 0;
+            for (int o = 0; o < ops && merge; o++) {
+                merge = st[o][r - 1] == strides[o][d] * shape[d];
+            }
+            if (merge) {
+                s[r - 1] *= shape[d];
+                for (int o = 0; o < ops; o++) st[o][r - 1] = strides[o][d];
+            } else {
+                s[r] = shape[d];
+                for (int o = 0; o < ops; o++) st[o][r] = strides[o][d];
+                r++;
+            }
+        }
+        if (r == 0) {
+            s[0] = 1;
+            r = 1;
+        }
+        int[][] out = new int[ops + 1][];
+        out[0] = Arrays.copyOf(s, r);
+        for (int o = 0; o < ops; o++) out[o + 1] = Arrays.copyOf(st[o], r);
+        return out;
+    }
+
+    private static boolean isEmpty(int[] shape) {
+        for (int d : shape) if (d == 0) return true;
+        return false;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.lambdv.primitives;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Arena for the temporaries of a block of tensor code, typically one training step:
+ *
+ * <pre>
+ * try (TensorScope scope = TensorScope.open()) {
+ *     Tensor h = x.matmul(w).relu();
+ *     result = scope.keep(h.sum(1));
+ * }
+ * </pre>
+ *
+ * While a scope is open, every tensor an op allocates on that thread draws its buffer from a
+ * per-thread pool, bucketed by dtype and length, and closing the scope hands the buffers back for
+ * the next one; off-heap buffers are freed instead. A training loop that repeats the same shapes
+ * therefore stops allocating after its first step. A tensor that must outlive the scope goes through
+ * {@link #keep}, which passes it on to the enclosing scope (or to nobody, from the outermost one).
+ * Any other tensor created inside the scope, and every view of it, is cut off from its buffer on
+ * close, so using it afterwards throws IllegalStateException rather than reading whatever the next
+ * scope wrote there. Gradients accumulated by {@link Tensor#backward} are kept automatically.
+ */
+public final class TensorScope implements AutoCloseable {
+    // buffers kept per bucket, so one burst of odd shapes cannot pin memory forever
+    static final int MAX_POOLED_PER_SIZE = 32;
+
+    private static final ThreadLocal<ArrayDeque<TensorScope>> OPEN = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<Map<Long, ArrayDeque<Storage>>> POOL = ThreadLocal.withInitial(HashMap::new);
+
+    private static final LongAdder ALLOCATED = new LongAdder();
+    private static final LongAdder REUSED = new LongAdder();
+    private static final LongAdder RECYCLED = new LongAdder();
+
+    private final Thread owner = Thread.currentThread();
+    private final TensorScope parent;
+    private final Set<Storage> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed;
+
+    private TensorScope(TensorScope parent) {
+        this.parent = parent;
+    }
+
+    /** Opens a scope on the current thread, nested in any scope already open there. */
+    public static TensorScope open() {
+        ArrayDeque<TensorScope> open = OPEN.get();
+        TensorScope scope = new TensorScope(open.peek());
+        open.push(scope);
+        return scope;
+    }
+
+    /** Lets t (and every view sharing its storage) outlive this scope; returns t. */
+    public Tensor keep(Tensor t) {
+        checkOwner();
+        if (closed) throw new IllegalStateException("Scope is already closed");
+        Storage s = t.storage();
+        if (owned.remove(s)) {
+            if (parent != null) parent.owned.add(s); else s.views = null;
+        }
+        return t;
+    }
+
+    /** Recycles every buffer allocated in this scope that was not kept, releasing the tensors on them. */
+    @Override
+    public void close() {
+        if (closed) return;
+        checkOwner();
+        ArrayDeque<TensorScope> open = OPEN.get();
+        if (open.peek() != this) throw new IllegalStateException("Nested scopes must be closed before their parent");
+        open.pop();
+        closed = true;
+        Map<Long, ArrayDeque<Storage>> pool = POOL.get();
+        for (Storage s : owned) {
+            s.views.releaseAll();
+            s.views = null;
+            if (s.doubles() == null && s.floats() == null) {
+                s.close();
+                continue;
+            }
+            ArrayDeque<Storage> bucket = pool.computeIfAbsent(key(s.dtype(), s.length()), k -> new ArrayDeque<>());
+            if (bucket.size() < MAX_POOLED_PER_SIZE) {
+                bucket.push(s);
+                RECYCLED.increment();
+            }
+        }
+        owned.clear();
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner) throw new IllegalStateException("A scope can only be used by the thread that opened it");
+    }
+
+    // Counters, summed over all threads
+
+    /** Buffers allocated fresh while a scope was open. */
+    public static long allocations() { return ALLOCATED.sum(); }
+
+    /** Buffers served from the pool instead of being allocated. */
+    public static long reuses() { return REUSED.sum(); }
+
+    /** Buffers returned to the pool by closing scopes. */
+    public static long recycled() { return RECYCLED.sum(); }
+
+    public static void resetCounters() {
+        ALLOCATED.reset();
+        REUSED.reset();
+        RECYCLED.reset();
+    }
+
+    /** Drops the current thread's pooled buffers, leaving them to the GC. */
+    public static void clearPool() {
+        POOL.get().clear();
+    }
+
+    // Allocation hook for Tensor.empty: fresh, zero-filled storage, owned by the innermost open scope if any
+    static Storage allocate(DType dtype, long length, boolean offHeap) {
+        TensorScope scope = OPEN.get().peek();
+        if (scope == null) return offHeap ? Storage.direct(dtype, length) : Storage.allocate(dtype, length);
+        Storage s = null;
+        if (!offHeap) {
+            ArrayDeque<Storage> bucket = POOL.get().get(key(dtype, length));
+            s = bucket == null ? null : bucket.poll();
+        }
+        if (s != null) {
+            if (s.doubles() != null) Arrays.fill(s.doubles(), 0.0); else Arrays.fill(s.floats(), 0f);
+            REUSED.increment();
+        } else {
+            s = offHeap ? Storage.direct(dtype, length) : Storage.allocate(dtype, length);
+            ALLOCATED.increment();
+        }
+        s.views = new Storage.Views();
+        scope.owned.add(s);
+        return s;
+    }
+
+    /** Takes t's storage out of every open scope, for results such as gradients that always outlive them. */
+    static void escape(Tensor t) {
+        Storage s = t.storage();
+        boolean owned = false;
+        for (TensorScope scope : OPEN.get()) owned |= scope.owned.remove(s);
+        if (owned) s.views = null;
+    }
+
+    private static final int DTYPES = DType.values().length;
+
+    private static long key(DType dtype, long length) {
+        return length * DTYPES + dtype.ordinal();
+    }
+}
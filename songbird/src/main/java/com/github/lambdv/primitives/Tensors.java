@@ -2,8 +2,16 @@ package com.github.lambdv.primitives;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.io.File;
+import java.io.IOException;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -47,6 +55,179 @@ public class Tensors {
             return new DataFrame(data, header);
         }
     }
-}
 
+    /**
+     * Einstein summation, e.g. {@code einsum("bij,bjk->bik", a, b)} for a batched matmul or
+     * {@code einsum("ii", a)} for a trace. Each comma-separated term labels one operand's dims with
+     * the letters a-z and A-Z; letters shared by several terms must have the same size. Letters
+     * missing from the output after {@code ->} are summed over; without {@code ->} the output is
+     * every letter used exactly once, alphabetically. Three or more operands are contracted pairwise
+     * in the order with the fewest multiply-adds, each step as one batched matmul. Differentiable.
+     */
+    public static Tensor einsum(String equation, Tensor... operands) {
+        return Einsum.contract(equation, operands);
+    }
+
+    /*
+     * Binary tensor container, all little-endian:
+     *   magic "SBTN", int32 version, int32 count
+     *   per tensor: int32 name length, UTF-8 name, int32 dtype (0 = FLOAT64, 1 = FLOAT32), int32 rank,
+     *               int32[rank] shape, int64[rank] element strides, int64 data offset, int64 data bytes
+     *   raw element data, each block starting on a 64-byte boundary
+     */
+    private static final int MAGIC = 0x4E544253; // "SBTN" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int ALIGN = 64;
+
+    /** Writes the tensors, in map order, to a binary container that {@link #mmap} can open. */
+    public static void save(Path path, Map<String, Tensor> tensors) throws IOException {
+        List<String> names = new ArrayList<>(tensors.keySet());
+        List<Tensor> blocks = new ArrayList<>(names.size());
+        long headerBytes = 12;
+        for (String name : names) {
+            Tensor t = tensors.get(name);
+            blocks.add(t.isContiguous() ? t : t.contiguous());
+            headerBytes += 4 + name.getBytes(StandardCharsets.UTF_8).length + 8 + 12L * t.ndim() + 16;
+        }
+        if (headerBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many tensors for one file");
+
+        ByteBuffer header = ByteBuffer.allocate((int) headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(names.size());
+        long[] offsets = new long[names.size()];
+        long pos = align(headerBytes);
+        for (int i = 0; i < names.size(); i++) {
+            Tensor t = blocks.get(i);
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            header.putInt(name.length).put(name).putInt(dtypeCode(t.dtype())).putInt(t.ndim());
+            int[] shape = t.shape();
+            for (int d : shape) header.putInt(d);
+            long stride = 1;
+            long[] strides = new long[shape.length];
+            for (int d = shape.length - 1; d >= 0; d--) {
+                strides[d] = stride;
+                stride *= shape[d];
+            }
+            for (long st : strides) header.putLong(st);
+            long bytes = t.numel() * t.dtype().byteSize();
+            offsets[i] = pos;
+            header.putLong(pos).putLong(bytes);
+            pos = align(pos + bytes);
+        }
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            header.flip();
+            writeFully(ch, header, 0);
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < blocks.size(); i++) {
+                writeElements(ch, blocks.get(i), offsets[i], buf);
+            }
+        }
+    }
+
+    /**
+     * Maps every tensor in a file written by {@link #save}. No element is copied onto the heap: each
+     * tensor reads straight from the read-only mapping, so writing into one throws. The mapping
+     * outlives the file handle, and {@link Tensor#close} unmaps it early.
+     */
+    public static Map<String, Tensor> mmap(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            ByteBuffer fixed = readFully(ch, 0, 12);
+            if (fixed.getInt() != MAGIC) throw new IOException("Not a songbird tensor file: " + path);
+            int version = fixed.getInt();
+            if (version != VERSION) throw new IOException("Unsupported tensor file version " + version);
+            int count = fixed.getInt();
+
+            Map<String, Tensor> out = new LinkedHashMap<>();
+            long pos = 12;
+            for (int i = 0; i < count; i++) {
+                int nameLength = readFully(ch, pos, 4).getInt();
+                if (nameLength < 0 || pos + nameLength > fileSize) throw new IOException("Corrupt tensor header in " + path);
+                ByteBuffer entry = readFully(ch, pos + 4, nameLength + 8);
+                byte[] name = new byte[nameLength];
+                entry.get(name);
+                DType dtype = dtypeOf(entry.getInt());
+                int rank = entry.getInt();
+                if (rank < 1 || pos + 12L * rank > fileSize) throw new IOException("Corrupt tensor header in " + path);
+                ByteBuffer layout = readFully(ch, pos + 12 + nameLength, 12 * rank + 16);
+                int[] shape = new int[rank];
+                long[] strides = new long[rank];
+                for (int d = 0; d < rank; d++) shape[d] = layout.getInt();
+                for (int d = 0; d < rank; d++) strides[d] = layout.getLong();
+                long offset = layout.getLong();
+                long bytes = layout.getLong();
+                pos += 12 + nameLength + 12L * rank + 16;
+                if (offset < 0 || bytes < 0 || offset + bytes > fileSize) {
+                    throw new IOException("Tensor data lies outside the file: " + path);
+                }
+                Storage storage = Storage.mapped(ch, offset, dtype, bytes / dtype.byteSize());
+                try {
+                    out.put(new String(name, StandardCharsets.UTF_8), Tensor.onStorage(storage, shape, strides));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt tensor header in " + path + ": " + e.getMessage(), e);
+                }
+            }
+            return out;
+        }
+    }
+
+    private static void writeElements(FileChannel ch, Tensor t, long pos, ByteBuffer buf) throws IOException {
+        Storage s = t.storage();
+        int width = t.dtype().byteSize();
+        int perBuffer = buf.capacity() / width;
+        long base = t.offset();
+        for (long i = 0, n = t.numel(); i < n; ) {
+            int k = (int) Math.min(perBuffer, n - i);
+            buf.clear();
+            if (s.doubles() != null) {
+                buf.asDoubleBuffer().put(s.doubles(), (int) (base + i), k);
+            } else if (s.floats() != null) {
+                buf.asFloatBuffer().put(s.floats(), (int) (base + i), k);
+            } else {
+                long first = base + i;
+                Storage.guarded(() -> {
+                    if (width == 8) {
+                        for (int j = 0; j < k; j++) buf.putDouble(j * 8, s.get(first + j));
+                    } else {
+                        for (int j = 0; j < k; j++) buf.putFloat(j * 4, (float) s.get(first + j));
+                    }
+                }, s);
+            }
+            buf.limit(k * width);
+            pos = writeFully(ch, buf, pos);
+            i += k;
+        }
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        return pos;
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long pos, int bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("Truncated tensor file");
+        }
+        return buf.flip();
+    }
+
+    private static long align(long pos) {
+        return (pos + ALIGN - 1) / ALIGN * ALIGN;
+    }
 
+    private static int dtypeCode(DType dtype) {
+        return switch (dtype) {
+            case FLOAT64 -> 0;
+            case FLOAT32 -> 1;
+        };
+    }
+
+    private static DType dtypeOf(int code) throws IOException {
+        return switch (code) {
+            case 0 -> DType.FLOAT64;
+            case 1 -> DType.FLOAT32;
+            default -> throw new IOException("Unknown dtype code " + code);
+        };
+    }
+}
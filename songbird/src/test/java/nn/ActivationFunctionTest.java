@@ -0,0 +1,37 @@
+package nn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.nn.ActivationFunction;
+import java.util.List;
+
+public class ActivationFunctionTest {
+    private static final List<ActivationFunction> ALL = List.of(
+        ActivationFunction.ReLU, ActivationFunction.Sigmoid, ActivationFunction.Identity,
+        ActivationFunction.Tanh, ActivationFunction.GELU, ActivationFunction.LeakyReLU, ActivationFunction.leakyReLU(0.2)
+    );
+
+    @Test
+    public void bulkMethodsMatchScalarOnesAndDerivativesMatchFiniteDifferences() {
+        double[] z = {-3, -1.2, -0.3, 0.4, 0.9, 2.5};
+        double[] grad = {0.5, -1, 2, 1, -0.25, 3};
+        for (ActivationFunction f : ALL) {
+            double[] a = new double[z.length], dz = new double[z.length];
+            f.forward(z, a);
+            f.backward(z, grad, dz);
+            for (int i = 0; i < z.length; i++) {
+                Assertions.assertEquals(f.apply(z[i]), a[i], 0.0, f + " forward");
+                Assertions.assertEquals(f.applyAsDouble(z[i]), a[i], 0.0, f + " applyAsDouble");
+                Assertions.assertEquals(grad[i] * f.derivative(z[i]), dz[i], 1e-15, f + " backward");
+                double h = 1e-6, numeric = (f.applyAsDouble(z[i] + h) - f.applyAsDouble(z[i] - h)) / (2 * h);
+                Assertions.assertEquals(numeric, f.derivative(z[i]), 1e-6, f + " derivative at " + z[i]);
+            }
+            // in place
+            double[] copy = z.clone();
+            f.forward(copy, copy);
+            Assertions.assertArrayEquals(a, copy, 0.0);
+        }
+        Assertions.assertEquals(-0.6, ActivationFunction.leakyReLU(0.2).applyAsDouble(-3), 1e-15);
+        Assertions.assertEquals(0.8411919906082768, ActivationFunction.GELU.applyAsDouble(1.0), 1e-15);
+    }
+}
@@ -0,0 +1,75 @@
+package nn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.nn.ActivationFunction;
+import com.github.lambdv.nn.DataParallelTrainer;
+import com.github.lambdv.nn.DenseLayer;
+import com.github.lambdv.nn.LossFunction;
+import com.github.lambdv.nn.MLP;
+import com.github.lambdv.nn.Neuron;
+import com.github.lambdv.nn.NeuronLayer;
+import com.github.lambdv.primitives.Generator;
+import com.github.lambdv.primitives.Tensor;
+import java.util.List;
+import java.util.Random;
+
+public class DataParallelTrainerTest {
+    private static MLP model() {
+        var hidden = List.of(
+            new Neuron(List.of(0.5, -0.5, 0.25), 0.1, ActivationFunction.Sigmoid),
+            new Neuron(List.of(-0.3, 0.8, -0.1), 0.0, ActivationFunction.Sigmoid),
+            new Neuron(List.of(0.2, 0.1, 0.6), -0.2, ActivationFunction.Sigmoid)
+        );
+        var output = List.of(new Neuron(List.of(0.7, -0.2, 0.4), 0.0, ActivationFunction.Identity));
+        return new MLP(List.of(DenseLayer.of(hidden), DenseLayer.of(output)));
+    }
+
+    private static double[] predictions(MLP m, Tensor x) {
+        return m.forward(x).toArray();
+    }
+
+    @Test
+    public void synchronousModeMatchesSerialTrainingAndIsReproducible() {
+        Tensor x = Tensor.randn(new Generator(1), 103, 3);
+        Tensor y = x.sum(new int[]{1}, true).mul(0.5);
+
+        MLP serial = model();
+        serial.train(x, y, LossFunction.MeanSquaredError(), 0.1, 3, 16, new Random(5));
+        MLP parallel = model(), again = model();
+        try (var trainer = new DataParallelTrainer(parallel, 3)) {
+            trainer.train(x, y, LossFunction.MeanSquaredError(), 0.1, 3, 16, new Random(5));
+        }
+        try (var trainer = new DataParallelTrainer(again, 3)) {
+            trainer.train(x, y, LossFunction.MeanSquaredError(), 0.1, 3, 16, new Random(5));
+        }
+
+        Assertions.assertArrayEquals(predictions(serial, x), predictions(parallel, x), 1e-12);
+        Assertions.assertArrayEquals(predictions(parallel, x), predictions(again, x));
+    }
+
+    @Test
+    public void hogwildConvergesAndScalingIsReported() {
+        Tensor x = Tensor.randn(new Generator(2), 400, 3);
+        Tensor y = x.sum(new int[]{1}, true).mul(0.5);
+        MLP m = model();
+        double before = m.forward(x).sub(y).mul(m.forward(x).sub(y)).meanAll().item();
+        DataParallelTrainer.Stats stats;
+        try (var trainer = new DataParallelTrainer(m, 4, DataParallelTrainer.Mode.HOGWILD)) {
+            // the trainer's pool serves call after call
+            trainer.train(x, y, LossFunction.MeanSquaredError(), 0.05, 10, 8, new Random(3));
+            stats = trainer.train(x, y, LossFunction.MeanSquaredError(), 0.05, 10, 8, new Random(4));
+        }
+        double after = m.forward(x).sub(y).mul(m.forward(x).sub(y)).meanAll().item();
+        Assertions.assertTrue(after < before / 10, "hogwild did not converge: " + before + " -> " + after);
+        Assertions.assertEquals(4000, stats.samples());
+
+        var scaling = DataParallelTrainer.scaling(DataParallelTrainerTest::model, x, y, LossFunction.MeanSquaredError(), 0.05, 32, 1, 2);
+        Assertions.assertEquals(2, scaling.size());
+        Assertions.assertEquals(1.0, scaling.get(0).efficiency(), 1e-12);
+        Assertions.assertTrue(scaling.get(1).samplesPerSecond() > 0);
+
+        var neurons = new MLP(List.of(new NeuronLayer(List.of(new Neuron(List.of(1.0), 0.0, ActivationFunction.Identity)))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DataParallelTrainer(neurons, 2));
+    }
+}
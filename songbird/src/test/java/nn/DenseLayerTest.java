@@ -0,0 +1,82 @@
+package nn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.nn.ActivationFunction;
+import com.github.lambdv.nn.DenseLayer;
+import com.github.lambdv.nn.Neuron;
+import com.github.lambdv.nn.NeuronLayer;
+import com.github.lambdv.primitives.Tensor;
+import com.github.lambdv.primitives.TensorScope;
+import java.util.List;
+
+public class DenseLayerTest {
+    private static List<Neuron> neurons() {
+        return List.of(
+            new Neuron(List.of(0.5, -0.25, 1.0), 0.1, ActivationFunction.Sigmoid),
+            new Neuron(List.of(-1.0, 0.75, 0.2), -0.3, ActivationFunction.Sigmoid)
+        );
+    }
+
+    private static void assertListEquals(List<Double> expected, List<Double> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) Assertions.assertEquals(expected.get(i), actual.get(i), 1e-12);
+    }
+
+    @Test
+    public void matchesNeuronLayerThroughATrainingStep() {
+        var reference = new NeuronLayer(neurons());
+        var dense = DenseLayer.of(neurons());
+        var x = List.of(0.3, -1.2, 2.0);
+        var g = List.of(0.7, -0.4);
+
+        assertListEquals(reference.forward(x), dense.forward(x));
+        assertListEquals(reference.backward(g), dense.backward(g));
+        reference.step(0.1);
+        dense.step(0.1);
+        for (int i = 0; i < 2; i++) {
+            assertListEquals(reference.neurons().get(i).weights, dense.weights(i));
+            Assertions.assertEquals(reference.neurons().get(i).bias, dense.bias(i), 1e-12);
+        }
+        assertListEquals(dense.weights(1), dense.neurons().get(1).weights);
+
+        dense.zeroGrad();
+        dense.step(0.1);
+        assertListEquals(reference.neurons().get(0).weights, dense.weights(0));
+    }
+
+    @Test
+    public void batchForwardMatchesSamples() {
+        var dense = DenseLayer.of(neurons());
+        Tensor batch = Tensor.of(new double[]{0.3, -1.2, 2.0, 1, 0, -1, 0.5, 0.5, 0.5, -2, 1, 0}, 4, 3);
+        Tensor out = dense.forward(batch);
+        Assertions.assertArrayEquals(new int[]{4, 2}, out.shape());
+        for (int r = 0; r < 4; r++) {
+            var row = java.util.Arrays.stream(batch.select(0, r).toArray()).boxed().toList();
+            var expected = new NeuronLayer(neurons()).forward(row);
+            Assertions.assertEquals(expected.get(0), out.get(r, 0), 1e-12);
+            Assertions.assertEquals(expected.get(1), out.get(r, 1), 1e-12);
+        }
+        // batches of one size share the layer's output buffer, so a forward overwrites the previous result
+        double[] first = out.toArray();
+        Assertions.assertSame(out, dense.forward(batch.mul(2)));
+        Assertions.assertSame(out, dense.forward(batch));
+        Assertions.assertArrayEquals(first, out.toArray());
+        Assertions.assertArrayEquals(new int[]{2, 2}, dense.forward(batch.narrow(0, 0, 2)).shape());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> dense.forward(List.of(1.0, 2.0)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> dense.forward(Tensor.zeros(4, 2)));
+    }
+
+    @Test
+    public void layerBuiltInsideAScopeOutlivesIt() {
+        DenseLayer dense;
+        try (TensorScope scope = TensorScope.open()) {
+            dense = new DenseLayer(Tensor.ones(2, 3).mul(0.5), Tensor.zeros(2).add(0.1), ActivationFunction.Identity);
+        }
+        try (TensorScope scope = TensorScope.open()) {
+            Tensor.zeros(2, 3).add(7);
+            Tensor.zeros(2).add(7);
+        }
+        Assertions.assertArrayEquals(new double[]{3.1, 3.1}, dense.forward(Tensor.ones(1, 3).mul(2)).toArray(), 1e-12);
+    }
+}
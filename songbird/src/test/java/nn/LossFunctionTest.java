@@ -0,0 +1,84 @@
+package nn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.nn.ActivationFunction;
+import com.github.lambdv.nn.LossFunction;
+import com.github.lambdv.nn.MLP;
+import com.github.lambdv.primitives.Tensor;
+import java.util.Random;
+
+public class LossFunctionTest {
+    private static void assertGradientMatchesFiniteDifferences(LossFunction f, double[] p, double[] t, int batch) {
+        double[] grad = new double[p.length];
+        f.evaluate(p, t, batch, grad);
+        for (int i = 0; i < p.length; i++) {
+            double h = 1e-6;
+            double[] up = p.clone(), down = p.clone();
+            up[i] += h;
+            down[i] -= h;
+            double numeric = (f.evaluate(up, t, batch, new double[p.length]) - f.evaluate(down, t, batch, new double[p.length])) / (2 * h);
+            Assertions.assertEquals(numeric, grad[i], 1e-6, f.getClass().getSimpleName() + " at " + i);
+        }
+    }
+
+    @Test
+    public void batchedLossesMatchDefinitionsAndFiniteDifferences() {
+        double[] logits = {2.0, -1.0, 0.5, -0.3, 0.1, 3.0};
+        double[] onehot = {1, 0, 0, 0, 0, 1};
+        double[] probs = {0.7, 0.1, 0.2, 0.25, 0.25, 0.5};
+        double[] bits = {1, 0, 1, 0, 0, 1};
+        assertGradientMatchesFiniteDifferences(LossFunction.MeanSquaredError(), logits, onehot, 2);
+        assertGradientMatchesFiniteDifferences(LossFunction.CrossEntropy(), probs, onehot, 2);
+        assertGradientMatchesFiniteDifferences(LossFunction.BinaryCrossEntropy(), probs, bits, 3);
+        assertGradientMatchesFiniteDifferences(LossFunction.BinaryCrossEntropyWithLogits(), logits, bits, 3);
+        assertGradientMatchesFiniteDifferences(LossFunction.SoftmaxCrossEntropy(), logits, onehot, 2);
+
+        // softmax cross-entropy is the mean of -log softmax at the target, and its gradient softmax - onehot
+        Tensor z = Tensor.of(logits.clone(), 2, 3);
+        var e = LossFunction.SoftmaxCrossEntropy().evaluate(z, Tensor.of(onehot, 2, 3));
+        Tensor logp = z.logSoftmax(1);
+        Assertions.assertEquals(-(logp.get(0, 0) + logp.get(1, 2)) / 2, e.loss(), 1e-12);
+        Assertions.assertArrayEquals(z.softmax(1).sub(Tensor.of(onehot, 2, 3)).mul(0.5).toArray(), e.gradient().toArray(), 1e-15);
+        Assertions.assertArrayEquals(logits, z.toArray());
+
+        // with logits agrees with plain BCE on sigmoids, and stays finite where sigmoid saturates
+        double[] sig = new double[logits.length];
+        ActivationFunction.Sigmoid.forward(logits, sig);
+        Assertions.assertEquals(LossFunction.BinaryCrossEntropy().evaluate(sig, bits, 3, new double[6]),
+            LossFunction.BinaryCrossEntropyWithLogits().evaluate(logits, bits, 3, new double[6]), 1e-12);
+        double[] g = new double[2];
+        double big = LossFunction.BinaryCrossEntropyWithLogits().evaluate(new double[]{1000, -1000}, new double[]{0, 1}, 1, g);
+        Assertions.assertEquals(2000, big, 1e-9);
+        Assertions.assertArrayEquals(new double[]{1, -1}, g, 1e-15);
+        Assertions.assertEquals(0.0, LossFunction.SoftmaxCrossEntropy().evaluate(new double[]{1000, -1000}, new double[]{1, 0}, 1, g), 1e-12);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LossFunction.MeanSquaredError().evaluate(new double[3], new double[3], 2, new double[3]));
+        // logits only make sense a row at a time, so there is no per-element softmax cross-entropy
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> LossFunction.SoftmaxCrossEntropy().apply(0.5, 1.0));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> LossFunction.SoftmaxCrossEntropy().backward(0.5, 1.0));
+        Assertions.assertFalse(LossFunction.CrossEntropy().getClass().isInstance(LossFunction.SoftmaxCrossEntropy()));
+    }
+
+    @Test
+    public void softmaxCrossEntropyTrainsAClassifier() {
+        // three clusters around (2, 0), (-2, 2) and (0, -2)
+        Random r = new Random(4);
+        int n = 90;
+        double[] x = new double[2 * n], y = new double[3 * n];
+        double[][] centers = {{2, 0}, {-2, 2}, {0, -2}};
+        for (int i = 0; i < n; i++) {
+            int c = i % 3;
+            x[2 * i] = centers[c][0] + 0.3 * r.nextGaussian();
+            x[2 * i + 1] = centers[c][1] + 0.3 * r.nextGaussian();
+            y[3 * i + c] = 1;
+        }
+        MLP m = MLP.of(new int[]{2, 8, 3}, new ActivationFunction[]{null, ActivationFunction.Tanh, ActivationFunction.Identity});
+        Tensor inputs = Tensor.of(x, n, 2), targets = Tensor.of(y, n, 3);
+        m.train(inputs, targets, LossFunction.SoftmaxCrossEntropy(), 0.5, 50, 10, new Random(1));
+        Assertions.assertTrue(LossFunction.SoftmaxCrossEntropy().evaluate(m.forward(inputs), targets).loss() < 0.1);
+        Tensor predicted = m.forward(inputs).argmax(1), expected = targets.argmax(1);
+        Assertions.assertArrayEquals(expected.toArray(), predicted.toArray());
+        Assertions.assertEquals(2, (int) m.forward(Tensor.of(new double[]{0, -2}, 1, 2)).argmax(1).get(0));
+    }
+}
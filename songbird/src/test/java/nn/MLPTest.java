@@ -6,13 +6,16 @@ import org.junit.jupiter.api.Test;
 import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
+import java.util.Random;
 import java.io.File;
 
 import com.github.lambdv.nn.MLP;
 import com.github.lambdv.nn.NeuronLayer;
+import com.github.lambdv.nn.DenseLayer;
 import com.github.lambdv.nn.Neuron;
 import com.github.lambdv.nn.ActivationFunction;
 import com.github.lambdv.nn.LossFunction;
+import com.github.lambdv.primitives.Tensor;
 import com.github.lambdv.primitives.Tensors;
 
 public class MLPTest {
@@ -146,6 +149,41 @@ public class MLPTest {
             Assertions.assertTrue(Math.abs(pred - target) < THRESHOLD, "Prediction too far from target: pred=" + pred + ", target=" + target);
         }
     }
-}
 
+    @Test
+    public void miniBatchStepAveragesPerSampleGradients() {
+        var hidden = List.of(
+            new Neuron(List.of(0.5, -0.5), 0.1, ActivationFunction.Sigmoid),
+            new Neuron(List.of(-0.3, 0.8), 0.0, ActivationFunction.Sigmoid)
+        );
+        var output = List.of(new Neuron(List.of(0.7, -0.2), 0.0, ActivationFunction.Identity));
+        var batched = new MLP(List.of(DenseLayer.of(hidden), DenseLayer.of(output)));
+        var manual = new MLP(List.of(DenseLayer.of(hidden), DenseLayer.of(output)));
+
+        Map<List<Double>, List<Double>> data = new LinkedHashMap<>();
+        data.put(List.of(0.0, 0.0), List.of(0.0));
+        data.put(List.of(0.0, 1.0), List.of(1.0));
+        data.put(List.of(1.0, 0.0), List.of(1.0));
+        data.put(List.of(1.0, 1.0), List.of(0.0));
+        batched.train(data, LossFunction.MeanSquaredError(), 0.5, 1, 4);
+
+        manual.zeroGrad();
+        for (var e : data.entrySet()) {
+            double out = manual.forward(e.getKey()).get(0);
+            manual.backward(List.of(2 * (out - e.getValue().get(0)) / 4));
+        }
+        manual.step(0.5);
+        for (var x : data.keySet()) {
+            Assertions.assertEquals(manual.forward(x).get(0), batched.forward(x).get(0), 1e-12);
+        }
 
+        // shuffled mini-batches still fit a line, and the batched forward agrees with the per-sample one
+        var line = MLP.of(new int[]{1, 1}, new ActivationFunction[]{null, ActivationFunction.Identity});
+        Tensor xs = Tensor.arange(-1, 1, 0.05).reshape(40, 1);
+        line.train(xs, xs.mul(3.0).add(1.0), LossFunction.MeanSquaredError(), 0.1, 300, 8, new Random(7));
+        Assertions.assertEquals(7.0, line.forward(List.of(2.0)).get(0), 1e-6);
+        Assertions.assertEquals(line.forward(List.of(0.5)).get(0), line.forward(Tensor.of(new double[]{0.5}, 1, 1)).get(0, 0), 1e-15);
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> line.train(xs, xs, LossFunction.MeanSquaredError(), 0.1, 1, 0, null));
+    }
+}
@@ -0,0 +1,119 @@
+package primitives;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.primitives.Tensor;
+import com.github.lambdv.primitives.Tensors;
+import java.util.function.Function;
+
+public class AutogradTest {
+    static final double EPS = 1e-6;
+    static final double TOLERANCE = 1e-5;
+
+    // central differences of the scalar f with respect to every element of x
+    private static double[] numericGrad(Function<Tensor, Tensor> f, Tensor x) {
+        double[] g = new double[x.size()];
+        int[] shape = x.shape();
+        double[] base = x.toArray();
+        for (int i = 0; i < g.length; i++) {
+            double[] plus = base.clone(), minus = base.clone();
+            plus[i] += EPS;
+            minus[i] -= EPS;
+            g[i] = (f.apply(Tensor.of(plus, shape)).item() - f.apply(Tensor.of(minus, shape)).item()) / (2 * EPS);
+        }
+        return g;
+    }
+
+    private static void assertGradMatches(Function<Tensor, Tensor> f, Tensor x) {
+        Tensor p = Tensor.of(x.toArray(), x.shape()).requiresGrad(true);
+        f.apply(p).backward();
+        Assertions.assertArrayEquals(numericGrad(f, x), p.grad().toArray(), TOLERANCE);
+    }
+
+    @Test
+    public void broadcastBinaryOpsSumGradientBack() {
+        Tensor a = Tensor.of(new double[] {0.5, -1, 2, 3, 1.5, -0.25}, 2, 3).requiresGrad(true);
+        Tensor b = Tensor.of(new double[] {2, 4, -1}, 3).requiresGrad(true);
+        a.mul(b).add(b).div(b.mul(b).add(1.0)).sumAll().backward();
+        Assertions.assertArrayEquals(new int[] {3}, b.grad().shape());
+        Assertions.assertArrayEquals(numericGrad(t -> t.mul(b.detach()).add(b.detach()).div(b.detach().mul(b.detach()).add(1.0)).sumAll(), a.detach()),
+            a.grad().toArray(), TOLERANCE);
+        Assertions.assertArrayEquals(numericGrad(t -> a.detach().mul(t).add(t).div(t.mul(t).add(1.0)).sumAll(), b.detach()),
+            b.grad().toArray(), TOLERANCE);
+    }
+
+    @Test
+    public void matmulAndActivationsMatchFiniteDifferences() {
+        Tensor w = Tensor.of(new double[] {0.1, -0.2, 0.3, 0.4, -0.5, 0.6}, 3, 2);
+        Tensor x = Tensor.of(new double[] {1, 2, 3, -1, 0.5, 2}, 2, 3);
+        assertGradMatches(t -> x.matmul(t).sigmoid().sumAll(), w);
+        assertGradMatches(t -> t.matmul(w).tanh().exp().meanAll(), x);
+        assertGradMatches(t -> x.matmul(t).relu().add(1.0).log().sum(0).sum(0, true).sumAll(), w.add(1.0));
+        assertGradMatches(t -> t.T().reshape(6).mul(t.reshape(6)).sumAll(), x);
+    }
+
+    @Test
+    public void gradientsAccumulateUntilZeroed() {
+        Tensor a = Tensor.of(new double[] {1, 2}, 2).requiresGrad(true);
+        a.mul(a).sumAll().backward();
+        a.mul(3.0).sumAll().backward();
+        Assertions.assertArrayEquals(new double[] {5, 7}, a.grad().toArray());
+        a.zeroGrad();
+        Assertions.assertNull(a.grad());
+
+        Tensor c = Tensor.noGrad(() -> a.mul(2.0));
+        Assertions.assertFalse(c.requiresGrad());
+        Assertions.assertFalse(a.detach().requiresGrad());
+        Assertions.assertThrows(IllegalStateException.class, () -> a.map(Math::sin).sumAll().backward());
+    }
+
+    @Test
+    public void convolutionAndPoolingMatchFiniteDifferences() {
+        Tensor x = Tensor.randn(2, 2, 5, 4);
+        Tensor w = Tensor.randn(3, 2, 2, 3);
+        Tensor b = Tensor.randn(3);
+        Tensor k = Tensor.randn(2, 2, 3);
+        int[] s = {2, 1}, p = {1, 1}, d = {1, 2};
+        assertGradMatches(t -> t.conv2d(w, b, s, p, d).tanh().sumAll(), x);
+        assertGradMatches(t -> x.conv2d(t, b, s, p, d).tanh().sumAll(), w);
+        assertGradMatches(t -> x.conv2d(w, t, s, p, d).tanh().sumAll(), b);
+        assertGradMatches(t -> t.conv1d(k, null, 2, 1, 1).sumAll(), x.reshape(2, 2, 20));
+        assertGradMatches(t -> t.mul(t).maxPool2d(new int[] {2, 2}, new int[] {1, 2}, new int[] {1, 0}, new int[] {1, 1}).sumAll(), x);
+        assertGradMatches(t -> t.mul(t).avgPool2d(new int[] {3, 2}, new int[] {2, 1}, new int[] {1, 1}, new int[] {1, 1}).sumAll(), x);
+        assertGradMatches(t -> t.avgPool1d(3, 2, 1, 1).exp().sumAll(), x.reshape(2, 2, 20));
+    }
+
+    @Test
+    public void softmaxFamilyMatchesFiniteDifferences() {
+        Tensor x = Tensor.of(new double[] {0.5, -1, 2, 3, 1.5, -0.25, 0, 4, -2, 1, 1, 0.1}, 2, 3, 2);
+        Tensor w = Tensor.of(new double[] {1, -2, 0.5, 3, -1, 2, 0.25, -0.5, 1.5, 2, -3, 1}, 2, 3, 2);
+        for (int dim = 0; dim < 3; dim++) {
+            int d = dim;
+            assertGradMatches(t -> t.softmax(d).mul(w).sumAll(), x);
+            assertGradMatches(t -> t.logSoftmax(d).mul(w).sumAll(), x);
+            assertGradMatches(t -> t.logsumexp(d).mul(t.logsumexp(d)).sumAll(), x);
+        }
+        assertGradMatches(t -> t.logsumexp(new int[] {0, 2}, true).mul(2.0).sumAll(), x);
+    }
+
+    @Test
+    public void einsumMatchesFiniteDifferences() {
+        Tensor a = Tensor.of(new double[] {0.5, -1, 2, 3, 1.5, -0.25}, 2, 3);
+        Tensor b = Tensor.of(new double[] {1, -2, 0.5, 3, -1, 2, 0.25, -0.5, 1.5}, 3, 3);
+        assertGradMatches(t -> Tensors.einsum("ij,jk,ik->", t, b, t), a);
+        assertGradMatches(t -> Tensors.einsum("ij,jj,kj->k", a, t, a).sumAll(), b);
+    }
+
+    @Test
+    public void indexingMatchesFiniteDifferences() {
+        Tensor x = Tensor.of(new double[] {0.5, -1, 2, 3, 1.5, -0.25}, 2, 3);
+        Tensor w = Tensor.of(new double[] {1, -2, 0.5, 3, -1, 2}, 2, 3);
+        Tensor index = Tensor.of(new double[] {1, 1, 0, 0, 1, 1}, 2, 3);
+        assertGradMatches(t -> t.gather(0, index).mul(w).sumAll(), x);
+        assertGradMatches(t -> t.sort(1).values().mul(w).sumAll(), x);
+        assertGradMatches(t -> t.topk(2, 1).values().mul(w.narrow(1, 0, 2)).sumAll(), x);
+        assertGradMatches(t -> t.indexSelect(1, Tensor.of(new double[] {2, 2, 0}, 3)).mul(w).sumAll(), x);
+        assertGradMatches(t -> w.scatterAdd(1, index.narrow(1, 0, 2), t).mul(w).sumAll(), x);
+        assertGradMatches(t -> t.scatterAdd(1, index, w).mul(t).sumAll(), x);
+    }
+}
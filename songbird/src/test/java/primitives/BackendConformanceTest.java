@@ -0,0 +1,145 @@
+package primitives;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.primitives.Backends;
+import com.github.lambdv.primitives.DType;
+import com.github.lambdv.primitives.Generator;
+import com.github.lambdv.primitives.Tensor;
+import com.github.lambdv.primitives.TensorBackend;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Runs every backend against the reference one
+public class BackendConformanceTest {
+    static final double TOLERANCE = 1e-9;
+    static final double FLOAT_TOLERANCE = 1e-4;
+    static final TensorBackend DEFAULT = Backends.current();
+
+    @AfterEach
+    public void restore() {
+        Backends.use(DEFAULT.name());
+    }
+
+    // evaluates f on the reference backend and on every other one and checks all of them agree
+    private static void assertConforms(double tolerance, Supplier<List<double[]>> f) {
+        Backends.use("reference");
+        List<double[]> expected = f.get();
+        for (TensorBackend b : Backends.available()) {
+            Backends.use(b.name());
+            List<double[]> actual = f.get();
+            for (int i = 0; i < expected.size(); i++) {
+                Assertions.assertArrayEquals(expected.get(i), actual.get(i), tolerance, b.name() + ", result " + i);
+            }
+        }
+    }
+
+    private static Tensor data(int... shape) {
+        return new Generator(11).randn(shape);
+    }
+
+    @Test
+    public void backendsAreListedAndSelectable() {
+        List<String> names = Backends.available().stream().map(TensorBackend::name).toList();
+        Assertions.assertTrue(names.contains("reference") && names.contains("parallel"));
+        Assertions.assertEquals("parallel", DEFAULT.name());
+        Assertions.assertEquals("reference", Backends.use("reference").name());
+        Assertions.assertEquals("reference", Backends.current().name());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Backends.use("no-such-backend"));
+    }
+
+    @Test
+    public void elementwiseConforms() {
+        assertConforms(TOLERANCE, () -> {
+            Tensor x = data(4, 5, 3), row = data(3), col = data(4, 1, 1);
+            List<double[]> out = new ArrayList<>();
+            out.add(x.exp().toArray());
+            out.add(x.permute(2, 0, 1).tanh().toArray());
+            out.add(x.add(row).mul(col).div(x.mul(x).add(1.0)).toArray());
+            out.add(x.narrow(1, 1, 3).sigmoid().sub(row).toArray());
+            Tensor y = x.mul(1.0);
+            y.select(1, 2).addInPlace(row).mulInPlace(2.0);
+            out.add(y.toArray());
+            out.add(x.fma(x, x).toArray());
+            out.add(x.fma(row, col).toArray());
+            out.add(x.mul(1.0).axpy(0.5, x).axpy(-2.0, row).toArray());
+            Tensor z = x.mul(1.0);
+            z.fill(3.0);
+            z.narrow(2, 1, 2).fill(-1.0);
+            out.add(z.toArray());
+            return out;
+        });
+        assertConforms(FLOAT_TOLERANCE, () -> {
+            Tensor x = data(6, 7).to(DType.FLOAT32);
+            return List.of(x.relu().add(x.T().T()).toArray(), x.add(data(7)).toArray(),
+                    x.fma(x, x).toArray(), x.mul(1.0).axpy(2.0, x).toArray(), x.mul(1.0).fill(0.5).toArray());
+        });
+    }
+
+    @Test
+    public void reductionsConform() {
+        assertConforms(TOLERANCE, () -> {
+            Tensor x = data(3, 4, 5);
+            List<double[]> out = new ArrayList<>();
+            for (TensorBackend.Reduction r : TensorBackend.Reduction.values()) {
+                out.add(reduceAll(x, r));
+            }
+            out.add(x.sum(new int[] {0, 2}, false).toArray());
+            out.add(x.mean(1, true).toArray());
+            out.add(x.permute(2, 1, 0).max(new int[] {0, 1}, false).toArray());
+            out.add(x.min(2).toArray());
+            out.add(x.prod(0).toArray());
+            out.add(x.logsumexp(new int[] {1, 2}, true).toArray());
+            out.add(x.var(new int[] {0}, false, false).toArray());
+            out.add(x.std(2).toArray());
+            out.add(Tensor.zeros(2, 0).var(1).toArray());
+            out.add(x.argmax(1).toArray());
+            out.add(x.argmin(2, true).toArray());
+            out.add(Tensor.of(new double[] {1, Double.NaN, 3, 3}, 2, 2).argmax(1).toArray());
+            return out;
+        });
+    }
+
+    private static double[] reduceAll(Tensor x, TensorBackend.Reduction r) {
+        return new double[] {switch (r) {
+            case SUM -> x.sum();
+            case MEAN -> x.mean();
+            case PROD -> x.prod();
+            case MAX -> x.max();
+            case MIN -> x.min();
+            case ARGMAX -> x.argmax();
+            case ARGMIN -> x.argmin();
+            case LOGSUMEXP -> x.logsumexp();
+            case VAR -> x.var();
+            case STD -> x.std();
+            case VAR_BIASED -> x.var(new int[] {0, 1, 2}, false, false).item();
+            case STD_BIASED -> x.std(new int[] {0, 1, 2}, false, false).item();
+        }};
+    }
+
+    @Test
+    public void matmulAndConvolutionConform() {
+        assertConforms(TOLERANCE, () -> {
+            Tensor a = data(2, 1, 5, 6), b = data(3, 6, 4), w = data(3, 2, 3, 2);
+            Tensor img = data(2, 2, 6, 5);
+            return List.of(
+                a.matmul(b).toArray(),
+                data(7, 6).matmul(data(4, 6).T()).toArray(),
+                img.conv2d(w, data(3), new int[] {2, 1}, new int[] {1, 1}, new int[] {1, 2}).toArray(),
+                img.conv2d(w).toArray()
+            );
+        });
+        assertConforms(FLOAT_TOLERANCE, () -> List.of(data(5, 9).to(DType.FLOAT32).matmul(data(9, 3).to(DType.FLOAT32)).toArray()));
+    }
+
+    @Test
+    public void randomFillsConform() {
+        // bit-for-bit: the values depend only on the seed, never on the backend
+        assertConforms(0.0, () -> {
+            Generator g = new Generator(5);
+            return List.of(g.randn(1000).toArray(), g.uniform(-1, 1, 10, 10).toArray(), g.truncatedNormal(0, 1, -0.5, 0.5, 300).toArray());
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package primitives;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import com.github.lambdv.primitives.Simd;
+import com.github.lambdv.primitives.Tensor;
+import java.util.function.Supplier;
+
+public class SimdTest {
+    static final double TOLERANCE = 1e-9;
+
+    @AfterEach
+    public void restore() {
+        Simd.setEnabled(true);
+    }
+
+    // runs f on the scalar path and on the vector path and checks both agree
+    private static void assertSamePaths(Supplier<double[]> f) {
+        Assumptions.assumeTrue(Simd.isAvailable(), "vector kernels not available; run with -Pvector");
+        Simd.setEnabled(false);
+        double[] scalar = f.get();
+        Simd.setEnabled(true);
+        Assertions.assertTrue(Simd.isEnabled());
+        double[] vector = f.get();
+        Assertions.assertArrayEquals(scalar, vector, TOLERANCE);
+    }
+
+    @Test
+    public void disablingFallsBackToScalar() {
+        Simd.setEnabled(false);
+        Assertions.assertFalse(Simd.isEnabled());
+        Tensor a = Tensor.arange(10);
+        Assertions.assertEquals(45.0, a.sum());
+    }
+
+    @Test
+    public void elementwiseMatchesScalar() {
+        // odd length so the scalar tail loop runs as well
+        Tensor a = Tensor.randn(1031);
+        Tensor b = Tensor.rand(1031).add(0.5);
+        assertSamePaths(() -> a.add(b).toArray());
+        assertSamePaths(() -> a.sub(b).toArray());
+        assertSamePaths(() -> a.mul(b).toArray());
+        assertSamePaths(() -> a.div(b).toArray());
+        assertSamePaths(() -> a.fma(b, a).toArray());
+        assertSamePaths(() -> a.reshape(1, 1031).add(b).toArray());
+    }
+
+    @Test
+    public void activationsMatchScalar() {
+        Tensor a = Tensor.randn(37, 29).mul(4.0);
+        assertSamePaths(() -> a.relu().toArray());
+        assertSamePaths(() -> a.sigmoid().toArray());
+        assertSamePaths(() -> a.tanh().toArray());
+    }
+
+    @Test
+    public void reductionsMatchScalar() {
+        Tensor a = Tensor.randn(100_003);
+        Tensor b = Tensor.randn(100_003);
+        assertSamePaths(() -> new double[]{a.sum(), a.mean(), a.dot(b)});
+        Tensor m = Tensor.randn(64, 45);
+        assertSamePaths(() -> m.sum(1).toArray());
+    }
+
+    @Test
+    public void gemmMatchesScalar() {
+        Tensor a = Tensor.randn(131, 70);
+        Tensor b = Tensor.randn(70, 67);
+        assertSamePaths(() -> a.matmul(b).toArray());
+        Tensor bt = Tensor.randn(67, 70).T();
+        assertSamePaths(() -> a.matmul(bt).toArray());
+    }
+}
@@ -7,8 +7,20 @@ import com.github.lambdv.nn.ActivationFunction;
 import java.util.ArrayList;
 import com.github.lambdv.nn.ActivationFunction;
 import java.util.List;
+import com.github.lambdv.primitives.DType;
+import com.github.lambdv.primitives.Generator;
+import com.github.lambdv.primitives.LazyTensor;
+import com.github.lambdv.primitives.SparseTensor;
 import com.github.lambdv.primitives.Tensor;
+import com.github.lambdv.primitives.TensorScope;
+import com.github.lambdv.primitives.Tensors;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.stream.IntStream;
 
 
@@ -48,5 +60,734 @@ public class TensorTest {
         Object res = l.get(0);
         //Assertions.assertTrue(res instanceof List<?> x && x instanceof List<Double>);
     }
+
+    @Test
+    public void elementwiseBroadcastsScalarRowAndColumn() {
+        Tensor a = Tensor.arange(6).reshape(2, 3);
+
+        Assertions.assertArrayEquals(new double[]{10, 11, 12, 13, 14, 15}, a.add(Tensor.of(new double[]{10}, 1)).toArray());
+        Assertions.assertArrayEquals(new double[]{0, 2, 4, 3, 5, 7}, a.add(Tensor.arange(3)).toArray());
+        Assertions.assertArrayEquals(new double[]{0, 1, 2, 4, 5, 6}, a.add(Tensor.arange(2).reshape(2, 1)).toArray());
+        Assertions.assertArrayEquals(new double[]{0, 0, 0, 0, 1, 2}, Tensor.arange(2).reshape(2, 1).mul(Tensor.arange(3)).toArray());
+    }
+
+    @Test
+    public void opsOnStridedViewsMatchContiguousCopies() {
+        Tensor a = Tensor.arange(24).reshape(2, 3, 4);
+        Tensor p = a.permute(2, 0, 1);
+        Tensor c = p.contiguous();
+
+        Assertions.assertArrayEquals(c.exp().toArray(), p.exp().toArray());
+        Assertions.assertArrayEquals(c.mul(c).toArray(), p.mul(p).toArray());
+        Assertions.assertArrayEquals(c.sub(Tensor.arange(3)).toArray(), p.sub(Tensor.arange(3)).toArray());
+        Assertions.assertEquals(c.sum(), p.sum());
+        Assertions.assertArrayEquals(c.sum(1).toArray(), p.sum(1).toArray());
+        Assertions.assertArrayEquals(c.sum(2, true).toArray(), p.sum(2, true).toArray());
+        Assertions.assertArrayEquals(new double[]{1, 5, 9}, p.getSlice(1, 0).toArray());
+        Assertions.assertEquals(p.get(3, 1, 2), c.get(3, 1, 2));
+    }
+
+    @Test
+    public void reduceAlongDim() {
+        Tensor a = Tensor.arange(6).reshape(2, 3);
+        Assertions.assertArrayEquals(new double[]{3, 5, 7}, a.sum(0).toArray());
+        Assertions.assertArrayEquals(new double[]{3, 12}, a.sum(1).toArray());
+        Assertions.assertArrayEquals(new int[]{2, 1}, a.sum(1, true).shape());
+        Assertions.assertArrayEquals(new double[]{1, 4}, a.mean(1).toArray());
+        Assertions.assertEquals(15.0, a.sum());
+        Assertions.assertEquals(5.0, a.T().getSlice(1).dot(Tensor.of(new double[]{1, 1}, 2)));
+    }
+
+    @Test
+    public void reductionsCoverEveryOpAndDimSet() {
+        Tensor a = Tensor.of(new double[]{3, -1, 4, 1, -5, 9, 2, 6, -5, 3, 5, 8}, 2, 3, 2);
+        Assertions.assertArrayEquals(new double[]{5, 9}, a.max(new int[]{0, 1}, false).toArray());
+        Assertions.assertArrayEquals(new int[]{1, 3, 1}, a.min(new int[]{0, 2}, true).shape());
+        Assertions.assertArrayEquals(new double[]{-1, -5, -5}, a.min(new int[]{0, 2}, true).toArray());
+        Assertions.assertArrayEquals(new double[]{1, 2, 2, 2}, a.permute(0, 2, 1).argmax(2).toArray());
+        Assertions.assertArrayEquals(new double[]{540, -7200}, a.prod(new int[]{1, 2}, false).toArray());
+        Assertions.assertEquals(5L, a.argmax());
+        Assertions.assertEquals(4L, a.argmin());
+        Assertions.assertEquals(2.5, a.mean(new int[]{0, 1, 2}, false).item(), 1e-12);
+        Assertions.assertEquals(2.5, a.mean(), 1e-12);
+
+        double[] row = {3, -1, 4, 1, -5, 9};
+        double mean = Arrays.stream(row).average().orElseThrow();
+        double m2 = Arrays.stream(row).map(v -> (v - mean) * (v - mean)).sum();
+        Assertions.assertEquals(m2 / 5, a.getSlice(0).var(), 1e-12);
+        Assertions.assertEquals(Math.sqrt(m2 / 6), a.std(new int[]{1, 2}, false, false).toArray()[0], 1e-12);
+        double lse = Math.log(Arrays.stream(row).map(Math::exp).sum());
+        Assertions.assertEquals(lse, a.logsumexp(new int[]{1, 2}, false).toArray()[0], 1e-12);
+        Assertions.assertEquals(1000 + Math.log(2), Tensor.full(1000, 2).logsumexp(), 1e-12);
+        // too few elements for the correction leave the variance undefined
+        Assertions.assertTrue(Double.isNaN(Tensor.zeros(0).var()));
+        Assertions.assertTrue(Double.isNaN(Tensor.zeros(2, 0).var(1).get(1)));
+        Assertions.assertTrue(Double.isNaN(Tensor.ones(1).var()));
+        Assertions.assertEquals(0.0, Tensor.ones(1).std(new int[]{0}, false, false).item());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensor.zeros(0, 2).max(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.sum(new int[]{1, 1}, false));
+    }
+
+    @Test
+    public void longReductionsAreAccurateAndFloatKeepsDtype() {
+        // summed left to right, a million 0.1s drift from the exact total by 1.6e-6
+        int n = 1 << 20;
+        double[] v = new double[n];
+        Arrays.fill(v, 0.1);
+        Tensor t = Tensor.of(v, n);
+        double exact = new BigDecimal(0.1).multiply(BigDecimal.valueOf(n)).doubleValue();
+        Assertions.assertEquals(exact, t.sum(), 1e-9);
+        Assertions.assertEquals(t.sum(), t.reshape(4, n / 4).sum(new int[]{0, 1}, false).item());
+
+        Tensor f = Tensor.of(new float[]{1, 2, 3, 4}, 2, 2);
+        Assertions.assertEquals(DType.FLOAT32, f.max(1).dtype());
+        Assertions.assertEquals(DType.FLOAT64, f.argmax(1).dtype());
+        Assertions.assertArrayEquals(new double[]{2, 3}, f.mean(0).toArray(), 1e-6);
+    }
+
+    private static double[] naiveMatmul(Tensor a, Tensor b) {
+        int m = a.shape()[0], k = a.shape()[1], n = b.shape()[1];
+        double[] out = new double[m * n];
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < n; j++) {
+                double s = 0.0;
+                for (int p = 0; p < k; p++) s += a.get(i, p) * b.get(p, j);
+                out[i * n + j] = s;
+            }
+        return out;
+    }
+
+    @Test
+    public void matmulMatchesNaiveProduct() {
+        int[][] dims = {{2, 3, 2}, {7, 5, 3}, {33, 65, 17}, {130, 300, 270}};
+        for (int[] d : dims) {
+            Tensor a = Tensor.randn(d[0], d[1]);
+            Tensor b = Tensor.randn(d[1], d[2]);
+            Assertions.assertArrayEquals(naiveMatmul(a, b), a.matmul(b).toArray(), 1e-9);
+        }
+    }
+
+    @Test
+    public void matmulConsumesTransposedViews() {
+        Tensor a = Tensor.randn(70, 40);
+        Tensor b = Tensor.randn(90, 40);
+        Tensor bt = b.T();
+        Assertions.assertArrayEquals(naiveMatmul(a, bt.contiguous()), a.matmul(bt).toArray(), 1e-9);
+        Tensor at = Tensor.randn(40, 70).T();
+        Assertions.assertArrayEquals(naiveMatmul(at.contiguous(), bt.contiguous()), at.matmul(bt).toArray(), 1e-9);
+    }
+
+    @Test
+    public void batchedMatmulBroadcastsBatchDims() {
+        Tensor a = Tensor.randn(3, 1, 5, 4);
+        Tensor b = Tensor.randn(2, 4, 6);
+        Tensor c = a.matmul(b);
+        Assertions.assertArrayEquals(new int[]{3, 2, 5, 6}, c.shape());
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 2; j++) {
+                double[] expected = naiveMatmul(a.getSlice(i, 0), b.getSlice(j));
+                Assertions.assertArrayEquals(expected, c.getSlice(i, j).toArray(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void batchedMatmulOnPermutedViews() {
+        // [k, batch, m] viewed as [batch, m, k] without a copy
+        Tensor a = Tensor.randn(4, 8, 3).permute(1, 2, 0);
+        Tensor w = Tensor.randn(4, 2);
+        Tensor c = a.matmul(w);
+        Assertions.assertArrayEquals(new int[]{8, 3, 2}, c.shape());
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertArrayEquals(naiveMatmul(a.getSlice(i), w), c.getSlice(i).toArray(), 1e-9);
+        }
+    }
+
+    @Test
+    public void wrapSharesTheArray() {
+        double[] raw = {1, 2, 3, 4};
+        Tensor w = Tensor.wrap(raw, 2, 2);
+        Tensor o = Tensor.of(raw, 2, 2);
+        raw[0] = 9;
+        Assertions.assertEquals(9.0, w.get(0, 0));
+        Assertions.assertEquals(1.0, o.get(0, 0));
+    }
+
+    @Test
+    public void inPlaceOpsMutateAndBroadcast() {
+        double[] raw = {0, 1, 2, 3, 4, 5};
+        Tensor a = Tensor.wrap(raw, 2, 3);
+        Assertions.assertSame(a, a.addInPlace(Tensor.arange(3)));
+        Assertions.assertArrayEquals(new double[]{0, 2, 4, 3, 5, 7}, raw);
+        a.mulInPlace(2.0).subInPlace(Tensor.ones(2, 1));
+        Assertions.assertArrayEquals(new double[]{-1, 3, 7, 5, 9, 13}, raw);
+        a.axpy(0.5, Tensor.full(2.0, 2, 3));
+        Assertions.assertArrayEquals(new double[]{0, 4, 8, 6, 10, 14}, raw);
+        a.mapInPlace(x -> x / 2);
+        Assertions.assertArrayEquals(new double[]{0, 2, 4, 3, 5, 7}, raw);
+
+        // writing through a transposed view
+        a.T().addInPlace(Tensor.of(new double[]{100, 200}, 2));
+        Assertions.assertArrayEquals(new double[]{100, 102, 104, 203, 205, 207}, raw);
+
+        // operands overlapping the destination through another view are read before anything is written
+        Tensor x = Tensor.of(new double[]{1, 2, 3, 4}, 2, 2);
+        x.addInPlace(x.T());
+        Assertions.assertArrayEquals(new double[]{2, 5, 5, 8}, x.toArray());
+        Tensor m = Tensor.of(new double[]{1, 2, 3, 4}, 4);
+        m.narrow(0, 1, 3).addInPlace(m.narrow(0, 0, 3));
+        Assertions.assertArrayEquals(new double[]{1, 3, 5, 7}, m.toArray());
+        m.narrow(0, 1, 3).axpy(2.0, m.narrow(0, 0, 3));
+        Assertions.assertArrayEquals(new double[]{1, 5, 11, 17}, m.toArray());
+        m.narrow(0, 0, 3).copyFrom(m.narrow(0, 1, 3));
+        Assertions.assertArrayEquals(new double[]{5, 11, 17, 17}, m.toArray());
+        x.mul(x, x);
+        Assertions.assertArrayEquals(new double[]{4, 25, 25, 64}, x.toArray());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensor.zeros(3).addInPlace(Tensor.zeros(2, 3)));
+    }
+
+    @Test
+    public void destinationVariantsReuseTheBuffer() {
+        Tensor a = Tensor.randn(4, 5);
+        Tensor b = Tensor.randn(5);
+        Tensor out = Tensor.zeros(4, 5);
+        Assertions.assertSame(out, a.add(b, out));
+        Assertions.assertArrayEquals(a.add(b).toArray(), out.toArray());
+        a.sigmoid(out);
+        Assertions.assertArrayEquals(a.sigmoid().toArray(), out.toArray());
+
+        Tensor w = Tensor.randn(5, 3);
+        Tensor mm = Tensor.zeros(3, 4).T();
+        a.matmul(w, mm);
+        Assertions.assertArrayEquals(naiveMatmul(a, w), mm.toArray(), 1e-9);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.matmul(w, Tensor.zeros(4, 4)));
+
+        Tensor colSums = Tensor.zeros(5);
+        Assertions.assertSame(colSums, a.sum(new int[] {0}, false, colSums));
+        Assertions.assertArrayEquals(a.sum(0).toArray(), colSums.toArray(), 1e-12);
+        Tensor rowSums = Tensor.zeros(2, 4).select(0, 1);
+        a.sum(new int[] {1}, false, rowSums);
+        Assertions.assertArrayEquals(a.sum(1).toArray(), rowSums.toArray(), 1e-12);
+        Tensor strided = Tensor.zeros(4, 2).select(1, 0);
+        a.sum(new int[] {1}, false, strided);
+        Assertions.assertArrayEquals(a.sum(1).toArray(), strided.toArray(), 1e-12);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.sum(new int[] {0}, true, colSums));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.sum(new int[] {1}, false, a.select(1, 0)));
+    }
+
+    @Test
+    public void float32TensorsComputeAndPromote() {
+        Tensor a = Tensor.randn(6, 7);
+        Tensor b = Tensor.randn(7);
+        Tensor af = a.to(DType.FLOAT32);
+        Tensor bf = b.to(DType.FLOAT32);
+        Assertions.assertEquals(DType.FLOAT32, af.dtype());
+        Assertions.assertEquals(DType.FLOAT32, af.add(bf).dtype());
+        Assertions.assertEquals(DType.FLOAT64, af.add(b).dtype());
+        Assertions.assertArrayEquals(a.add(b).toArray(), af.add(bf).toArray(), 1e-5);
+        Assertions.assertArrayEquals(a.T().relu().toArray(), af.T().relu().toArray(), 1e-6);
+        Assertions.assertArrayEquals(a.sum(0).toArray(), af.sum(0).toArray(), 1e-5);
+        Assertions.assertEquals(a.sum(), af.sum(), 1e-4);
+
+        Tensor w = Tensor.randn(2, 7, 40);
+        Tensor cf = af.matmul(w.to(DType.FLOAT32));
+        Assertions.assertEquals(DType.FLOAT32, cf.dtype());
+        Assertions.assertArrayEquals(a.matmul(w).toArray(), cf.toArray(), 1e-4);
+
+        // writes into a float buffer narrow the double operand
+        Tensor out = Tensor.zeros(DType.FLOAT32, 6, 7);
+        a.mul(bf, out);
+        Assertions.assertArrayEquals(a.mul(b).toArray(), out.toArray(), 1e-5);
+
+        float[] raw = {1, 2, 3, 4};
+        Tensor wrapped = Tensor.wrap(raw, 2, 2);
+        wrapped.addInPlace(1.5);
+        Assertions.assertArrayEquals(new float[]{2.5f, 3.5f, 4.5f, 5.5f}, raw);
+        Assertions.assertArrayEquals(new float[]{2.5f, 4.5f}, wrapped.T().getSlice(0).toFloatArray());
+    }
+
+    @Test
+    public void offHeapTensorsMatchHeapResults() {
+        Tensor h = Tensor.randn(4, 6);
+        try (Tensor o = Tensor.offHeap(4, 6)) {
+            Assertions.assertTrue(o.isOffHeap());
+            o.copyFrom(h);
+            Assertions.assertEquals(24L, o.numel());
+            Assertions.assertArrayEquals(h.T().toArray(), o.T().toArray());
+            Assertions.assertArrayEquals(h.reshape(2, 12).unsqueeze(0).squeeze().toArray(), o.reshape(2, 12).unsqueeze(0).squeeze().toArray());
+
+            Tensor r = o.permute(1, 0).relu().add(Tensor.ones(4));
+            Assertions.assertTrue(r.isOffHeap());
+            Assertions.assertArrayEquals(h.T().relu().add(Tensor.ones(4)).toArray(), r.toArray());
+            Assertions.assertArrayEquals(h.sum(1).toArray(), o.sum(1).toArray(), 1e-12);
+            Assertions.assertEquals(h.sum(), o.sum(), 1e-12);
+
+            Tensor w = Tensor.randn(6, 3);
+            Assertions.assertArrayEquals(h.matmul(w).toArray(), o.matmul(w).toArray(), 1e-12);
+
+            Tensor f = Tensor.offHeap(DType.FLOAT32, 2, 2);
+            f.set(1.5, 1, 0);
+            Assertions.assertEquals(1.5, f.to(DType.FLOAT64).get(1, 0));
+            f.close();
+            Assertions.assertThrows(IllegalStateException.class, () -> f.get(1, 0));
+        }
+    }
+
+    // the surefire configuration sets songbird.offheap.chunkShift=10, so these span several 1024-element chunks
+    @Test
+    public void offHeapTensorsSpanChunkBoundaries() throws Exception {
+        Tensor h = new Generator(4).randn(3, 1500);
+        try (Tensor o = Tensor.offHeap(3, 1500)) {
+            o.copyFrom(h);
+            Assertions.assertEquals(4500L, o.numel());
+            Assertions.assertArrayEquals(h.toArray(), o.toArray());
+            Assertions.assertEquals(h.get(0, 1023), o.get(0, 1023));
+            Assertions.assertEquals(h.get(0, 1024), o.get(0, 1024));
+            o.set(7.0, 2, 48); // flat element 3048, the first of the fourth chunk
+            h.set(7.0, 2, 48);
+            Assertions.assertEquals(7.0, o.reshape(4500).get(3048));
+
+            // views, reductions and GEMMs whose rows straddle chunks
+            Assertions.assertArrayEquals(h.narrow(1, 1000, 100).toArray(), o.narrow(1, 1000, 100).toArray());
+            Assertions.assertArrayEquals(h.T().exp().toArray(), o.T().exp().toArray());
+            Assertions.assertArrayEquals(h.sum(1).toArray(), o.sum(1).toArray(), 1e-9);
+            Assertions.assertArrayEquals(h.sum(0).toArray(), o.sum(0).toArray(), 1e-12);
+            Tensor w = new Generator(5).randn(1500, 4);
+            Assertions.assertArrayEquals(h.matmul(w).toArray(), o.matmul(w).toArray(), 1e-9);
+            Tensor f = o.to(DType.FLOAT32);
+            Assertions.assertTrue(f.isOffHeap());
+            Assertions.assertArrayEquals(h.toFloatArray(), f.toFloatArray());
+            f.close();
+        }
+
+        // a kernel racing close either finishes its pass or gets an IllegalStateException, never freed memory
+        Tensor racing = Tensor.offHeap(4096).fill(1.0);
+        Thread reader = new Thread(() -> {
+            try {
+                for (;;) Assertions.assertEquals(4096.0, racing.sum());
+            } catch (IllegalStateException closed) {
+                // expected once close has begun
+            }
+        });
+        reader.start();
+        Thread.sleep(20);
+        racing.close();
+        racing.close();
+        reader.join(10_000);
+        Assertions.assertFalse(reader.isAlive());
+        Assertions.assertThrows(IllegalStateException.class, () -> racing.get(0));
+    }
+
+    // off-heap kernels pay for buffer reads and chunk arithmetic, but only one close guard per pass
+    @Test
+    public void offHeapKernelsStayWithinASmallFactorOfHeap() {
+        int n = 1 << 18;
+        Tensor h = new Generator(6).randn(n), hOut = Tensor.zeros(n);
+        try (Tensor o = Tensor.offHeap(n); Tensor oOut = Tensor.offHeap(n)) {
+            o.copyFrom(h);
+            double heap = bestSeconds(() -> h.mul(h, hOut).sum());
+            double offHeap = bestSeconds(() -> o.mul(o, oOut).sum());
+            Assertions.assertEquals(h.mul(h).sum(), o.mul(o, oOut).sum(), 1e-9);
+            Assertions.assertTrue(offHeap < 10 * heap, "off-heap took " + offHeap / heap + "x as long as heap");
+        }
+    }
+
+    private static double bestSeconds(Runnable run) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < 15; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    @Test
+    public void slicingViewsShareStorageAndFeedEveryOp() throws Exception {
+        Tensor data = Tensor.arange(40).reshape(10, 4);
+        Tensor batch = data.narrow(0, 4, 3);
+        Assertions.assertArrayEquals(new int[]{3, 4}, batch.shape());
+        Assertions.assertArrayEquals(new double[]{16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27}, batch.toArray());
+        Assertions.assertArrayEquals(new double[]{2, 6, 10, 14, 18, 22, 26, 30, 34, 38}, data.select(1, 2).toArray());
+        Assertions.assertArrayEquals(new double[]{5, 13, 21, 29, 37}, data.slice(0, 1, 10, 2).select(1, 1).toArray());
+        Assertions.assertArrayEquals(new double[]{4, 5, 6, 7}, data.select(0, 1).toArray());
+
+        // every op sees the view's elements, not the start of its storage
+        Assertions.assertArrayEquals(Tensor.of(batch.toArray(), 3, 4).exp().toArray(), batch.exp().toArray());
+        Assertions.assertArrayEquals(Tensor.of(batch.toArray(), 3, 4).add(Tensor.arange(4)).toArray(), batch.add(Tensor.arange(4)).toArray());
+        Assertions.assertArrayEquals(Tensor.of(batch.toArray(), 3, 4).matmul(data.narrow(0, 0, 4)).toArray(), batch.matmul(data.narrow(0, 0, 4)).toArray());
+        Assertions.assertEquals(258.0, batch.sum());
+        Assertions.assertArrayEquals(new double[]{70, 86, 102}, batch.reshape(3, 2, 2).sum(new int[]{1, 2}, false).toArray());
+        Assertions.assertEquals(21.0, data.narrow(0, 5, 1).narrow(1, 1, 1).item());
+        Assertions.assertEquals(data.narrow(1, 1, 2).get(3, 1), data.get(3, 2));
+
+        // writes go through to the parent
+        data.narrow(1, 0, 1).mulInPlace(0.0);
+        data.select(0, 9).fill(-1);
+        Assertions.assertArrayEquals(new double[]{-1, -1, -1, -1}, data.select(0, 9).toArray());
+        Assertions.assertEquals(0.0, data.get(3, 0));
+
+        Path file = Files.createTempFile("slice", ".sbt");
+        try {
+            Tensors.save(file, Map.of("b", batch));
+            Assertions.assertArrayEquals(batch.toArray(), Tensors.mmap(file).get("b").toArray());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        Tensor w = Tensor.arange(6).reshape(3, 2).requiresGrad(true);
+        w.slice(0, 0, 3, 2).select(1, 1).sumAll().backward();
+        Assertions.assertArrayEquals(new double[]{0, 1, 0, 0, 0, 1}, w.grad().toArray());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> data.narrow(0, 8, 3));
+    }
+
+    @Test
+    public void scopesRecycleTemporariesButNotKeptResults() {
+        Tensor w = Tensor.randn(8, 4).requiresGrad(true);
+        Tensor x = Tensor.randn(16, 8);
+        TensorScope.clearPool();
+        TensorScope.resetCounters();
+        Tensor first = null;
+        long firstStep = 0;
+        for (int step = 0; step < 3; step++) {
+            try (TensorScope scope = TensorScope.open()) {
+                x.matmul(w).tanh().sum(1).meanAll().backward();
+                Tensor kept = scope.keep(x.matmul(w.detach()).relu());
+                if (first == null) first = kept;
+            }
+            if (step == 0) firstStep = TensorScope.allocations();
+        }
+        // later steps only allocate what escapes: the kept result and the accumulated gradient
+        Assertions.assertTrue(TensorScope.allocations() - firstStep <= 4, "allocations=" + TensorScope.allocations());
+        Assertions.assertTrue(TensorScope.reuses() >= 2 * (firstStep - 2));
+        Assertions.assertTrue(TensorScope.recycled() > 0);
+        Assertions.assertArrayEquals(x.matmul(w.detach()).relu().toArray(), first.toArray());
+
+        Tensor once = Tensor.of(w.toArray(), 8, 4).requiresGrad(true);
+        x.matmul(once).tanh().sum(1).meanAll().backward();
+        Assertions.assertArrayEquals(once.grad().mul(3.0).toArray(), w.grad().toArray(), 1e-12);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> {
+            try (TensorScope outer = TensorScope.open(); TensorScope inner = TensorScope.open()) {
+                outer.close();
+            }
+        });
+    }
+
+    @Test
+    public void tensorsLeftInAClosedScopeThrowInsteadOfSeeingTheNextOne() {
+        Tensor leaked, view, kept, outer;
+        try (TensorScope scope = TensorScope.open()) {
+            leaked = Tensor.ones(3).add(1);
+            view = leaked.narrow(0, 1, 2);
+            kept = scope.keep(Tensor.ones(3).add(2));
+            try (TensorScope inner = TensorScope.open()) {
+                outer = inner.keep(Tensor.ones(3).add(3));
+            }
+            Assertions.assertArrayEquals(new double[]{4, 4, 4}, outer.toArray());
+        }
+        try (TensorScope scope = TensorScope.open()) {
+            Tensor.zeros(3).add(7);
+            Tensor.zeros(3).add(8);
+        }
+        Assertions.assertThrows(IllegalStateException.class, leaked::toArray);
+        Assertions.assertThrows(IllegalStateException.class, () -> view.get(0));
+        Assertions.assertThrows(IllegalStateException.class, () -> leaked.add(1));
+        Assertions.assertThrows(IllegalStateException.class, () -> outer.sum());
+        Assertions.assertArrayEquals(new double[]{3, 3, 3}, kept.toArray());
+        Assertions.assertArrayEquals(new double[]{3, 3}, kept.narrow(0, 0, 2).toArray());
+
+        // the scope tracks views weakly, so slices dropped while it is open can still be collected
+        try (TensorScope scope = TensorScope.open()) {
+            Tensor x = Tensor.ones(64).add(1);
+            WeakReference<Tensor> dropped = new WeakReference<>(x.narrow(0, 8, 8));
+            for (int i = 0; i < 100 && dropped.get() != null; i++) {
+                System.gc();
+                x.narrow(0, i % 64, 1);
+            }
+            Assertions.assertNull(dropped.get(), "a dropped view stayed reachable through its scope");
+            Assertions.assertEquals(128.0, x.sum());
+        }
+    }
+
+    @Test
+    public void savedTensorsMapBackWithoutCopying() throws Exception {
+        Path file = Files.createTempFile("songbird", ".sbt");
+        try {
+            Tensor w = Tensor.randn(3, 5);
+            Tensor e = Tensor.randn(4, 2).to(DType.FLOAT32);
+            Map<String, Tensor> saved = new LinkedHashMap<>();
+            saved.put("weights.T", w.T());
+            saved.put("embeddings", e);
+            Tensors.save(file, saved);
+
+            Map<String, Tensor> loaded = Tensors.mmap(file);
+            Assertions.assertEquals(List.of("weights.T", "embeddings"), List.copyOf(loaded.keySet()));
+            Tensor lw = loaded.get("weights.T");
+            Assertions.assertTrue(lw.isOffHeap());
+            Assertions.assertArrayEquals(new int[]{5, 3}, lw.shape());
+            Assertions.assertArrayEquals(w.T().toArray(), lw.toArray());
+            Assertions.assertEquals(DType.FLOAT32, loaded.get("embeddings").dtype());
+            Assertions.assertArrayEquals(e.toFloatArray(), loaded.get("embeddings").toFloatArray());
+            Assertions.assertArrayEquals(w.matmul(w.T()).toArray(), lw.T().matmul(lw).toArray(), 1e-12);
+            loaded.values().forEach(Tensor::close);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void lazyChainsMatchEagerResults() {
+        Tensor x = Tensor.randn(3, 1500);
+        Tensor w = Tensor.randn(1500);
+        Tensor b = Tensor.randn(3, 1);
+        Tensor eager = x.mul(w).add(b).sigmoid().mul(x);
+        LazyTensor lazy = x.lazy().mul(w).add(b).sigmoid().mul(x);
+        Assertions.assertArrayEquals(new int[]{3, 1500}, lazy.shape());
+        Assertions.assertArrayEquals(eager.toArray(), lazy.eval().toArray(), 1e-12);
+        Assertions.assertArrayEquals(eager.toArray(), lazy.toArray(), 1e-12);
+        Assertions.assertEquals(eager.sum(), lazy.sum(), 1e-9);
+        // the same compensated chunk tree as the eager sum, even where plain summation would drift
+        LazyTensor spread = new Generator(8).randn(70001).lazy().mul(1e8).add(0.1);
+        Assertions.assertEquals(spread.eval().sum(), spread.sum());
+        Assertions.assertEquals(spread.eval().mean(), spread.mean());
+        Assertions.assertArrayEquals(eager.sum(1).toArray(), lazy.sum(1).toArray(), 1e-9);
+        Assertions.assertArrayEquals(eager.sum(0).toArray(), lazy.sum(0).toArray(), 1e-9);
+
+        // strided inputs and a node shared by two branches
+        LazyTensor t = x.T().lazy().exp();
+        Assertions.assertArrayEquals(x.T().exp().mul(x.T().exp()).toArray(), t.mul(t).toArray(), 1e-12);
+        Assertions.assertEquals(2.0, Tensor.ones(1).lazy().add(1.0).item());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> x.lazy().add(Tensor.zeros(4)));
+    }
+
+    @Test
+    public void sparseMatmulMatchesDense() {
+        double[] d = new double[300 * 200];
+        for (int i = 0; i < d.length; i += 37) d[i] = (i % 7) - 3;
+        Tensor dense = Tensor.of(d, 300, 200);
+        SparseTensor s = SparseTensor.fromDense(dense);
+        Assertions.assertEquals(SparseTensor.Layout.CSR, s.layout());
+        Assertions.assertTrue(s.nnz() < d.length / 30);
+        Assertions.assertArrayEquals(d, s.toDense().toArray());
+        Assertions.assertArrayEquals(d, s.toCoo().toDense().toArray());
+        Assertions.assertEquals(d[37 * 5], s.get(0, 37 * 5));
+
+        Tensor b = Tensor.randn(64, 200);
+        Tensor a = Tensor.randn(50, 300);
+        Assertions.assertArrayEquals(dense.matmul(b.T()).toArray(), s.matmul(b.T()).toArray(), 1e-9);
+        Assertions.assertArrayEquals(a.matmul(dense).toArray(), a.matmul(s).toArray(), 1e-9);
+        Assertions.assertArrayEquals(dense.T().toArray(), s.transpose().toDense().toArray());
+
+        // duplicates are summed, and COO keeps any rank
+        SparseTensor c = SparseTensor.coo(new int[]{2, 2, 3}, new int[][]{{1, 0, 1}, {0, 1, 0}, {2, 2, 2}}, new double[]{1, 2, 3});
+        Assertions.assertEquals(2, c.nnz());
+        Assertions.assertEquals(4.0, c.get(1, 0, 2));
+        Assertions.assertThrows(IllegalArgumentException.class, c::toCsr);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> s.matmul(Tensor.ones(3, 3)));
+
+        // the dense operand gets a gradient
+        Tensor w = Tensor.randn(200, 4).requiresGrad(true);
+        s.matmul(w).sumAll().backward();
+        Assertions.assertArrayEquals(dense.T().matmul(Tensor.ones(300, 4)).toArray(), w.grad().toArray(), 1e-9);
+    }
+
+    // direct definition of conv2d, for checking the im2col path
+    private static double[] naiveConv2d(Tensor x, Tensor w, int s, int p, int d) {
+        int[] xs = x.shape(), ws = w.shape();
+        int oh = (xs[2] + 2 * p - d * (ws[2] - 1) - 1) / s + 1, ow = (xs[3] + 2 * p - d * (ws[3] - 1) - 1) / s + 1;
+        double[] out = new double[xs[0] * ws[0] * oh * ow];
+        int at = 0;
+        for (int n = 0; n < xs[0]; n++)
+            for (int o = 0; o < ws[0]; o++)
+                for (int oy = 0; oy < oh; oy++)
+                    for (int ox = 0; ox < ow; ox++, at++)
+                        for (int c = 0; c < xs[1]; c++)
+                            for (int i = 0; i < ws[2]; i++)
+                                for (int j = 0; j < ws[3]; j++) {
+                                    int y = oy * s - p + i * d, z = ox * s - p + j * d;
+                                    if (y >= 0 && y < xs[2] && z >= 0 && z < xs[3]) out[at] += x.get(n, c, y, z) * w.get(o, c, i, j);
+                                }
+        return out;
+    }
+
+    @Test
+    public void convolutionAndPoolingMatchDefinitions() {
+        Tensor x = Tensor.randn(3, 2, 7, 6);
+        Tensor w = Tensor.randn(4, 2, 3, 2);
+        Assertions.assertArrayEquals(naiveConv2d(x, w, 1, 0, 1), x.conv2d(w).toArray(), 1e-12);
+        Tensor y = x.conv2d(w, null, new int[]{2, 2}, new int[]{1, 1}, new int[]{2, 2});
+        Assertions.assertArrayEquals(new int[]{3, 4, 3, 3}, y.shape());
+        Assertions.assertArrayEquals(naiveConv2d(x, w, 2, 1, 2), y.toArray(), 1e-12);
+        Tensor bias = Tensor.of(new double[]{1, 2, 3, 4}, 4);
+        Assertions.assertArrayEquals(x.conv2d(w).add(bias.reshape(4, 1, 1)).toArray(), x.conv2d(w, bias, 1, 0).toArray(), 1e-12);
+
+        // conv1d is conv2d over a height of 1
+        Tensor seq = Tensor.of(new double[]{1, 2, 3, 4, 5}, 1, 1, 5);
+        Tensor k = Tensor.of(new double[]{1, 0, -1}, 1, 1, 3);
+        Assertions.assertArrayEquals(new double[]{-2, -2, -2}, seq.conv1d(k).toArray());
+        Assertions.assertArrayEquals(new double[]{-2, -2, -2, -2, 4}, seq.conv1d(k, null, 1, 1, 1).toArray());
+
+        Tensor img = Tensor.arange(16).reshape(1, 1, 4, 4);
+        Assertions.assertArrayEquals(new double[]{5, 7, 13, 15}, img.maxPool2d(2).toArray());
+        Assertions.assertArrayEquals(new double[]{2.5, 4.5, 10.5, 12.5}, img.avgPool2d(2).toArray());
+        Assertions.assertArrayEquals(new double[]{0, 2, 3, 8, 10, 11, 12, 14, 15},
+            img.maxPool2d(new int[]{2, 2}, new int[]{2, 2}, new int[]{1, 1}, new int[]{1, 1}).toArray());
+        Assertions.assertArrayEquals(new double[]{2, 4}, seq.maxPool1d(2).toArray());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> x.conv2d(Tensor.randn(4, 3, 3, 3)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> x.conv2d(Tensor.randn(1, 2, 9, 1)));
+    }
+
+    @Test
+    public void seededGeneratorsAreReproducibleAndWellDistributed() {
+        Generator a = new Generator(7), b = new Generator(7);
+        Tensor first = a.randn(1 << 17);
+        Assertions.assertArrayEquals(first.toArray(), b.randn(1 << 17).toArray());
+        Assertions.assertArrayEquals(a.rand(5).toArray(), Tensor.rand(b, 5).toArray());
+        Assertions.assertFalse(Arrays.equals(first.toArray(), a.randn(1 << 17).toArray()));
+        Assertions.assertFalse(Arrays.equals(first.toArray(), new Generator(8).randn(1 << 17).toArray()));
+
+        Assertions.assertEquals(0.0, first.mean(), 0.01);
+        Assertions.assertEquals(1.0, first.std(), 0.01);
+        Tensor u = new Generator(1).uniform(-2, 3, 1 << 16);
+        Assertions.assertTrue(u.min() >= -2 && u.max() < 3);
+        Assertions.assertEquals(0.5, u.mean(), 0.02);
+        Tensor t = new Generator(1).truncatedNormal(1, 2, 0, 2, 10000);
+        Assertions.assertTrue(t.min() >= 0 && t.max() <= 2);
+        Tensor he = new Generator(1).heNormal(50, 50, 400);
+        Assertions.assertEquals(Math.sqrt(2.0 / 50), he.std(), 0.005);
+        double bound = Math.sqrt(6.0 / 30);
+        Tensor xavier = new Generator(1).xavierUniform(10, 20, 10, 20);
+        Assertions.assertTrue(xavier.max() < bound && xavier.min() >= -bound);
+
+        Generator.manualSeed(3);
+        double[] seeded = Tensor.randn(4).toArray();
+        Generator.manualSeed(3);
+        Assertions.assertArrayEquals(seeded, Tensor.randn(4).toArray());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.uniform(1, 0, 2));
+    }
+
+    @Test
+    public void softmaxIsStableAlongAnyDim() {
+        Tensor x = Tensor.of(new double[]{1, 2, 3, 1000, 1001, 1002}, 2, 3);
+        double[] expected = {0.09003057317038046, 0.24472847105479767, 0.6652409557748219};
+        Tensor s = x.softmax(1);
+        Assertions.assertArrayEquals(expected, s.select(0, 0).toArray(), 1e-15);
+        Assertions.assertArrayEquals(expected, s.select(0, 1).toArray(), 1e-15);
+        Assertions.assertArrayEquals(s.log().toArray(), x.logSoftmax(1).toArray(), 1e-12);
+        Assertions.assertArrayEquals(x.sub(x.logsumexp(1, true)).toArray(), x.logSoftmax(1).toArray(), 1e-12);
+        Assertions.assertArrayEquals(x.T().softmax(0).T().toArray(), s.toArray(), 1e-15);
+        Assertions.assertArrayEquals(new double[]{1, 1, 1}, x.softmax(0).sum(0).toArray(), 1e-15);
+
+        // a far-below-max entry underflows to 0 in softmax but stays finite in logSoftmax
+        Tensor wide = Tensor.of(new double[]{0, -800, Double.NEGATIVE_INFINITY}, 3);
+        Assertions.assertArrayEquals(new double[]{1, 0, 0}, wide.softmax(0).toArray());
+        Assertions.assertArrayEquals(new double[]{0, -800, Double.NEGATIVE_INFINITY}, wide.logSoftmax(0).toArray());
+        Assertions.assertTrue(Double.isNaN(Tensor.full(Double.NEGATIVE_INFINITY, 2).softmax(0).get(0)));
+        Assertions.assertEquals(DType.FLOAT32, x.to(DType.FLOAT32).softmax(0).dtype());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> x.softmax(2));
+    }
+
+    @Test
+    public void einsumMatchesExplicitSums() {
+        Tensor a = Tensor.randn(new Generator(11), 2, 3, 4), b = Tensor.randn(new Generator(12), 2, 4, 5);
+        Assertions.assertArrayEquals(a.matmul(b).toArray(), Tensors.einsum("bij,bjk->bik", a, b).toArray(), 1e-12);
+        // same contraction with b handed over transposed, so its operand layout differs from the request
+        Tensor bt = b.permute(0, 2, 1).contiguous();
+        Assertions.assertArrayEquals(a.matmul(b).toArray(), Tensors.einsum("bij,bkj->bik", a, bt).toArray(), 1e-12);
+
+        Tensor m = Tensor.of(new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, 3, 3);
+        Assertions.assertEquals(15.0, Tensors.einsum("ii", m).item());
+        Assertions.assertArrayEquals(new double[]{1, 5, 9}, Tensors.einsum("ii->i", m).toArray());
+        Assertions.assertArrayEquals(m.T().toArray(), Tensors.einsum("ij->ji", m).toArray());
+        Assertions.assertArrayEquals(m.sum(0).toArray(), Tensors.einsum("ij->j", m).toArray());
+        Tensor u = Tensor.of(new double[]{1, 2}, 2), v = Tensor.of(new double[]{3, 4, 5}, 3);
+        Assertions.assertArrayEquals(new double[]{3, 4, 5, 6, 8, 10}, Tensors.einsum("i,j", u, v).toArray());
+
+        // a chain whose cheapest order is not left to right, against the explicit quadruple loop
+        Tensor p = Tensor.randn(new Generator(13), 6, 2), q = Tensor.randn(new Generator(14), 2, 7);
+        Tensor r = Tensor.randn(new Generator(15), 7, 3), w = Tensor.randn(new Generator(16), 3, 6);
+        Tensor chain = Tensors.einsum("ij,jk,kl,li->i", p, q, r, w);
+        for (int i = 0; i < 6; i++) {
+            double s = 0;
+            for (int j = 0; j < 2; j++)
+                for (int k = 0; k < 7; k++)
+                    for (int l = 0; l < 3; l++) s += p.get(i, j) * q.get(j, k) * r.get(k, l) * w.get(l, i);
+            Assertions.assertEquals(s, chain.get(i), 1e-12);
+        }
+        Assertions.assertArrayEquals(p.matmul(q).matmul(r).matmul(w).toArray(),
+            Tensors.einsum("ij,jk,kl,lm", p, q, r, w).toArray(), 1e-12);
+
+        // reshapes of permuted views read the same elements as reshapes of their copies
+        Tensor x = Tensor.arange(24).reshape(2, 3, 4).permute(2, 0, 1);
+        Assertions.assertArrayEquals(x.contiguous().reshape(4, 6).toArray(), x.reshape(4, 6).toArray());
+        Assertions.assertArrayEquals(x.contiguous().reshape(2, 2, 3, 2).toArray(), x.reshape(2, 2, 3, 2).toArray());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensors.einsum("ij,jk", m, u));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensors.einsum("ij,jk", m));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensors.einsum("ij->z", m));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tensors.einsum("...ij->ji", m));
+    }
+
+    @Test
+    public void topkSortAndIndexingAlongADim() {
+        Tensor x = Tensor.of(new double[]{3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8}, 2, 6);
+        var top = x.topk(3, 1);
+        Assertions.assertArrayEquals(new double[]{9, 5, 4, 8, 6, 5}, top.values().toArray());
+        Assertions.assertArrayEquals(new double[]{5, 4, 2, 5, 1, 2}, top.indices().toArray());
+        // ties keep index order, both for the smallest and for a stable sort
+        Assertions.assertArrayEquals(new double[]{1, 3}, x.topk(2, 1, false).indices().select(0, 0).toArray());
+        Assertions.assertArrayEquals(new double[]{1, 3, 0, 2, 4, 5}, x.argsort(1).select(0, 0).toArray());
+        Assertions.assertArrayEquals(new double[]{8, 6, 5, 5, 3, 2}, x.sort(1, true).values().select(0, 1).toArray());
+        Assertions.assertArrayEquals(new double[]{2, 1, 4, 1, 5, 8, 3, 6, 5, 3, 5, 9}, x.sort(0).values().toArray());
+        Assertions.assertArrayEquals(x.T().topk(2, 0).values().T().toArray(), x.topk(2, 1).values().toArray());
+        Assertions.assertArrayEquals(new double[]{Double.NaN, 2, 1}, Tensor.of(new double[]{1, Double.NaN, 2}, 3).sort(0, true).values().toArray());
+
+        // a long random row against a full sort
+        Tensor r = Tensor.randn(new Generator(21), 4, 1000);
+        double[] sorted = r.select(0, 2).toArray();
+        Arrays.sort(sorted);
+        double[] largest = r.topk(10, 1).values().select(0, 2).toArray();
+        for (int i = 0; i < 10; i++) Assertions.assertEquals(sorted[999 - i], largest[i]);
+        Assertions.assertArrayEquals(sorted, r.sort(1).values().select(0, 2).toArray());
+
+        Tensor index = Tensor.of(new double[]{0, 0, 1, 1, 0, 1}, 2, 3);
+        Tensor m = Tensor.of(new double[]{1, 2, 3, 4, 5, 6}, 2, 3);
+        Assertions.assertArrayEquals(new double[]{1, 2, 6, 4, 2, 6}, m.gather(0, index).toArray());
+        Assertions.assertArrayEquals(new double[]{1, 1, 2, 5, 4, 5}, m.gather(1, index).toArray());
+        Assertions.assertArrayEquals(new double[]{1, 1, 0, 0, 0, 1},
+            Tensor.zeros(2, 3).scatterAdd(0, index.narrow(0, 0, 1), Tensor.ones(2, 3)).toArray());
+        Assertions.assertArrayEquals(new double[]{2, 1, 0, 1, 2, 0},
+            Tensor.zeros(2, 3).scatterAdd(1, index, Tensor.ones(2, 3)).toArray());
+        Assertions.assertArrayEquals(new double[]{3, 1, 3, 6, 4, 6}, m.indexSelect(1, Tensor.of(new double[]{2, 0, 2}, 3)).toArray());
+        Assertions.assertArrayEquals(new double[]{4, 5, 6}, m.indexSelect(0, Tensor.of(new double[]{1}, 1)).toArray());
+
+        // FLOAT32, off-heap and strided inputs are read row by row and agree with the heap FLOAT64 results
+        Tensor wide = Tensor.randn(new Generator(22), 3, 400);
+        Tensor picks = Tensor.of(new double[]{399, 0, 7, 250, 3, 3}, 3, 2);
+        try (Tensor off = Tensor.offHeap(3, 400)) {
+            off.copyFrom(wide);
+            for (Tensor v : List.of(off, wide.T().mul(1.0).T())) {
+                Assertions.assertArrayEquals(wide.topk(5, 1).values().toArray(), v.topk(5, 1).values().toArray());
+                Assertions.assertArrayEquals(wide.topk(5, 1).indices().toArray(), v.topk(5, 1).indices().toArray());
+                Assertions.assertArrayEquals(wide.sort(1).values().toArray(), v.sort(1).values().toArray());
+                Assertions.assertArrayEquals(wide.gather(1, picks).toArray(), v.gather(1, picks).toArray());
+                Assertions.assertArrayEquals(wide.gather(1, wide.argsort(1)).toArray(), v.gather(1, wide.argsort(1)).toArray());
+                Assertions.assertArrayEquals(wide.indexSelect(1, Tensor.of(new double[]{5, 399}, 2)).toArray(),
+                    v.indexSelect(1, Tensor.of(new double[]{5, 399}, 2)).toArray());
+                Assertions.assertArrayEquals(wide.scatterAdd(1, picks, wide).toArray(), v.scatterAdd(1, picks, v).toArray());
+            }
+            Tensor f = wide.to(DType.FLOAT32), rounded = f.to(DType.FLOAT64);
+            Assertions.assertEquals(DType.FLOAT32, f.topk(5, 1).values().dtype());
+            Assertions.assertArrayEquals(rounded.topk(5, 1).values().toArray(), f.topk(5, 1).values().toArray());
+            Assertions.assertArrayEquals(rounded.topk(5, 1).indices().toArray(), f.topk(5, 1).indices().toArray());
+            Assertions.assertArrayEquals(rounded.gather(1, picks).toArray(), f.gather(1, picks).toArray());
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> x.topk(7, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> m.gather(0, Tensor.of(new double[]{2}, 1, 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> m.gather(0, Tensor.of(new double[]{0.5}, 1, 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> m.indexSelect(0, index));
+    }
 }
- 
\ No newline at end of file